@@ -52,6 +52,28 @@ public class ArtifactCallbackStream extends FilterInputStream {
         this.callback = callback;
     }
 
+    /**
+     * @return the stream we report the reads of
+     */
+    public InputStream getStream() {
+        return in;
+    }
+
+    /**
+     * Report content which was not read through this stream,
+     * e.g. the part of a download an earlier attempt left behind.
+     * The content is not closed.
+     *
+     * @param content the content
+     */
+    public void alreadyRead(InputStream content) throws IOException {
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = content.read(buffer)) != -1) {
+            callback.read(buffer, read);
+        }
+    }
+
     public int read() throws IOException {
         return read(new byte[1]);
     }
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.cmr.api;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.redhat.ceylon.model.cmr.ArtifactResult;
+
+/**
+ * Asynchronous facade over a repository manager.
+ * Lookups run on the given executor, and cancelling a returned future
+ * aborts the connections the lookup has open.
+ */
+public class AsyncRepositoryManager {
+
+    private final RepositoryManager manager;
+    private final ExecutorService executor;
+
+    /**
+     * Use a default executor: virtual threads if the JVM has them, daemon threads otherwise.
+     *
+     * @param manager the repository manager
+     */
+    public AsyncRepositoryManager(RepositoryManager manager) {
+        this(manager, createDefaultExecutor());
+    }
+
+    public AsyncRepositoryManager(RepositoryManager manager, ExecutorService executor) {
+        if (manager == null)
+            throw new IllegalArgumentException("Null manager");
+        if (executor == null)
+            throw new IllegalArgumentException("Null executor");
+        this.manager = manager;
+        this.executor = executor;
+    }
+
+    public RepositoryManager getRepositoryManager() {
+        return manager;
+    }
+
+    public Future<ArtifactResult> getArtifactResult(final String name, final String version) {
+        return submit(new Callable<ArtifactResult>() {
+            public ArtifactResult call() throws Exception {
+                return manager.getArtifactResult(name, version);
+            }
+        });
+    }
+
+    public Future<ArtifactResult> getArtifactResult(final ArtifactContext context) {
+        return submit(new Callable<ArtifactResult>() {
+            public ArtifactResult call() throws Exception {
+                return manager.getArtifactResult(context);
+            }
+        });
+    }
+
+    public Future<List<ArtifactResult>> getArtifactResults(final ArtifactContext context) {
+        return submit(new Callable<List<ArtifactResult>>() {
+            public List<ArtifactResult> call() throws Exception {
+                return manager.getArtifactResults(context);
+            }
+        });
+    }
+
+    public Future<ModuleSearchResult> completeModules(final ModuleQuery query) {
+        return submit(new Callable<ModuleSearchResult>() {
+            public ModuleSearchResult call() throws Exception {
+                return manager.completeModules(query);
+            }
+        });
+    }
+
+    public Future<ModuleVersionResult> completeVersions(final ModuleVersionQuery query) {
+        return submit(new Callable<ModuleVersionResult>() {
+            public ModuleVersionResult call() throws Exception {
+                return manager.completeVersions(query);
+            }
+        });
+    }
+
+    public Future<ModuleSearchResult> searchModules(final ModuleQuery query) {
+        return submit(new Callable<ModuleSearchResult>() {
+            public ModuleSearchResult call() throws Exception {
+                return manager.searchModules(query);
+            }
+        });
+    }
+
+    /**
+     * Shutdown the executor; pending lookups still complete.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    protected <T> Future<T> submit(Callable<T> callable) {
+        final Cancellation cancellation = new Cancellation();
+        // the caller's callback doesn't follow us to the worker thread
+        final ArtifactCallback callback = ArtifactCallbackStream.getCallback();
+        final FutureTask<T> task = new CancellableTask<T>(new LookupCallable<T>(callable, cancellation, callback), cancellation);
+        executor.execute(task);
+        return task;
+    }
+
+    private static ExecutorService createDefaultExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (Exception ignored) {
+            // no virtual threads on this JVM
+        }
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "CMR async lookup " + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private static class LookupCallable<T> implements Callable<T> {
+        private final Callable<T> delegate;
+        private final Cancellation cancellation;
+        private final ArtifactCallback callback;
+
+        private LookupCallable(Callable<T> delegate, Cancellation cancellation, ArtifactCallback callback) {
+            this.delegate = delegate;
+            this.cancellation = cancellation;
+            this.callback = callback;
+        }
+
+        public T call() throws Exception {
+            Cancellation.setCancellation(cancellation);
+            ArtifactCallbackStream.setCallback(callback);
+            try {
+                return delegate.call();
+            } finally {
+                ArtifactCallbackStream.setCallback(null);
+                Cancellation.setCancellation(null);
+            }
+        }
+    }
+
+    private static class CancellableTask<T> extends FutureTask<T> {
+        private final Cancellation cancellation;
+
+        private CancellableTask(Callable<T> callable, Cancellation cancellation) {
+            super(callable);
+            this.cancellation = cancellation;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            final boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                cancellation.cancel();
+            }
+            return cancelled;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.cmr.api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cancellation of a running lookup.
+ * Content stores register their open connections with the
+ * cancellation set for the current thread, so cancelling
+ * aborts blocked network I/O instead of waiting for timeouts,
+ * and unregister them once they are done with them.
+ */
+public final class Cancellation {
+    private static final ThreadLocal<Cancellation> TL = new ThreadLocal<>();
+
+    private static final Closeable NOTHING = new Closeable() {
+        public void close() {
+        }
+    };
+
+    private final Set<Closeable> resources = Collections.newSetFromMap(new ConcurrentHashMap<Closeable, Boolean>());
+    private volatile boolean cancelled;
+
+    /**
+     * Set cancellation for this thread.
+     * If cancellation param is null, it will remove any currently set cancellation.
+     *
+     * @param cancellation the cancellation
+     */
+    public static void setCancellation(Cancellation cancellation) {
+        if (cancellation != null) {
+            TL.set(cancellation);
+        } else {
+            TL.remove();
+        }
+    }
+
+    public static Cancellation getCancellation() {
+        return TL.get();
+    }
+
+    /**
+     * Register a resource with this thread's cancellation, if any.
+     *
+     * @param resource the resource to close on cancel
+     * @return the registration, close it to unregister the resource once it is done
+     * @throws InterruptedIOException if the lookup was already cancelled
+     */
+    public static Closeable register(final Closeable resource) throws InterruptedIOException {
+        final Cancellation cancellation = TL.get();
+        if (cancellation == null) {
+            return NOTHING;
+        }
+        cancellation.add(resource);
+        return new Closeable() {
+            public void close() {
+                cancellation.resources.remove(resource);
+            }
+        };
+    }
+
+    /**
+     * Check this thread's cancellation, if any.
+     *
+     * @throws InterruptedIOException if the lookup was cancelled
+     */
+    public static void check() throws InterruptedIOException {
+        final Cancellation cancellation = TL.get();
+        if (cancellation != null && cancellation.isCancelled()) {
+            throw new InterruptedIOException("Lookup cancelled");
+        }
+    }
+
+    private void add(Closeable resource) throws InterruptedIOException {
+        resources.add(resource);
+        // we might have raced with cancel()
+        if (cancelled) {
+            if (resources.remove(resource)) {
+                close(resource);
+            }
+            throw new InterruptedIOException("Lookup cancelled");
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Cancel, closing all registered resources.
+     */
+    public void cancel() {
+        cancelled = true;
+        for (Closeable resource : resources) {
+            if (resources.remove(resource)) {
+                close(resource);
+            }
+        }
+    }
+
+    private static void close(Closeable resource) {
+        try {
+            resource.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
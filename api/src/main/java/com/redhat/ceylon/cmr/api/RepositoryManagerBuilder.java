@@ -131,11 +131,35 @@ public class RepositoryManagerBuilder {
         return this;
     }
 
+    public RepositoryManagerBuilder resolutionMonitor(ResolutionMonitor monitor) {
+        getDelegate().resolutionMonitor(monitor);
+        return this;
+    }
+
+    /**
+     * Keep the cache's artifacts once per SHA-1 in the given directory, hard linked into the cache.
+     * Put it on the same file system as the cache, or the links fall back to copies.
+     */
+    public RepositoryManagerBuilder contentAddressedStore(File blobs) {
+        getDelegate().contentAddressedStore(blobs);
+        return this;
+    }
+
     public RepositoryManagerBuilder addRepository(CmrRepository external) {
         getDelegate().addRepository(external);
         return this;
     }
 
+    /**
+     * Add repositories which are mirrors of the same content, e.g. Herd and a Herd proxy.
+     * Lookups go to the mirror with the best measured download throughput, and downloads
+     * fail over to the other mirrors on errors or SHA-1 mismatches.
+     */
+    public RepositoryManagerBuilder addMirrorGroup(CmrRepository... mirrors) {
+        getDelegate().addMirrorGroup(mirrors);
+        return this;
+    }
+
     public List<String> getRepositoriesDisplayString() {
         return getDelegate().getRepositoriesDisplayString();
     }
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.cmr.api;
+
+import com.redhat.ceylon.cmr.spi.Node;
+
+/**
+ * Resolution monitor.
+ * Gets notified of every step a repository manager takes while resolving an artifact.
+ * Implementations are called on the lookup hot path, so they must be cheap and thread safe.
+ */
+public interface ResolutionMonitor {
+
+    /**
+     * Lookup across all repositories started.
+     *
+     * @param context the artifact context
+     */
+    void lookup(ArtifactContext context);
+
+    /**
+     * Repository skipped, as it cannot contain this kind of artifact.
+     *
+     * @param repository the repository
+     * @param context the artifact context
+     */
+    void skipped(CmrRepository repository, ArtifactContext context);
+
+    /**
+     * Repository about to be looked into.
+     *
+     * @param repository the repository
+     * @param context the artifact context
+     */
+    void trying(CmrRepository repository, ArtifactContext context);
+
+    /**
+     * Artifact found in repository.
+     *
+     * @param repository the repository
+     * @param context the artifact context
+     * @param node the found node
+     * @param parentNanos time spent finding the parent
+     * @param childNanos time spent finding the artifact below its parent
+     */
+    void found(CmrRepository repository, ArtifactContext context, Node node, long parentNanos, long childNanos);
+
+    /**
+     * Artifact not found in repository.
+     *
+     * @param repository the repository
+     * @param context the artifact context
+     * @param parentNanos time spent finding the parent
+     * @param childNanos time spent finding the artifact below its parent
+     */
+    void notFound(CmrRepository repository, ArtifactContext context, long parentNanos, long childNanos);
+
+    /**
+     * Artifact not found in any repository.
+     *
+     * @param context the artifact context
+     */
+    void notFound(ArtifactContext context);
+
+    /**
+     * Remote artifact about to be fetched, to copy it to the cache.
+     *
+     * @param context the artifact context
+     * @param node the remote node
+     */
+    void caching(ArtifactContext context, Node node);
+
+    /**
+     * Artifact content about to be stored.
+     *
+     * @param context the artifact context
+     * @param node the node, a remote one when caching
+     * @param store where it goes, or null if there is no such place
+     */
+    void storing(ArtifactContext context, Node node, String store);
+
+    /**
+     * Remote artifact copied to the cache.
+     *
+     * @param repository the repository it came from, or null if unknown
+     * @param context the artifact context
+     * @param bytes the bytes transferred
+     * @param nanos the transfer time
+     */
+    void downloaded(CmrRepository repository, ArtifactContext context, long bytes, long nanos);
+
+    /**
+     * Artifact SHA1 checked.
+     *
+     * @param context the artifact context
+     * @param valid the result, or null if there was no SHA1 to check against
+     * @param nanos the time spent checking
+     */
+    void shaChecked(ArtifactContext context, Boolean valid, long nanos);
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.cmr.api;
+
+/**
+ * Artifact callback which also hears about downloads waiting for a transfer slot,
+ * before {@link #start} is invoked.
+ */
+public interface ScheduledArtifactCallback extends ArtifactCallback {
+    /**
+     * Invoked when a download has to wait for other transfers to finish.
+     *
+     * @param nodeFullPath the full path of the node
+     * @param ahead how many transfers are running or queued ahead of it
+     * @param contentStore the content store this artifact will be downloaded from
+     */
+    void waiting(String nodeFullPath, int ahead, String contentStore);
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.cmr.benchmarks;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import com.redhat.ceylon.cmr.api.ModuleInfo;
+import com.redhat.ceylon.cmr.api.ModuleVersionDetails;
+import com.redhat.ceylon.cmr.impl.BytecodeUtils;
+import com.redhat.ceylon.cmr.impl.JSUtils;
+import com.redhat.ceylon.common.FileUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Module descriptor reads from a .car ({@link BytecodeUtils}) and a .js ({@link JSUtils}),
+ * which search and dependency resolution do for every artifact they look at.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModuleInfoBenchmark {
+    private File dir;
+    private File car;
+    private File js;
+
+    @Setup
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("ceylon-bench-info-").toFile();
+        car = SyntheticRepository.extract("repo/hello/1.0.0/hello-1.0.0.car", dir);
+        js = SyntheticRepository.extract("repo/hello/1.0.0/hello-1.0.0.js", dir);
+    }
+
+    @TearDown
+    public void tearDown() {
+        FileUtil.deleteQuietly(dir);
+    }
+
+    @Benchmark
+    public ModuleInfo carDependencies() {
+        return BytecodeUtils.INSTANCE.resolveFromFile(car, "hello", "1.0.0", null);
+    }
+
+    @Benchmark
+    public ModuleVersionDetails carModuleInfo() {
+        return BytecodeUtils.INSTANCE.readModuleInfo("hello", "1.0.0", car, false, null);
+    }
+
+    @Benchmark
+    public ModuleVersionDetails carModuleInfoWithMembers() {
+        return BytecodeUtils.INSTANCE.readModuleInfo("hello", "1.0.0", car, true, null);
+    }
+
+    @Benchmark
+    public int[] carBinaryVersions() {
+        return BytecodeUtils.INSTANCE.getBinaryVersions("hello", "1.0.0", car);
+    }
+
+    @Benchmark
+    public ModuleInfo jsDependencies() {
+        return JSUtils.INSTANCE.resolveFromFile(js, "hello", "1.0.0", null);
+    }
+
+    @Benchmark
+    public ModuleVersionDetails jsModuleInfo() {
+        return JSUtils.INSTANCE.readModuleInfo("hello", "1.0.0", js, false, null);
+    }
+
+    @Benchmark
+    public int[] jsBinaryVersions() {
+        return JSUtils.INSTANCE.getBinaryVersions("hello", "1.0.0", js);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.cmr.benchmarks;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.redhat.ceylon.cmr.api.ArtifactContext;
+import com.redhat.ceylon.cmr.api.ModuleDependencyInfo;
+import com.redhat.ceylon.cmr.api.ModuleInfo;
+import com.redhat.ceylon.cmr.api.Overrides;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link Overrides} lookups, as done for every artifact and dependency during resolution,
+ * against an overrides file with the given number of rules of each kind.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OverridesBenchmark {
+    @Param({"10", "1000"})
+    public int rules;
+
+    private Overrides overrides;
+    private ArtifactContext hit;
+    private ArtifactContext miss;
+    private ModuleInfo dependencies;
+
+    @Setup
+    public void setup() throws Exception {
+        final StringBuilder xml = new StringBuilder("<overrides>\n");
+        for (int i = 0; i < rules; i++) {
+            xml.append("  <artifact module=\"org.acme.a").append(i).append("\" version=\"1.0\">\n");
+            xml.append("    <remove module=\"org.acme.r").append(i).append("\"/>\n");
+            xml.append("    <add module=\"org.acme.x").append(i).append("\" version=\"2.0\"/>\n");
+            xml.append("  </artifact>\n");
+            xml.append("  <remove module=\"org.acme.g").append(i).append("\" version=\"1.0\"/>\n");
+            xml.append("  <set module=\"org.acme.s").append(i).append("\" version=\"3.0\"/>\n");
+            xml.append("  <replace module=\"org.acme.o").append(i).append("\" version=\"1.0\">\n");
+            xml.append("    <with module=\"org.acme.n").append(i).append("\" version=\"1.1\"/>\n");
+            xml.append("  </replace>\n");
+        }
+        xml.append("</overrides>\n");
+        final File file = File.createTempFile("ceylon-bench-overrides-", ".xml");
+        try {
+            Files.write(file.toPath(), xml.toString().getBytes(StandardCharsets.UTF_8));
+            overrides = Overrides.parse(file.getPath());
+        } finally {
+            file.delete();
+        }
+
+        final int middle = rules / 2;
+        hit = new ArtifactContext("org.acme.a" + middle, "1.0");
+        miss = new ArtifactContext("org.acme.none", "1.0");
+        final Set<ModuleDependencyInfo> deps = new HashSet<>();
+        for (int i = 0; i < 20; i++) {
+            deps.add(new ModuleDependencyInfo("org.acme.r" + (middle + i), "1.0", false, false));
+        }
+        dependencies = new ModuleInfo(null, deps);
+    }
+
+    @Benchmark
+    public Object artifactOverridesHit() {
+        return overrides.getArtifactOverrides(hit);
+    }
+
+    @Benchmark
+    public Object artifactOverridesMiss() {
+        return overrides.getArtifactOverrides(miss);
+    }
+
+    @Benchmark
+    public boolean isRemovedMiss() {
+        // scans every global remove rule
+        return overrides.isRemoved(miss);
+    }
+
+    @Benchmark
+    public Object replaceMiss() {
+        return overrides.replace(miss);
+    }
+
+    @Benchmark
+    public String versionOverrideMiss() {
+        return overrides.getVersionOverride(miss);
+    }
+
+    @Benchmark
+    public ModuleInfo applyOverrides() {
+        return overrides.applyOverrides(hit.getName(), hit.getVersion(), dependencies);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.cmr.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.redhat.ceylon.cmr.api.ArtifactContext;
+import com.redhat.ceylon.cmr.api.RepositoryManager;
+import com.redhat.ceylon.cmr.api.RepositoryManagerBuilder;
+import com.redhat.ceylon.cmr.impl.CMRJULLogger;
+import com.redhat.ceylon.common.FileUtil;
+import com.redhat.ceylon.common.log.Logger;
+import com.redhat.ceylon.model.cmr.ArtifactResult;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <code>RootRepositoryManager.getArtifactResult</code> against a local HTTP repository
+ * which answers every request after the given latency.
+ * <p/>
+ * <code>cold</code> starts each call with an empty cache, so it measures the remote round trips;
+ * <code>warm</code> asks for an artifact already in the cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RemoteResolutionBenchmark {
+    private static final int MODULES = 100;
+
+    @Param({"0", "10", "50"})
+    public int latency;
+
+    private final Logger log = new CMRJULLogger();
+    private File repo;
+    private HttpServer server;
+    private ExecutorService executor;
+    private String url;
+
+    private File cache;
+    private RepositoryManager manager;
+    private ArtifactContext context;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        repo = Files.createTempDirectory("ceylon-bench-remote-").toFile();
+        SyntheticRepository.generate(repo, MODULES, 1);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    if (latency > 0)
+                        Thread.sleep(latency);
+                    serve(exchange);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+        url = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        final File file = new File(repo, exchange.getRequestURI().getPath());
+        if (file.isFile() == false) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        final boolean head = exchange.getRequestMethod().equals("HEAD");
+        exchange.getResponseHeaders().set("Content-Length", String.valueOf(file.length()));
+        exchange.sendResponseHeaders(200, head ? -1 : file.length());
+        if (head == false) {
+            try (OutputStream os = exchange.getResponseBody()) {
+                Files.copy(file.toPath(), os);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop(0);
+        executor.shutdownNow();
+        FileUtil.deleteQuietly(repo);
+    }
+
+    private RepositoryManager createManager(File cacheDir) throws Exception {
+        final RepositoryManagerBuilder builder = new RepositoryManagerBuilder(cacheDir, log, false, 20000, Proxy.NO_PROXY);
+        builder.addRepository(builder.repositoryBuilder().buildRepository(url));
+        return builder.buildRepository();
+    }
+
+    private ArtifactContext nextContext() {
+        final int index = next++ % MODULES;
+        return new ArtifactContext(SyntheticRepository.moduleName(index), SyntheticRepository.version(0), ArtifactContext.JS);
+    }
+
+    @State(Scope.Thread)
+    public static class Cold {
+        private File cache;
+        private RepositoryManager manager;
+        private ArtifactContext context;
+
+        @Setup(Level.Invocation)
+        public void setup(RemoteResolutionBenchmark benchmark) throws Exception {
+            cache = Files.createTempDirectory("ceylon-bench-cache-").toFile();
+            manager = benchmark.createManager(cache);
+            context = benchmark.nextContext();
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() {
+            FileUtil.deleteQuietly(cache);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setupWarm() throws Exception {
+        cache = Files.createTempDirectory("ceylon-bench-cache-").toFile();
+        manager = createManager(cache);
+        context = nextContext();
+        if (manager.getArtifactResult(context) == null)
+            throw new IllegalStateException("Cannot resolve " + context + " from " + url);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownWarm() {
+        FileUtil.deleteQuietly(cache);
+    }
+
+    @Benchmark
+    public ArtifactResult cold(Cold cold) {
+        return cold.manager.getArtifactResult(cold.context);
+    }
+
+    @Benchmark
+    public ArtifactResult warm() {
+        return manager.getArtifactResult(context);
+    }
+}
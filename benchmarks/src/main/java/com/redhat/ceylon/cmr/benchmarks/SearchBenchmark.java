@@ -0,0 +1,125 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.cmr.benchmarks;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import com.redhat.ceylon.cmr.api.CmrRepository;
+import com.redhat.ceylon.cmr.api.ModuleQuery;
+import com.redhat.ceylon.cmr.api.ModuleSearchResult;
+import com.redhat.ceylon.cmr.api.ModuleVersionQuery;
+import com.redhat.ceylon.cmr.api.ModuleVersionResult;
+import com.redhat.ceylon.cmr.impl.DefaultRepository;
+import com.redhat.ceylon.cmr.impl.FileContentStore;
+import com.redhat.ceylon.common.FileUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <code>AbstractRepository.searchModules</code>, <code>completeModules</code> and <code>completeVersions</code>
+ * over a synthetic file repository, see {@link SyntheticRepository}.
+ * <p/>
+ * The repository is generated once per trial, so the file system cache is warm;
+ * the 100k modules case needs a few hundred MB of disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int modules;
+
+    @Param({"3"})
+    public int versions;
+
+    private File dir;
+    private CmrRepository repository;
+    private String module;
+
+    @Setup
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("ceylon-bench-search-").toFile();
+        SyntheticRepository.generate(dir, modules, versions);
+        repository = new DefaultRepository(new FileContentStore(dir).createRoot());
+        module = SyntheticRepository.moduleName(modules / 2);
+    }
+
+    @TearDown
+    public void tearDown() {
+        FileUtil.deleteQuietly(dir);
+    }
+
+    /**
+     * First page of an unfiltered search, what <code>ceylon search</code> shows.
+     */
+    @Benchmark
+    public ModuleSearchResult searchFirstPage() {
+        final ModuleQuery query = new ModuleQuery("", ModuleQuery.Type.JS);
+        query.setStart(0L);
+        query.setCount(20L);
+        final ModuleSearchResult result = new ModuleSearchResult();
+        repository.searchModules(query, result);
+        return result;
+    }
+
+    /**
+     * A search that has to look at every module.
+     */
+    @Benchmark
+    public ModuleSearchResult searchAll() {
+        final ModuleQuery query = new ModuleQuery(module, ModuleQuery.Type.JS);
+        final ModuleSearchResult result = new ModuleSearchResult();
+        repository.searchModules(query, result);
+        return result;
+    }
+
+    /**
+     * Completing a package prefix, as an IDE does while typing an import.
+     */
+    @Benchmark
+    public ModuleSearchResult completeModules() {
+        final String name = module.substring(0, module.lastIndexOf('.') + 2);
+        final ModuleQuery query = new ModuleQuery(name, ModuleQuery.Type.JS);
+        final ModuleSearchResult result = new ModuleSearchResult();
+        repository.completeModules(query, result);
+        return result;
+    }
+
+    @Benchmark
+    public ModuleVersionResult completeVersions() {
+        final ModuleVersionQuery query = new ModuleVersionQuery(module, null, ModuleQuery.Type.JS);
+        final ModuleVersionResult result = new ModuleVersionResult(module);
+        repository.completeVersions(query, result);
+        return result;
+    }
+}
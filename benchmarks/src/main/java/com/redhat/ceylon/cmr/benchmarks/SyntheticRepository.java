@@ -0,0 +1,93 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.cmr.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Generates Ceylon repositories of any size on disk.
+ * <p/>
+ * Module <code>i</code> is <code>bench.p&lt;i/100&gt;.m&lt;i&gt;</code>,
+ * so no folder has more than a hundred modules, each with a small JS artifact
+ * carrying just the metamodel header the module info readers look at.
+ */
+final class SyntheticRepository {
+    static final String PREFIX = "bench";
+
+    private static final String JS_TEMPLATE =
+            "(function(define) { define(function(require, exports, module) {\n" +
+            "var $$METAMODEL$$={\"$mod-deps\":[\"ceylon.language\\/1.1.0\"%s],\"$mod-name\":\"%s\",\"$mod-version\":\"%s\",\"$mod-bin\":\"8.0\"};\n" +
+            "exports.$$METAMODEL$$=function(){return $$METAMODEL$$;};\n" +
+            "});\n" +
+            "}(typeof define==='function' && define.amd ? define : function (factory) {\n" +
+            "if (typeof exports!=='undefined') { factory(require, exports, module); } else { throw 'no module loader'; }\n" +
+            "}));\n";
+
+    private SyntheticRepository() {
+    }
+
+    static String moduleName(int index) {
+        return PREFIX + ".p" + (index / 100) + ".m" + index;
+    }
+
+    static String version(int index) {
+        return "1.0." + index;
+    }
+
+    /**
+     * @param dir the repository root
+     * @param modules how many modules
+     * @param versions how many versions of each module
+     */
+    static void generate(File dir, int modules, int versions) throws IOException {
+        for (int i = 0; i < modules; i++) {
+            final String name = moduleName(i);
+            // every module depends on its predecessor, to give the readers something to parse
+            final String deps = i > 0 ? ",\"" + moduleName(i - 1) + "\\/" + version(0) + "\"" : "";
+            for (int v = 0; v < versions; v++) {
+                final String version = version(v);
+                final File folder = new File(dir, name.replace('.', File.separatorChar) + File.separator + version);
+                if (folder.mkdirs() == false && folder.isDirectory() == false)
+                    throw new IOException("Cannot create dirs: " + folder);
+                final String js = String.format(JS_TEMPLATE, deps, name, version);
+                Files.write(new File(folder, name + "-" + version + ".js").toPath(), js.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * Copy a bundled resource, e.g. <code>repo/hello/1.0.0/hello-1.0.0.car</code>, under the given root.
+     */
+    static File extract(String resource, File root) throws IOException {
+        final File target = new File(root, resource);
+        final File parent = target.getParentFile();
+        if (parent.mkdirs() == false && parent.isDirectory() == false)
+            throw new IOException("Cannot create dirs: " + parent);
+        try (InputStream is = SyntheticRepository.class.getClassLoader().getResourceAsStream(resource)) {
+            if (is == null)
+                throw new IOException("No such resource: " + resource);
+            Files.copy(is, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return target;
+    }
+}
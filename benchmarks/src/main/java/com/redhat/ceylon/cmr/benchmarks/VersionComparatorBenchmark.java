@@ -0,0 +1,103 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.cmr.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.redhat.ceylon.cmr.api.MavenVersionComparator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@link MavenVersionComparator#compareVersions(String, String)},
+ * one pair at a time and as the comparator of a version list sort.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VersionComparatorBenchmark {
+    private static final String[] VERSIONS = {
+            "1.0", "1.0.0", "1.0.0.Final", "1.0.1", "1.0-SNAPSHOT", "1.0-alpha-1", "1.0-beta-2", "1.0-rc1",
+            "1.1", "1.1.0.CR1", "1.10", "2.0.0-M1", "2.0.0", "2.0.0.RELEASE", "3.1.4-jboss-1", "20041127.091804",
+    };
+
+    private String[] left;
+    private String[] right;
+    private List<String> unsorted;
+
+    private static final Comparator<String> COMPARATOR = new Comparator<String>() {
+        @Override
+        public int compare(String a, String b) {
+            return MavenVersionComparator.compareVersions(a, b);
+        }
+    };
+
+    @Setup
+    public void setup() {
+        final int n = VERSIONS.length * VERSIONS.length;
+        left = new String[n];
+        right = new String[n];
+        for (int i = 0; i < VERSIONS.length; i++) {
+            for (int j = 0; j < VERSIONS.length; j++) {
+                left[i * VERSIONS.length + j] = VERSIONS[i];
+                right[i * VERSIONS.length + j] = VERSIONS[j];
+            }
+        }
+        // what a Maven artifact's version listing looks like
+        unsorted = new ArrayList<>();
+        for (int major = 0; major < 5; major++) {
+            for (int minor = 0; minor < 20; minor++) {
+                unsorted.add(major + "." + minor + ".0");
+                unsorted.add(major + "." + minor + ".1-SNAPSHOT");
+                unsorted.add(major + "." + minor + ".0.Final");
+            }
+        }
+        Collections.shuffle(unsorted, new Random(42));
+    }
+
+    @Benchmark
+    public void comparePairs(Blackhole bh) {
+        for (int i = 0; i < left.length; i++) {
+            bh.consume(MavenVersionComparator.compareVersions(left[i], right[i]));
+        }
+    }
+
+    @Benchmark
+    public List<String> sortVersions() {
+        final List<String> copy = new ArrayList<>(unsorted);
+        Collections.sort(copy, COMPARATOR);
+        return copy;
+    }
+}
@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.Proxy;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -39,10 +40,12 @@ public class CeylonUtils {
         private File cwd;
         private String systemRepo;
         private String cacheRepo;
+        private String blobRepo;
         private String overrides;
         private List<String> userRepos;
         private List<String> extraUserRepos;
         private List<String> remoteRepos;
+        private List<List<String>> mirrorGroups;
         private String outRepo;
         private String user;
         private String password;
@@ -139,6 +142,18 @@ public class CeylonUtils {
             return this;
         }
 
+        /**
+         * Sets the path of a blob store the cache keeps its artifacts in, once per SHA-1,
+         * hard linked into the cache. When not set the cache holds plain copies
+         *
+         * @param blobRepo A path to a folder on the same file system as the cache
+         * @return This object for chaining method calls
+         */
+        public CeylonRepoManagerBuilder blobRepo(String blobRepo) {
+            this.blobRepo = blobRepo;
+            return this;
+        }
+
         /**
          * Sets the path to use for the module overrides XML file
          *
@@ -180,6 +195,23 @@ public class CeylonUtils {
             return this;
         }
 
+        /**
+         * Adds a group of repositories which are mirrors of the same content, e.g. Herd
+         * and an internal Herd proxy. They are looked in right after the remote repositories,
+         * preferring the mirror with the best measured download throughput, and failing
+         * over to the others when a download fails. Can be called more than once
+         *
+         * @param mirrorRepos A list of paths to Ceylon repositories with the same content
+         * @return This object for chaining method calls
+         */
+        public CeylonRepoManagerBuilder mirrorGroup(List<String> mirrorRepos) {
+            if (mirrorGroups == null) {
+                mirrorGroups = new ArrayList<List<String>>();
+            }
+            mirrorGroups.add(mirrorRepos);
+            return this;
+        }
+
         /**
          * Sets a list of paths to use for the user repositories. When not set the
          * list will be taken from the system configuration. When set this list
@@ -357,6 +389,9 @@ public class CeylonUtils {
             }
 
             final RepositoryManagerBuilder builder = new RepositoryManagerBuilder(root, log, isOffline(config), getTimeout(config), getProxy(config), getOverrides(config));
+            if (root != null && blobRepo != null) {
+                builder.contentAddressedStore(new File(absolute(blobRepo)));
+            }
 
             // Now we add all the rest of the repositories in the order that they will be searched
             
@@ -428,6 +463,12 @@ public class CeylonUtils {
                 }
             }
 
+            if (mirrorGroups != null) {
+                for (List<String> group : mirrorGroups) {
+                    addMirrorGroup(builder, repositories, group);
+                }
+            }
+
             // Add the remaining ("other") default repos (like the Herd repo),
             // these will always come last
             if (!noDefRepos) {
@@ -585,6 +626,23 @@ public class CeylonUtils {
             }
         }
 
+        private void addMirrorGroup(RepositoryManagerBuilder builder, Repositories repositories, List<String> repoUrls) {
+            List<CmrRepository> mirrors = new ArrayList<CmrRepository>(repoUrls.size());
+            for (String repoUrl : repoUrls) {
+                try {
+                    String path = absolute(resolveRepoUrl(repositories, repoUrl));
+                    if(!avoidRepository(path)){
+                        mirrors.add(builder.repositoryBuilder().buildRepository(path));
+                    }
+                } catch (Exception e) {
+                    log.debug("Failed to add repository as mirror: " + repoUrl + ": " + e.getMessage());
+                }
+            }
+            if (!mirrors.isEmpty()) {
+                builder.addMirrorGroup(mirrors.toArray(new CmrRepository[mirrors.size()]));
+            }
+        }
+
         private String absolute(String path) {
             String prefix = null;
             if(path.startsWith("flat:")){
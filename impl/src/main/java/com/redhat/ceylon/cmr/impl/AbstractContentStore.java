@@ -16,6 +16,8 @@
 
 package com.redhat.ceylon.cmr.impl;
 
+import java.util.concurrent.Callable;
+
 import com.redhat.ceylon.cmr.api.ArtifactContext;
 import com.redhat.ceylon.cmr.spi.ContentStore;
 import com.redhat.ceylon.cmr.spi.Node;
@@ -35,11 +37,34 @@ public abstract class AbstractContentStore implements ContentStore, StructureBui
     protected int timeout;
     protected boolean offline;
     protected Logger log;
+    protected final StoreHealth health;
 
     protected AbstractContentStore(Logger log, boolean offline, int timeout) {
         this.log = log;
         this.timeout = timeout;
         this.offline = offline;
+        this.health = new StoreHealth(this, new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                return probe();
+            }
+        }, log);
+    }
+
+    /**
+     * @return the store's circuit breaker
+     */
+    public StoreHealth getHealth() {
+        return health;
+    }
+
+    /**
+     * Check whether the store is reachable again, after it was marked down.
+     * Called from a background thread, see {@link StoreHealth}.
+     *
+     * @return true if it is
+     */
+    protected boolean probe() throws Exception {
+        return true;
     }
 
     protected static String getFullPath(Node parent, String child) {
@@ -68,9 +93,12 @@ public abstract class AbstractContentStore implements ContentStore, StructureBui
         this.timeout = timeout;
     }
 
+    /**
+     * @return true if we were told to be offline, or the store is down for now
+     */
     @Override
     public boolean isOffline() {
-        return offline;
+        return offline || health.isDown();
     }
     
     public void setOffline(boolean offline) {
@@ -17,15 +17,21 @@
 
 package com.redhat.ceylon.cmr.impl;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.redhat.ceylon.cmr.api.AbstractRepositoryManager;
@@ -37,6 +43,7 @@ import com.redhat.ceylon.cmr.api.ModuleSearchResult.ModuleDetails;
 import com.redhat.ceylon.cmr.api.ModuleVersionQuery;
 import com.redhat.ceylon.cmr.api.ModuleVersionResult;
 import com.redhat.ceylon.cmr.api.Overrides;
+import com.redhat.ceylon.cmr.api.ResolutionMonitor;
 import com.redhat.ceylon.cmr.spi.ContentOptions;
 import com.redhat.ceylon.cmr.spi.ContentStore;
 import com.redhat.ceylon.cmr.spi.Node;
@@ -56,6 +63,9 @@ public abstract class AbstractNodeRepositoryManager extends AbstractRepositoryMa
     protected static final String CACHED = ".cached";
     protected static final String ORIGIN = ".origin";
     protected static final String MISSING = ".missing";
+    protected static final String UNZIPPED = ".unzipped";
+
+    private static final int EXTRACT_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
 
     private List<CmrRepository> roots = new CopyOnWriteArrayList<>(); // lookup roots - order matters!
     private List<CmrRepository> allRoots;
@@ -63,8 +73,27 @@ public abstract class AbstractNodeRepositoryManager extends AbstractRepositoryMa
     protected CmrRepository cache; // cache root
     protected boolean addCacheAsRoot; // do we treat cache as repo
 
+    protected volatile ResolutionMonitor monitor;
+    private final Map<CmrRepository, MirrorGroup> mirrorGroups = new ConcurrentHashMap<>();
+
     public AbstractNodeRepositoryManager(Logger log, Overrides overrides) {
         super(log, overrides);
+        this.monitor = new LoggingResolutionMonitor(log);
+    }
+
+    public ResolutionMonitor getResolutionMonitor() {
+        return monitor;
+    }
+
+    /**
+     * Set the resolution monitor.
+     * By default lookups are traced to the debug log; installing any other
+     * monitor, e.g. ResolutionStatistics, replaces that tracing.
+     *
+     * @param monitor the monitor, null restores the default
+     */
+    public void setResolutionMonitor(ResolutionMonitor monitor) {
+        this.monitor = (monitor != null) ? monitor : new LoggingResolutionMonitor(log);
     }
 
     public synchronized void setAddCacheAsRoot(boolean addCacheAsRoot) {
@@ -109,9 +138,29 @@ public abstract class AbstractNodeRepositoryManager extends AbstractRepositoryMa
 
     protected synchronized void removeRepository(CmrRepository external) {
         roots.remove(external);
+        mirrorGroups.remove(external);
         allRoots = null;
     }
 
+    /**
+     * Add repositories which are mirrors of the same content, see {@link MirrorGroup}.
+     *
+     * @param group the mirrors
+     */
+    protected synchronized void addMirrorGroup(MirrorGroup group) {
+        for (CmrRepository mirror : group.getMirrors()) {
+            addRepository(mirror);
+            mirrorGroups.put(mirror, group);
+        }
+    }
+
+    /**
+     * @return the mirror group of the repository, or null if it is not a mirror
+     */
+    protected MirrorGroup getMirrorGroup(CmrRepository repository) {
+        return repository != null ? mirrorGroups.get(repository) : null;
+    }
+
     protected ArtifactResult toArtifactResult(Node node) {
         final CmrRepository adapter = NodeUtils.getRepository(node);
         return adapter.getArtifactResult(this, node);
@@ -229,10 +278,18 @@ public abstract class AbstractNodeRepositoryManager extends AbstractRepositoryMa
         ArtifactContext zippedContext = context.getZipContext();
         ArtifactResult zipResult = getArtifactResult(zippedContext);
         if (zipResult != null) {
-            String zipName = zipResult.artifact().getName();
-            File unzippedFolder = new File(zipResult.artifact().getParentFile(), zipName.substring(0, zipName.length() - 4));
+            File zip = zipResult.artifact();
+            String zipName = zip.getName();
+            File unzippedFolder = new File(zip.getParentFile(), zipName.substring(0, zipName.length() - 4));
+            File stampFile = new File(zip.getParentFile(), zipName + UNZIPPED);
             try {
-                IOUtils.extractArchive(zipResult.artifact(), unzippedFolder);
+                String stamp = archiveStamp(zip);
+                if (unzippedFolder.isDirectory() == false || stamp.equals(readStamp(stampFile)) == false) {
+                    unzip(zip, unzippedFolder);
+                    try (OutputStream os = new FileOutputStream(stampFile)) {
+                        os.write(stamp.getBytes(StandardCharsets.US_ASCII));
+                    }
+                }
             } catch (IOException e) {
                 throw new RepositoryException("Failed to unzip folder downloaded from Herd: " + zipResult.artifact(), e);
             }
@@ -241,6 +298,46 @@ public abstract class AbstractNodeRepositoryManager extends AbstractRepositoryMa
             return null;
         }
     }
+
+    /**
+     * Size and SHA-1 of the archive, the SHA-1 coming from its signature when we have one.
+     */
+    private static String archiveStamp(File zip) throws IOException {
+        String sha1 = null;
+        File sha1File = new File(zip.getPath() + SHA1);
+        if (sha1File.isFile())
+            sha1 = IOUtils.readSha1(new FileInputStream(sha1File));
+        if (sha1 == null)
+            sha1 = IOUtils.sha1(new FileInputStream(zip));
+        return zip.length() + " " + sha1;
+    }
+
+    private static String readStamp(File stampFile) {
+        if (stampFile.isFile() == false)
+            return null;
+        try {
+            return IOUtils.readSha1(new FileInputStream(stampFile));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Extracts next to the target and swaps it in, so no stale files survive from a previous version.
+     */
+    private static void unzip(File zip, File target) throws IOException {
+        File temp = new File(target.getParentFile(), target.getName() + ".unzipping-" + System.nanoTime());
+        try {
+            IOUtils.extractArchive(zip, temp, EXTRACT_THREADS);
+            if (target.exists())
+                FileUtil.deleteQuietly(target);
+            if (temp.renameTo(target) == false)
+                throw new IOException("Cannot move " + temp + " to " + target);
+        } finally {
+            if (temp.exists())
+                FileUtil.deleteQuietly(temp);
+        }
+    }
     
     public void putArtifact(ArtifactContext context, InputStream content) throws RepositoryException {
         try {
@@ -318,20 +415,23 @@ public abstract class AbstractNodeRepositoryManager extends AbstractRepositoryMa
     }
 
     private void uploadZipped(Node parent, ArtifactContext context, File folder) {
-        File zippedFolder = null;
-        try {
-            try {
-                zippedFolder = IOUtils.zipFolder(folder);
-            } catch (IOException e) {
-                throw new RepositoryException("Failed to zip folder for upload to Herd: " + folder, e);
-            }
-            ArtifactContext zippedContext = context.getZipContext();
-            putArtifact(zippedContext, zippedFolder);
-            ShaSigner.signArtifact(this, zippedContext, zippedFolder, log);
-        } finally {
-            if (zippedFolder != null) {
-                FileUtil.deleteQuietly(zippedFolder);
+        // zipped straight into the upload, and signed on the way
+        final ArtifactContext zippedContext = context.getZipContext();
+        final String sha1;
+        try (ZipFolderInputStream zipped = new ZipFolderInputStream(folder)) {
+            putArtifact(zippedContext, zipped);
+            sha1 = zipped.getSha1();
+        } catch (IOException e) {
+            throw new RepositoryException("Failed to zip folder for upload to Herd: " + folder, e);
+        }
+        final ArtifactContext sha1Context = zippedContext.getSha1Context();
+        if (sha1Context != null) {
+            if (sha1 == null) {
+                log.warning("Zipped folder was not fully uploaded, no SHA-1 signature will be made: " + folder);
+                return;
             }
+            sha1Context.setForceOperation(true);
+            putArtifact(sha1Context, new ByteArrayInputStream(sha1.getBytes(StandardCharsets.US_ASCII)));
         }
     }
 
@@ -401,7 +501,9 @@ public abstract class AbstractNodeRepositoryManager extends AbstractRepositoryMa
             Node shaResult = (parent instanceof OpenNode) ? ((OpenNode) parent).peekChild(node.getLabel() + SHA1 + CACHED) : parent.getChild(node.getLabel() + SHA1 + CACHED);
             if (shaResult == null) {
                 try {
+                    final long start = System.nanoTime();
                     result = checkSHA(node);
+                    monitor.shaChecked(context, result, System.nanoTime() - start);
                     if (parent instanceof OpenNode) {
                         final OpenNode on = (OpenNode) parent;
                         on.addNode(node.getLabel() + SHA1 + CACHED, result);
@@ -461,34 +563,50 @@ public abstract class AbstractNodeRepositoryManager extends AbstractRepositoryMa
     /**
      * Cache is only used for remote repos; see issue #47.
      */
-    private Node fromRepositories(Iterable<CmrRepository> repositories, ArtifactContext context, boolean addLeaf) {
-        log.debug("Looking for " + context);
+    private Node fromRepositories(List<CmrRepository> repositories, ArtifactContext context, boolean addLeaf) {
+        final ResolutionMonitor monitor = this.monitor;
+        monitor.lookup(context);
 
+        List<MirrorGroup> tried = null;
         for (CmrRepository repository : repositories) {
-            if(context.isMaven() && !repository.isMaven()){
-                log.debug("  -> Skipping non-Maven repo for Maven lookup");
+            if (context.isMaven() != repository.isMaven()) {
+                monitor.skipped(repository, context);
                 continue;
             }
-            if(!context.isMaven() && repository.isMaven()){
-                log.debug("  -> Skipping Maven repo for non-Maven lookup");
+            final MirrorGroup group = getMirrorGroup(repository);
+            if (group != null) {
+                // the whole group at once, best mirror first
+                if (tried != null && tried.contains(group))
+                    continue;
+                if (tried == null)
+                    tried = new ArrayList<>(1);
+                tried.add(group);
+                final List<CmrRepository> mirrors = group.order(repositories);
+                for (CmrRepository mirror : mirrors) {
+                    Node child = fromRepository(mirror, context, addLeaf);
+                    if (child != null)
+                        return child;
+                }
                 continue;
             }
             Node child = fromRepository(repository, context, addLeaf);
             if (child != null)
                 return child;
-
-            log.debug("  -> Not Found");
         }
 
-        log.debug(" -> Artifact " + context + " not found in any repository");
+        monitor.notFound(context);
         return null;
     }
 
     protected Node fromRepository(CmrRepository repository, ArtifactContext context, boolean addLeaf) {
-        log.debug(" Trying repository " + repository.getDisplayString());
+        monitor.trying(repository, context);
+        final long start = System.nanoTime();
         Node node = repository.findParent(context);
+        final long parentNanos = System.nanoTime() - start;
+        long childNanos = 0;
         if (node != null) {
             if (addLeaf) {
+                final long childStart = System.nanoTime();
                 Node parent = node;
                 context.toNode(parent);
                 NodeUtils.keepRepository(parent, repository);
@@ -503,14 +621,17 @@ public abstract class AbstractNodeRepositoryManager extends AbstractRepositoryMa
                 } finally {
                     ArtifactContext.removeNode(parent);
                 }
+                childNanos = System.nanoTime() - childStart;
             }
 
             if (node != null) {
                 NodeUtils.keepRepository(node, repository);
-                log.debug("  -> Found at " + NodeUtils.getFullPath(node));
+                monitor.found(repository, context, node, parentNanos, childNanos);
+                return node;
             }
         }
-        return node;
+        monitor.notFound(repository, context, parentNanos, childNanos);
+        return null;
     }
 
     @Override
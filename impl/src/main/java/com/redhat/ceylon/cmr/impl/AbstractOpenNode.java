@@ -263,6 +263,40 @@ public abstract class AbstractOpenNode implements OpenNode, Serializable {
         }
     }
 
+    /**
+     * Get the children we already know about, without any lookup.
+     *
+     * @return the loaded children
+     */
+    List<Node> getLoadedChildren() {
+        List<Node> nodes = new ArrayList<>();
+        for (Node on : children.values()) {
+            if (on instanceof MarkerNode == false)
+                nodes.add(on);
+        }
+        return nodes;
+    }
+
+    /**
+     * Forget what we know about a single child.
+     * Unlike refresh, other children and their markers are kept,
+     * only this child, its negative marker and our listing marker are dropped.
+     *
+     * @param label the child label
+     * @return the dropped child or null if it was never looked up
+     */
+    OpenNode invalidate(String label) {
+        children.remove(NODE_MARKER);
+        children.remove(label + NODE_MARKER);
+        final OpenNode previous = children.get(label);
+        // only drop looked up nodes, explicitly added value nodes are not backed by files
+        if (previous instanceof AbstractOpenNode && ((AbstractOpenNode) previous).value == null) {
+            children.remove(label, previous);
+            return previous;
+        }
+        return null;
+    }
+
     @Override
     @SuppressWarnings({"unchecked"})
     public <T> T getContent(Class<T> contentType) throws IOException {
@@ -0,0 +1,684 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.cmr.impl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.redhat.ceylon.common.config.Repositories;
+import com.redhat.ceylon.common.log.Logger;
+
+/**
+ * Garbage collector for the cache repository.
+ * <p/>
+ * The cache is collected per module version folder, with everything in it: artifacts, their
+ * <code>.sha1.local</code>, <code>.origin</code> and <code>.missing</code> markers, unzipped folders and
+ * unfinished <code>.partial</code> downloads. Folders not used for longer than the max age go first,
+ * then the least recently (or least frequently) used ones until the cache fits the max size.
+ * Folders used within the grace period, which covers running builds and downloads, and pinned
+ * modules are never collected.
+ * <p/>
+ * Use is recorded by {@link RootRepositoryManager} in an {@link #ACCESSED} marker, at most once every
+ * quarter of the default grace period per folder and process, which also counts the uses for {@link Policy#LFU}.
+ * Without a marker, the files' access and modification times are used. Uses by this process count right away,
+ * so shorter grace periods still protect them, but not those by other processes.
+ * <p/>
+ * Each {@link #collect()} scans at most {@link #setScanLimit scan limit} folders and picks up where the
+ * previous one stopped, keeping what it saw in an index at the cache's root; evicting re-checks every
+ * folder first, so a stale index entry never removes anything which was used since.
+ */
+public class CacheCollector {
+
+    public static final String ACCESSED = ".accessed";
+    public static final String INDEX = ".cache-gc";
+    private static final String LOCK = ".cache-gc.lock";
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final long DAY = 24 * HOUR;
+    private static final long DEFAULT_GRACE_PERIOD = HOUR;
+    private static final long RECORD_INTERVAL = DEFAULT_GRACE_PERIOD / 4;
+
+    private static final int MAX_RECORDED = 10000;
+
+    // when we last used and last recorded a use of each folder, the most recent ones only
+    private static final Map<File, long[]> recorded = new LinkedHashMap<File, long[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, long[]> eldest) {
+            return size() > MAX_RECORDED;
+        }
+    };
+
+    public enum Policy {
+        /** least recently used first */
+        LRU,
+        /** least often used first, then least recently used */
+        LFU
+    }
+
+    /**
+     * Orders paths segment by segment, the order in which we walk the cache.
+     */
+    private static final Comparator<String> PATH_ORDER = new Comparator<String>() {
+        public int compare(String p1, String p2) {
+            final String[] s1 = p1.split("/");
+            final String[] s2 = p2.split("/");
+            for (int i = 0; i < s1.length && i < s2.length; i++) {
+                final int c = s1[i].compareTo(s2[i]);
+                if (c != 0)
+                    return c;
+            }
+            return s1.length - s2.length;
+        }
+    };
+
+    private final File root;
+    private final Logger log;
+    private long maxSize = -1;
+    private long maxAge = -1;
+    private long gracePeriod = DEFAULT_GRACE_PERIOD;
+    private Policy policy = Policy.LRU;
+    private int scanLimit = 1000;
+    private final Set<String> pinned = new HashSet<>();
+    private ContentAddressedStore blobs;
+
+    private static final class Entry {
+        private long size;
+        private long lastAccess;
+        private int uses;
+
+        private Entry(long size, long lastAccess, int uses) {
+            this.size = size;
+            this.lastAccess = lastAccess;
+            this.uses = uses;
+        }
+    }
+
+    /**
+     * What one {@link #collect()} did.
+     */
+    public static final class Result {
+        private int scanned;
+        private int evicted;
+        private long freed;
+        private int folders;
+        private long size;
+        private boolean complete;
+
+        /**
+         * @return folders scanned by this run
+         */
+        public int getScanned() {
+            return scanned;
+        }
+
+        public int getEvicted() {
+            return evicted;
+        }
+
+        /**
+         * @return bytes freed
+         */
+        public long getFreed() {
+            return freed;
+        }
+
+        /**
+         * @return folders known to the index after this run
+         */
+        public int getFolders() {
+            return folders;
+        }
+
+        /**
+         * @return bytes known to the index after this run
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return true if this run finished a scan of the whole cache
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+
+        @Override
+        public String toString() {
+            return "Scanned " + scanned + " folders" + (complete ? " (end of cache)" : "") + ", evicted " + evicted
+                    + " freeing " + freed + " bytes, " + folders + " folders and " + size + " bytes left";
+        }
+    }
+
+    public CacheCollector(File root, Logger log) {
+        if (root == null)
+            throw new IllegalArgumentException("Null root!");
+        this.root = root;
+        this.log = log;
+    }
+
+    /**
+     * Record a use of a cached module version folder.
+     */
+    public static void accessed(File folder) {
+        final long now = System.currentTimeMillis();
+        synchronized (recorded) {
+            final long[] times = recorded.get(folder.getAbsoluteFile());
+            if (times != null) {
+                times[0] = now;
+                if (now - times[1] < RECORD_INTERVAL)
+                    return;
+                times[1] = now;
+            } else {
+                recorded.put(folder.getAbsoluteFile(), new long[]{now, now});
+            }
+        }
+        final File marker = new File(folder, ACCESSED);
+        try {
+            Files.write(marker.toPath(), String.valueOf(readUses(marker) + 1).getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException ignored) {
+            // a read-only cache still works, we just know less about it
+        }
+    }
+
+    private static long lastUse(File folder) {
+        synchronized (recorded) {
+            final long[] times = recorded.get(folder.getAbsoluteFile());
+            return times != null ? times[0] : 0;
+        }
+    }
+
+    private static int readUses(File marker) {
+        if (marker.isFile() == false)
+            return 0;
+        try {
+            return Integer.parseInt(new String(Files.readAllBytes(marker.toPath()), StandardCharsets.US_ASCII).trim());
+        } catch (IOException | NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @param maxSize the cache's size in bytes, -1 for no limit
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param maxAge how long an unused folder is kept in millis, -1 for no limit
+     */
+    public void setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * @param gracePeriod how long after its last use a folder is never collected, in millis
+     */
+    public void setGracePeriod(long gracePeriod) {
+        if (gracePeriod < 0)
+            throw new IllegalArgumentException("Negative grace period: " + gracePeriod);
+        this.gracePeriod = gracePeriod;
+    }
+
+    public void setPolicy(Policy policy) {
+        if (policy == null)
+            throw new IllegalArgumentException("Null policy!");
+        this.policy = policy;
+    }
+
+    /**
+     * @param scanLimit how many folders one {@link #collect()} scans at most
+     */
+    public void setScanLimit(int scanLimit) {
+        if (scanLimit < 1)
+            throw new IllegalArgumentException("Scan limit must be positive: " + scanLimit);
+        this.scanLimit = scanLimit;
+    }
+
+    /**
+     * Purge a slice of the blob store, about the scan limit's size, on every run, see {@link ContentAddressedStore}.
+     */
+    public void setContentAddressedStore(ContentAddressedStore blobs) {
+        this.blobs = blobs;
+    }
+
+    /**
+     * Never collect a module, or one of its versions.
+     *
+     * @param module the module name, Maven ones as <code>group:artifact</code>
+     * @param version the version, null for all of them
+     */
+    public void pin(String module, String version) {
+        if (module == null)
+            throw new IllegalArgumentException("Null module!");
+        final String name = module.replace(':', '.');
+        pinned.add(version != null ? name + "/" + version : name);
+    }
+
+    /**
+     * Pin the modules listed in a file, one <code>module/version</code> or <code>module</code> per line.
+     */
+    public void pin(File list) throws IOException {
+        for (String line : Files.readAllLines(list.toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            final int p = line.indexOf('/');
+            pin(p < 0 ? line : line.substring(0, p), p < 0 ? null : line.substring(p + 1));
+        }
+    }
+
+    private boolean isPinned(String path) {
+        final int p = path.lastIndexOf('/');
+        if (p < 0)
+            return false;
+        final String module = path.substring(0, p).replace('/', '.');
+        return pinned.contains(module) || pinned.contains(module + "/" + path.substring(p + 1));
+    }
+
+    /**
+     * Scan the next part of the cache and evict what is over the limits.
+     *
+     * @return what was done, or null if another collection of this cache is running
+     * @throws IOException for any I/O error on the index
+     */
+    public Result collect() throws IOException {
+        if (root.isDirectory() == false)
+            return new Result();
+        try (FileChannel channel = FileChannel.open(new File(root, LOCK).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            final FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                return null;
+            }
+            if (lock == null)
+                return null;
+            try {
+                return collectLocked();
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    private Result collectLocked() throws IOException {
+        final Result result = new Result();
+        final File indexFile = new File(root, INDEX);
+        final TreeMap<String, Entry> index = new TreeMap<>(PATH_ORDER);
+        final String cursor = readIndex(indexFile, index);
+
+        // scan the next slice, forgetting the folders which are gone from it
+        final Scan scan = new Scan(cursor);
+        result.complete = scan.scan(root, "", 0, cursor != null);
+        final SortedMap<String, Entry> slice;
+        if (cursor == null)
+            slice = result.complete ? index : (scan.last != null ? index.headMap(scan.last + "\0") : new TreeMap<String, Entry>(PATH_ORDER));
+        else
+            slice = result.complete ? index.tailMap(cursor + "\0") : (scan.last != null ? index.subMap(cursor + "\0", scan.last + "\0") : new TreeMap<String, Entry>(PATH_ORDER));
+        slice.keySet().retainAll(scan.found.keySet());
+        index.putAll(scan.found);
+        result.scanned = scan.found.size();
+
+        final long now = System.currentTimeMillis();
+        long total = 0;
+        final List<String> candidates = new ArrayList<>();
+        for (Map.Entry<String, Entry> e : index.entrySet()) {
+            total += e.getValue().size;
+            if (now - e.getValue().lastAccess > gracePeriod && isPinned(e.getKey()) == false)
+                candidates.add(e.getKey());
+        }
+
+        // too old
+        if (maxAge >= 0) {
+            for (Iterator<String> it = candidates.iterator(); it.hasNext(); ) {
+                final String path = it.next();
+                if (now - index.get(path).lastAccess > maxAge) {
+                    it.remove();
+                    total -= evict(path, index, now - Math.max(maxAge, gracePeriod), result);
+                }
+            }
+        }
+
+        // too big
+        if (maxSize >= 0 && total > maxSize) {
+            Collections.sort(candidates, new Comparator<String>() {
+                public int compare(String p1, String p2) {
+                    final Entry e1 = index.get(p1);
+                    final Entry e2 = index.get(p2);
+                    if (policy == Policy.LFU && e1.uses != e2.uses)
+                        return e1.uses < e2.uses ? -1 : 1;
+                    return Long.compare(e1.lastAccess, e2.lastAccess);
+                }
+            });
+            for (String path : candidates) {
+                if (total <= maxSize)
+                    break;
+                total -= evict(path, index, now - gracePeriod, result);
+            }
+        }
+
+        if (blobs != null)
+            blobs.purge(scanLimit); // a slice per run, like the scan
+
+        result.folders = index.size();
+        result.size = total;
+        writeIndex(indexFile, index, result.complete ? null : (scan.last != null ? scan.last : cursor));
+        if (log != null)
+            log.debug("Cache " + root + ": " + result);
+        return result;
+    }
+
+    /**
+     * Evict a folder unless it was used after the given time, which we check again as the index may be stale.
+     *
+     * @return how many bytes the index no longer counts
+     */
+    private long evict(String path, Map<String, Entry> index, long usedAfter, Result result) {
+        final Entry entry = index.get(path);
+        final File folder = new File(root, path);
+        if (folder.isDirectory() == false) {
+            index.remove(path);
+            return entry.size;
+        }
+        final Entry current = stat(folder);
+        if (current.lastAccess > usedAfter) {
+            final long change = entry.size - current.size;
+            index.put(path, current);
+            return change;
+        }
+        IOUtils.deleteRecursively(folder);
+        // and the module folders it leaves empty
+        File parent = folder.getParentFile();
+        while (parent != null && parent.equals(root) == false && parent.delete())
+            parent = parent.getParentFile();
+        index.remove(path);
+        result.evicted++;
+        result.freed += current.size;
+        if (log != null)
+            log.debug("Evicted " + path + " from cache " + root);
+        return entry.size;
+    }
+
+    /**
+     * Walks the cache in {@link #PATH_ORDER}, after the cursor, up to the scan limit.
+     */
+    private final class Scan {
+        private final String[] cursor;
+        private final Map<String, Entry> found = new TreeMap<>(PATH_ORDER);
+        private String last;
+
+        private Scan(String cursor) {
+            this.cursor = cursor != null ? cursor.split("/") : null;
+        }
+
+        /**
+         * @return true if we reached the end of the cache
+         */
+        private boolean scan(File dir, String path, int depth, boolean onCursor) {
+            final File[] children = dir.listFiles();
+            if (children == null)
+                return true;
+            Arrays.sort(children, new Comparator<File>() {
+                public int compare(File f1, File f2) {
+                    return f1.getName().compareTo(f2.getName());
+                }
+            });
+            for (File child : children) {
+                final String name = child.getName();
+                // module names never start with a dot, a blob store might
+                if (child.isDirectory() == false || name.startsWith("."))
+                    continue;
+                final String childPath = path.isEmpty() ? name : path + "/" + name;
+                boolean childOnCursor = false;
+                if (onCursor) {
+                    final int c = depth < cursor.length ? name.compareTo(cursor[depth]) : 1;
+                    if (c < 0)
+                        continue;
+                    childOnCursor = c == 0;
+                }
+                if (isModuleVersion(child)) {
+                    if (childOnCursor)
+                        continue; // scanned by the previous run
+                    if (found.size() >= scanLimit)
+                        return false;
+                    found.put(childPath, stat(child));
+                    last = childPath;
+                } else if (scan(child, childPath, depth + 1, childOnCursor) == false) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Module version folders are the ones holding files, module folders only hold folders.
+     */
+    private static boolean isModuleVersion(File folder) {
+        final File[] children = folder.listFiles();
+        if (children != null) {
+            for (File child : children)
+                if (child.isFile())
+                    return true;
+        }
+        return false;
+    }
+
+    private static Entry stat(File folder) {
+        final File marker = new File(folder, ACCESSED);
+        final Entry entry = new Entry(0, Math.max(marker.lastModified(), lastUse(folder)), readUses(marker));
+        stat(folder, entry, true);
+        return entry;
+    }
+
+    private static void stat(File folder, Entry entry, boolean top) {
+        final File[] children = folder.listFiles();
+        if (children == null)
+            return;
+        for (File child : children) {
+            if (child.isDirectory()) {
+                stat(child, entry, false);
+                continue;
+            }
+            entry.size += child.length();
+            if (top) {
+                // unfinished downloads and reads by older clients count as uses too
+                try {
+                    final BasicFileAttributes attributes = Files.readAttributes(child.toPath(), BasicFileAttributes.class);
+                    entry.lastAccess = Math.max(entry.lastAccess, Math.max(attributes.lastModifiedTime().toMillis(), attributes.lastAccessTime().toMillis()));
+                } catch (IOException e) {
+                    entry.lastAccess = Math.max(entry.lastAccess, child.lastModified());
+                }
+            }
+        }
+    }
+
+    private static String readIndex(File indexFile, Map<String, Entry> index) {
+        if (indexFile.isFile() == false)
+            return null;
+        String cursor = null;
+        try (BufferedReader reader = Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line != null && line.length() > 0)
+                cursor = line;
+            while ((line = reader.readLine()) != null) {
+                final String[] parts = line.split("\t", 4);
+                if (parts.length == 4)
+                    index.put(parts[3], new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Integer.parseInt(parts[2])));
+            }
+        } catch (IOException | NumberFormatException e) {
+            // start over
+            index.clear();
+            return null;
+        }
+        return cursor;
+    }
+
+    private static void writeIndex(File indexFile, Map<String, Entry> index, String cursor) throws IOException {
+        final File tmp = new File(indexFile.getPath() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(cursor != null ? cursor : "");
+            writer.newLine();
+            for (Map.Entry<String, Entry> e : index.entrySet()) {
+                final Entry entry = e.getValue();
+                writer.write(entry.size + "\t" + entry.lastAccess + "\t" + entry.uses + "\t" + e.getKey());
+                writer.newLine();
+            }
+        }
+        Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Parse a size like <code>500M</code> or <code>10G</code>.
+     */
+    static long parseSize(String size) {
+        final String s = size.trim().toUpperCase();
+        final int unit = "KMGT".indexOf(s.charAt(s.length() - 1));
+        if (unit < 0)
+            return Long.parseLong(s);
+        return Long.parseLong(s.substring(0, s.length() - 1)) << (10 * (unit + 1));
+    }
+
+    /**
+     * Parse a duration like <code>30d</code>, <code>12h</code> or <code>45m</code>, in days by default.
+     */
+    static long parseDuration(String duration) {
+        final String s = duration.trim().toLowerCase();
+        final char unit = s.charAt(s.length() - 1);
+        if (Character.isDigit(unit))
+            return Long.parseLong(s) * DAY;
+        final long value = Long.parseLong(s.substring(0, s.length() - 1));
+        switch (unit) {
+            case 'd':
+                return value * DAY;
+            case 'h':
+                return value * HOUR;
+            case 'm':
+                return value * 60 * 1000L;
+            default:
+                throw new IllegalArgumentException("Unknown duration unit: " + duration);
+        }
+    }
+
+    /**
+     * Collect the cache from the command line, for cron jobs and CI agents:
+     * <pre>
+     * [--cache dir] [--blobs dir] [--max-size 10G] [--max-age 30d] [--grace 1h] [--policy lru|lfu]
+     * [--pin module[/version]]... [--pins file]... [--scan-limit n | --all]
+     * </pre>
+     */
+    public static void main(String[] args) throws IOException {
+        File cache = null;
+        File blobs = null;
+        long maxSize = -1;
+        long maxAge = -1;
+        long gracePeriod = DEFAULT_GRACE_PERIOD;
+        Policy policy = Policy.LRU;
+        int scanLimit = 1000;
+        final List<String> pins = new ArrayList<>();
+        final List<File> pinFiles = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            final String arg = args[i];
+            if ("--all".equals(arg)) {
+                scanLimit = Integer.MAX_VALUE;
+                continue;
+            }
+            if (i + 1 >= args.length)
+                throw new IllegalArgumentException("Missing value for " + arg);
+            final String value = args[++i];
+            switch (arg) {
+                case "--cache":
+                    cache = new File(value);
+                    break;
+                case "--blobs":
+                    blobs = new File(value);
+                    break;
+                case "--max-size":
+                    maxSize = parseSize(value);
+                    break;
+                case "--max-age":
+                    maxAge = parseDuration(value);
+                    break;
+                case "--grace":
+                    gracePeriod = parseDuration(value);
+                    break;
+                case "--policy":
+                    policy = Policy.valueOf(value.toUpperCase());
+                    break;
+                case "--pin":
+                    pins.add(value);
+                    break;
+                case "--pins":
+                    pinFiles.add(new File(value));
+                    break;
+                case "--scan-limit":
+                    scanLimit = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        if (cache == null)
+            cache = new File(Repositories.get().getCacheRepository().getUrl());
+
+        final CacheCollector collector = new CacheCollector(cache, new CMRJULLogger());
+        collector.setMaxSize(maxSize);
+        collector.setMaxAge(maxAge);
+        collector.setGracePeriod(gracePeriod);
+        collector.setPolicy(policy);
+        collector.setScanLimit(scanLimit);
+        if (blobs != null)
+            collector.setContentAddressedStore(new ContentAddressedStore(blobs));
+        for (String pin : pins) {
+            final int p = pin.indexOf('/');
+            collector.pin(p < 0 ? pin : pin.substring(0, p), p < 0 ? null : pin.substring(p + 1));
+        }
+        for (File pinFile : pinFiles)
+            collector.pin(pinFile);
+        final Result result = collector.collect();
+        System.out.println(result != null ? result : "Cache " + cache + " is being collected by another process");
+    }
+
+    @Override
+    public String toString() {
+        return "CacheCollector[" + root + ", maxSize=" + maxSize + ", maxAge=" + maxAge + ", policy=" + policy + "]";
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.cmr.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.redhat.ceylon.cmr.api.ArtifactContext;
+import com.redhat.ceylon.cmr.api.RepositoryManager;
+import com.redhat.ceylon.common.log.Logger;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves a repository manager's artifacts over HTTP, so other machines can use its cache as a remote repository.
+ * <p/>
+ * Requests use the usual repository layout, Ceylon (<code>/com/acme/foo/1.0/com.acme.foo-1.0.car</code>)
+ * or Maven (<code>/org/acme/foo/1.0/foo-1.0.jar</code>), plus <code>.sha1</code> for any artifact.
+ * Artifacts already in the cache are sent straight from their file, misses are fetched from the
+ * manager's repositories, and concurrent requests for the same artifact wait for a single fetch.
+ * <p/>
+ * The manager is typically built with a {@link RepositoryManagerBuilderImpl} over a
+ * {@link RootRepositoryManager} cache and the upstream repositories.
+ */
+public class CachingProxyServer {
+
+    private static final String HTTP_DATE = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    private final RepositoryManager manager;
+    private final Logger log;
+    private final ConcurrentMap<String, FutureTask<File>> fetches = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong notFound = new AtomicLong();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public CachingProxyServer(RepositoryManager manager, Logger log) {
+        if (manager == null)
+            throw new IllegalArgumentException("Null manager!");
+        this.manager = manager;
+        this.log = log;
+    }
+
+    /**
+     * Start listening.
+     *
+     * @param address the address, port 0 picks a free one
+     * @throws IOException if we cannot bind
+     */
+    public synchronized void start(InetSocketAddress address) throws IOException {
+        if (server != null)
+            throw new IllegalStateException("Proxy already started: " + getUrl());
+        final HttpServer server = HttpServer.create(address, 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } catch (Exception e) {
+                    log.warning("Failed to serve " + exchange.getRequestURI() + ": " + e);
+                    try {
+                        exchange.sendResponseHeaders(500, -1);
+                    } catch (IOException ignored) {
+                        // headers already sent
+                    }
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "CMR proxy");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+        this.server = server;
+        log.info("Serving repositories on " + getUrl());
+    }
+
+    /**
+     * Stop listening, waiting at most the given seconds for running requests.
+     */
+    public synchronized void stop(int delay) {
+        if (server == null)
+            return;
+        server.stop(delay);
+        executor.shutdown();
+        server = null;
+        executor = null;
+    }
+
+    public synchronized int getPort() {
+        if (server == null)
+            throw new IllegalStateException("Proxy not started");
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return the repository url clients should use
+     */
+    public synchronized String getUrl() {
+        if (server == null)
+            throw new IllegalStateException("Proxy not started");
+        final InetSocketAddress address = server.getAddress();
+        return "http://" + address.getHostString() + ":" + address.getPort();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return how many requests waited for another request's fetch instead of fetching themselves
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public long getNotFound() {
+        return notFound.get();
+    }
+
+    private void serve(HttpExchange exchange) throws Exception {
+        requests.incrementAndGet();
+        final String method = exchange.getRequestMethod();
+        if ("OPTIONS".equals(method)) {
+            // no X-Herd-Version: we are a plain repository, without the Herd's search API
+            exchange.getResponseHeaders().set("Allow", "GET, HEAD, OPTIONS");
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        final boolean head = "HEAD".equals(method);
+        if (head == false && "GET".equals(method) == false) {
+            exchange.getResponseHeaders().set("Allow", "GET, HEAD, OPTIONS");
+            exchange.sendResponseHeaders(405, -1);
+            return;
+        }
+
+        String path = exchange.getRequestURI().getPath();
+        final boolean sha1 = path.endsWith(ArtifactContext.SHA1);
+        if (sha1)
+            path = path.substring(0, path.length() - ArtifactContext.SHA1.length());
+        final ArtifactContext context = toArtifactContext(path);
+        final File file = context != null ? fetch(context) : null;
+        if (file == null || file.isFile() == false) {
+            notFound.incrementAndGet();
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Last-Modified", formatDate(file.lastModified()));
+        if (sha1) {
+            final byte[] bytes = getSha1(file).getBytes(StandardCharsets.US_ASCII);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain");
+            if (head) {
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(bytes.length));
+                exchange.sendResponseHeaders(200, -1);
+            } else {
+                exchange.sendResponseHeaders(200, bytes.length);
+                exchange.getResponseBody().write(bytes);
+            }
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        final long length = file.length();
+        if (head) {
+            exchange.getResponseHeaders().set("Content-Length", String.valueOf(length));
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        // an empty body would mean chunked encoding
+        exchange.sendResponseHeaders(200, length > 0 ? length : -1);
+        if (length > 0) {
+            try (FileChannel channel = new FileInputStream(file).getChannel()) {
+                transfer(channel, exchange.getResponseBody());
+            }
+        }
+    }
+
+    /**
+     * Map a request path to what it asks for, or null if it is not an artifact path.
+     */
+    static ArtifactContext toArtifactContext(String path) {
+        final String[] segments = path.replaceAll("^/+|/+$", "").split("/+");
+        if (segments.length < 3)
+            return null;
+        final String fileName = segments[segments.length - 1];
+        final String version = segments[segments.length - 2];
+        final StringBuilder module = new StringBuilder();
+        for (int i = 0; i < segments.length - 2; i++) {
+            if (i > 0)
+                module.append('.');
+            module.append(segments[i]);
+        }
+        // Ceylon layout: the module name with dots, or a plain descriptor
+        if (ArtifactContext.MODULE_PROPERTIES.equals(fileName) || ArtifactContext.MODULE_XML.equals(fileName))
+            return new ArtifactContext(module.toString(), version, fileName);
+        final String ceylonPrefix = module + "-" + version;
+        if (fileName.startsWith(ceylonPrefix) && fileName.length() > ceylonPrefix.length())
+            return new ArtifactContext(module.toString(), version, fileName.substring(ceylonPrefix.length()));
+        // Maven layout: group path, artifact id, version
+        if (segments.length < 4)
+            return null;
+        final String artifactId = segments[segments.length - 3];
+        final String mavenPrefix = artifactId + "-" + version;
+        if (fileName.startsWith(mavenPrefix) && fileName.length() > mavenPrefix.length()) {
+            final String groupId = module.substring(0, module.length() - artifactId.length() - 1);
+            return new ArtifactContext(groupId + ":" + artifactId, version, fileName.substring(mavenPrefix.length()));
+        }
+        return null;
+    }
+
+    /**
+     * Get the artifact from the manager, sharing the fetch with concurrent requests for the same artifact.
+     */
+    private File fetch(final ArtifactContext context) throws Exception {
+        final String key = context.getName() + "/" + context.getVersion() + "/" + context.getSingleSuffix();
+        final FutureTask<File> task = new FutureTask<>(new Callable<File>() {
+            public File call() throws Exception {
+                return manager.getArtifact(context);
+            }
+        });
+        final FutureTask<File> running = fetches.putIfAbsent(key, task);
+        try {
+            if (running != null) {
+                coalesced.incrementAndGet();
+                return running.get();
+            }
+            try {
+                task.run();
+            } finally {
+                fetches.remove(key, task);
+            }
+            return task.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof Exception)
+                throw (Exception) cause;
+            throw e;
+        }
+    }
+
+    private static String getSha1(File file) throws IOException {
+        // the sha1 we checked the download against, else the one we made
+        for (String suffix : new String[]{ArtifactContext.SHA1, ArtifactContext.SHA1 + AbstractNodeRepositoryManager.LOCAL}) {
+            final File sha1 = new File(file.getPath() + suffix);
+            if (sha1.isFile())
+                return IOUtils.readSha1(new FileInputStream(sha1));
+        }
+        final String sha1 = IOUtils.sha1(new FileInputStream(file));
+        if (sha1 == null)
+            throw new IOException("Cannot compute SHA-1 of " + file);
+        return sha1;
+    }
+
+    private static void transfer(FileChannel channel, OutputStream out) throws IOException {
+        // lets the platform send the file without copying it through our buffers where it can
+        final WritableByteChannel target = Channels.newChannel(out);
+        final long size = channel.size();
+        long position = 0;
+        while (position < size)
+            position += channel.transferTo(position, size - position, target);
+        out.flush();
+    }
+
+    private static String formatDate(long time) {
+        final SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(time));
+    }
+
+    @Override
+    public String toString() {
+        return "CachingProxyServer[" + manager + ", requests=" + requests + ", coalesced=" + coalesced + "]";
+    }
+}
@@ -38,6 +38,7 @@ import com.redhat.ceylon.model.cmr.RepositoryException;
 public class CachingRepositoryManager extends AbstractNodeRepositoryManager {
 
     private RepositoryManager caching;
+    private final FileContentStore cachingStore;
     private final File cachingDir;
 
     public CachingRepositoryManager(StructureBuilder root, File cachingDir, Logger log) {
@@ -47,7 +48,8 @@ public class CachingRepositoryManager extends AbstractNodeRepositoryManager {
 
         setAddCacheAsRoot(true);
         setCache(new DefaultRepository(root.createRoot()));
-        this.caching = new SimpleRepositoryManager(new FileContentStore(cachingDir), log);
+        this.cachingStore = new FileContentStore(cachingDir);
+        this.caching = new SimpleRepositoryManager(cachingStore, log);
         this.cachingDir = cachingDir;
     }
 
@@ -58,7 +60,8 @@ public class CachingRepositoryManager extends AbstractNodeRepositoryManager {
 
         setAddCacheAsRoot(true);
         setCache(root);
-        this.caching = new SimpleRepositoryManager(new FileContentStore(cachingDir), log);
+        this.cachingStore = new FileContentStore(cachingDir);
+        this.caching = new SimpleRepositoryManager(cachingStore, log);
         this.cachingDir = cachingDir;
     }
 
@@ -109,6 +112,13 @@ public class CachingRepositoryManager extends AbstractNodeRepositoryManager {
         return "CachingRepositoryManager: " + getCache();
     }
 
+    /**
+     * Link the local copies to the blob store instead of writing them again.
+     */
+    public void setContentAddressedStore(ContentAddressedStore blobs) {
+        cachingStore.setContentAddressedStore(blobs);
+    }
+
     public File getCacheFolder() {
         return cachingDir;
     }
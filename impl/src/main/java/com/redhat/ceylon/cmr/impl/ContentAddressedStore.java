@@ -0,0 +1,259 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.cmr.impl;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Content-addressed blob store.
+ * <p/>
+ * Content is kept once under its SHA-1, as <code>ab/abcdef...</code>,
+ * and every file with the same bytes is a hard link to that blob.
+ * Where the file system can't link (e.g. the blob dir is on another device)
+ * the blob is copied instead.
+ * <p/>
+ * Linked files share their bytes, so they must be replaced, never rewritten in place.
+ * They share their timestamps too, a file keeps the time its content was first stored.
+ * <p/>
+ * Blobs younger than the grace period are never purged, so a put which just
+ * stored its blob can still link to it, even if a purge runs in another process.
+ */
+public final class ContentAddressedStore {
+    private static final Logger log = Logger.getLogger(ContentAddressedStore.class.getName());
+
+    /**
+     * How long, in milliseconds, a new blob is kept even if nothing links to it.
+     */
+    public static final long DEFAULT_GRACE_PERIOD = 60 * 1000L;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final String PURGE_CURSOR = ".purge";
+
+    private final File root;
+    private volatile boolean links = true;
+    private volatile long gracePeriod = DEFAULT_GRACE_PERIOD;
+
+    public ContentAddressedStore(File root) {
+        if (root == null)
+            throw new IllegalArgumentException("Null root!");
+        if (root.exists() == false && root.mkdirs() == false)
+            throw new IllegalArgumentException("Cannot create blob store dir: " + root);
+        if (root.isDirectory() == false)
+            throw new IllegalArgumentException("Blob store is not a directory: " + root);
+        this.root = root;
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * @param gracePeriod how long, in milliseconds, purge keeps blobs nothing links to yet
+     */
+    public void setGracePeriod(long gracePeriod) {
+        if (gracePeriod < 0)
+            throw new IllegalArgumentException("Negative grace period: " + gracePeriod);
+        this.gracePeriod = gracePeriod;
+    }
+
+    /**
+     * @param sha1 the content's SHA-1, in lower case hex
+     * @return the blob's file, which might not exist
+     */
+    public File getBlob(String sha1) {
+        if (sha1 == null || sha1.length() < 3)
+            throw new IllegalArgumentException("Invalid SHA-1: " + sha1);
+        return new File(new File(root, sha1.substring(0, 2)), sha1);
+    }
+
+    /**
+     * Store the stream's content and make the target a link to it.
+     * The stream is not closed.
+     *
+     * @param target the file to create or replace
+     * @param stream the content
+     * @return the content's SHA-1
+     */
+    public String put(File target, InputStream stream) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("No SHA-1 message digest", e);
+        }
+        final File temp = File.createTempFile("blob-", ".part", root);
+        try {
+            IOUtils.copyStream(new DigestInputStream(stream, digest), Files.newOutputStream(temp.toPath()), false, true);
+            final String sha1 = IOUtils.toHexString(digest.digest());
+            final File blob = getBlob(sha1);
+            for (int attempt = 1; ; attempt++) {
+                if (blob.exists() == false) {
+                    final File dir = blob.getParentFile();
+                    if (dir.exists() == false && dir.mkdirs() == false && dir.isDirectory() == false)
+                        throw new IOException("Cannot create dirs: " + dir);
+                    try {
+                        Files.move(temp.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                    } catch (FileAlreadyExistsException e) {
+                        // someone else stored the same content meanwhile
+                    }
+                }
+                try {
+                    link(blob, target);
+                    return sha1;
+                } catch (NoSuchFileException e) {
+                    // an old blob was purged meanwhile, store ours instead, if we still have it
+                    if (temp.exists() == false || attempt >= MAX_ATTEMPTS)
+                        throw e;
+                }
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Replace the target with a link to the blob, or a copy of it.
+     */
+    private void link(File blob, File target) throws IOException {
+        Files.deleteIfExists(target.toPath());
+        if (links) {
+            try {
+                Files.createLink(target.toPath(), blob.toPath());
+                return;
+            } catch (UnsupportedOperationException e) {
+                log.log(Level.FINE, "Cannot link " + target + " to " + blob + ", copying blobs from now on", e);
+                links = false;
+            } catch (NoSuchFileException | FileAlreadyExistsException e) {
+                throw e;
+            } catch (FileSystemException e) {
+                final String reason = String.valueOf(e.getReason()).toLowerCase(Locale.ENGLISH);
+                if (reason.contains("cross-device") || reason.contains("different disk") || reason.contains("not supported")) {
+                    log.log(Level.FINE, "Cannot link " + target + " to " + blob + ", copying blobs from now on", e);
+                    links = false;
+                } else if (reason.contains("too many links") == false) {
+                    throw e;
+                }
+                // else just this blob has all the links it can have
+            }
+        }
+        Files.copy(blob.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Delete the blobs nothing links to anymore, except the ones younger than the grace period.
+     *
+     * @return the number of deleted blobs
+     */
+    public int purge() {
+        return purge(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #purge()}, but stop after the shard in which this many blobs were looked at.
+     * The next call continues with the following shard, so each call's cost stays bounded,
+     * and repeated calls still cover the whole store.
+     *
+     * @param limit how many blobs to look at, about
+     * @return the number of deleted blobs
+     */
+    public int purge(int limit) {
+        if (limit < 1)
+            throw new IllegalArgumentException("Purge limit must be positive: " + limit);
+        final File[] dirs = root.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.isDirectory();
+            }
+        });
+        if (dirs == null || dirs.length == 0)
+            return 0;
+        Arrays.sort(dirs);
+        final boolean incremental = limit < Integer.MAX_VALUE;
+        final File cursorFile = new File(root, PURGE_CURSOR);
+        int first = 0;
+        final String cursor = incremental ? readCursor(cursorFile) : null;
+        if (cursor != null) {
+            while (first < dirs.length && dirs[first].getName().compareTo(cursor) <= 0)
+                first++;
+            if (first == dirs.length)
+                first = 0; // start over
+        }
+
+        final long oldest = System.currentTimeMillis() - gracePeriod;
+        int purged = 0;
+        int seen = 0;
+        String last = null;
+        for (int i = 0; i < dirs.length && seen < limit; i++) {
+            final File dir = dirs[(first + i) % dirs.length];
+            final File[] blobs = dir.listFiles();
+            if (blobs != null) {
+                for (File blob : blobs) {
+                    seen++;
+                    if (blob.lastModified() > oldest)
+                        continue; // might be about to get linked
+                    try {
+                        final Object count = Files.getAttribute(blob.toPath(), "unix:nlink");
+                        if (count instanceof Integer && (Integer) count <= 1 && blob.delete())
+                            purged++;
+                    } catch (UnsupportedOperationException | IllegalArgumentException | IOException e) {
+                        // no link counts here, keep everything
+                        return purged;
+                    }
+                }
+            }
+            last = dir.getName();
+        }
+        if (incremental && last != null) {
+            try {
+                Files.write(cursorFile.toPath(), last.getBytes(StandardCharsets.US_ASCII));
+            } catch (IOException ignored) {
+                // we start over next time
+            }
+        }
+        return purged;
+    }
+
+    private static String readCursor(File cursorFile) {
+        if (cursorFile.isFile() == false)
+            return null;
+        try {
+            return new String(Files.readAllBytes(cursorFile.toPath()), StandardCharsets.US_ASCII).trim();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ContentAddressedStore: " + root;
+    }
+}
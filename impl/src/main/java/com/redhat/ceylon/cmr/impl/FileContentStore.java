@@ -17,17 +17,30 @@
 
 package com.redhat.ceylon.cmr.impl;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
+import com.redhat.ceylon.cmr.api.ArtifactCallbackStream;
 import com.redhat.ceylon.cmr.spi.ContentHandle;
 import com.redhat.ceylon.cmr.spi.ContentOptions;
 import com.redhat.ceylon.cmr.spi.ContentStore;
@@ -43,8 +56,19 @@ import com.redhat.ceylon.cmr.spi.StructureBuilder;
  */
 public class FileContentStore implements ContentStore, StructureBuilder {
 
+    /**
+     * Suffix of interrupted downloads kept for resuming.
+     */
+    public static final String PARTIAL = ".partial";
+    private static final String INFO = ".info";
+    public static final String ATTRIBUTES_TTL_PROPERTY = "ceylon.cache.attributesTtl";
+
     private final File root;
     private final ConcurrentMap<Node, File> cache = new ConcurrentHashMap<>();
+    private volatile ContentAddressedStore blobs;
+    private volatile long attributesTtl = Long.getLong(ATTRIBUTES_TTL_PROPERTY, 1000L);
+    // downloads of a file share its partial file, so they take turns, even through different stores
+    private static final ConcurrentMap<File, ReentrantLock> resuming = new ConcurrentHashMap<>();
 
     public FileContentStore(File root) {
         if (root == null)
@@ -52,6 +76,28 @@ public class FileContentStore implements ContentStore, StructureBuilder {
         this.root = root;
     }
 
+    public ContentAddressedStore getContentAddressedStore() {
+        return blobs;
+    }
+
+    /**
+     * Store content once per SHA-1 in the blob store and hard link it here.
+     *
+     * @param blobs the blob store, or null to write plain files
+     */
+    public void setContentAddressedStore(ContentAddressedStore blobs) {
+        this.blobs = blobs;
+    }
+
+    /**
+     * @param attributesTtl how long file sizes and timestamps read while listing a directory are trusted, in millis
+     */
+    public void setAttributesTtl(long attributesTtl) {
+        if (attributesTtl < 0)
+            throw new IllegalArgumentException("Negative attributes TTL: " + attributesTtl);
+        this.attributesTtl = attributesTtl;
+    }
+
     @Override
     public String toString() {
         return "FileContentStore: " + root;
@@ -94,10 +140,61 @@ public class FileContentStore implements ContentStore, StructureBuilder {
         cache.clear();
     }
 
+    /**
+     * Drop cached file mappings for this file and anything below it.
+     *
+     * @param file the changed file
+     */
+    void invalidate(File file) {
+        final String prefix = file.getPath() + File.separator;
+        Iterator<Map.Entry<Node, File>> iter = cache.entrySet().iterator();
+        while (iter.hasNext()) {
+            final File cached = iter.next().getValue();
+            if (cached.equals(file) || cached.getPath().startsWith(prefix))
+                iter.remove();
+        }
+    }
+
+    File getRoot() {
+        return root;
+    }
+
+    /**
+     * Watch this store's directory for changes and invalidate
+     * the matching parts of the node tree under the given root.
+     *
+     * @param rootNode the root node created for this store
+     * @return the running watcher, close it to stop watching
+     * @throws IOException for any I/O error while registering the watches
+     */
+    public FileContentStoreWatcher watch(OpenNode rootNode) throws IOException {
+        final FileContentStoreWatcher watcher = new FileContentStoreWatcher(this, rootNode);
+        watcher.start();
+        return watcher;
+    }
+
     protected ContentHandle createContentHandle(Node owner, File file) {
         return file.isDirectory() ? new FolderContentHandle(owner, file) : new FileContentHandle(owner, file);
     }
 
+    /**
+     * Create a handle from attributes we already read, so we don't stat the file again.
+     */
+    protected ContentHandle createContentHandle(Node owner, File file, BasicFileAttributes attributes) {
+        if (attributes.isDirectory())
+            return new FolderContentHandle(owner, file);
+        else
+            return new FileContentHandle(owner, file, attributes.size(), attributes.lastModifiedTime().toMillis());
+    }
+
+    private static BasicFileAttributes readAttributes(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null; // missing or not readable
+        }
+    }
+
     public ContentHandle peekContent(Node node) {
         final File file = getFile(node);
         return file.exists() ? createContentHandle(node, file) : null;
@@ -129,9 +226,26 @@ public class FileContentStore implements ContentStore, StructureBuilder {
             file = new File(path + node.getLabel()); // just concat paths
         }
 
+        final ResumableInputStream resumable = getResumable(stream);
+        if (resumable != null && resumable.getValidator() != null && resumable.getLength() > 0) {
+            final File key = file.getAbsoluteFile();
+            final ReentrantLock lock = lockResumable(key);
+            try {
+                putResumable(node, file, stream, resumable);
+            } finally {
+                resuming.remove(key, lock);
+                lock.unlock();
+            }
+            return new FileContentHandle(node, file);
+        }
+
         boolean success = false;
         try{
-            IOUtils.writeToFile(file, stream);
+            final ContentAddressedStore cas = blobs;
+            if (cas != null)
+                cas.put(file, stream);
+            else
+                IOUtils.writeToFile(file, stream);
             success = true;
         }catch(SocketTimeoutException ex){
             SocketTimeoutException newEx = new SocketTimeoutException("Timed out reading "+node.getDisplayString()+" from "+node.getStoreDisplayString());
@@ -145,6 +259,93 @@ public class FileContentStore implements ContentStore, StructureBuilder {
         return new FileContentHandle(node, file);
     }
 
+    private static ResumableInputStream getResumable(InputStream stream) {
+        if (stream instanceof ArtifactCallbackStream)
+            stream = ((ArtifactCallbackStream) stream).getStream();
+        return stream instanceof ResumableInputStream ? (ResumableInputStream) stream : null;
+    }
+
+    private static ReentrantLock lockResumable(File file) {
+        while (true) {
+            final ReentrantLock lock = new ReentrantLock();
+            lock.lock();
+            final ReentrantLock previous = resuming.putIfAbsent(file, lock);
+            if (previous == null)
+                return lock;
+            lock.unlock();
+            // wait for the other download of this file to finish
+            previous.lock();
+            previous.unlock();
+        }
+    }
+
+    /**
+     * Download into <code>file.partial</code>, continuing what an earlier attempt left there
+     * if it was downloading the same content, and keep it if we fail again.
+     * Only one download of a file runs at a time.
+     * The content's length and validator are kept next to it, in <code>file.partial.info</code>.
+     */
+    private void putResumable(Node node, File file, InputStream stream, ResumableInputStream resumable) throws IOException {
+        final File partial = new File(file.getPath() + PARTIAL);
+        final File info = new File(partial.getPath() + INFO);
+        final long length = resumable.getLength();
+        final String expected = length + " " + resumable.getValidator();
+
+        long offset = 0;
+        if (partial.isFile() && expected.equals(readInfo(info))) {
+            offset = partial.length();
+            if (offset > length || (offset > 0 && offset < length && resumable.resumeFrom(offset) == false))
+                offset = 0;
+        }
+        if (offset == 0) {
+            IOUtils.writeToFile(info, new ByteArrayInputStream(expected.getBytes(StandardCharsets.UTF_8)));
+        } else if (stream instanceof ArtifactCallbackStream) {
+            // the progress includes what we already have
+            try (InputStream is = new FileInputStream(partial)) {
+                ((ArtifactCallbackStream) stream).alreadyRead(is);
+            }
+        }
+
+        try {
+            if (offset < length)
+                IOUtils.copyStream(stream, new FileOutputStream(partial, offset > 0), false, true);
+        } catch (SocketTimeoutException ex) {
+            SocketTimeoutException newEx = new SocketTimeoutException("Timed out reading " + node.getDisplayString() + " from " + node.getStoreDisplayString());
+            newEx.initCause(ex);
+            throw newEx;
+        }
+
+        try {
+            if (partial.length() != length)
+                throw new IOException("Downloaded " + partial.length() + " bytes instead of " + length + ": " + node.getDisplayString());
+            final ContentAddressedStore cas = blobs;
+            if (cas != null) {
+                try (InputStream is = new FileInputStream(partial)) {
+                    cas.put(file, is);
+                }
+            } else {
+                Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        } finally {
+            // complete or broken, nothing left to resume
+            partial.delete();
+            info.delete();
+        }
+    }
+
+    private static String readInfo(File info) {
+        if (info.isFile() == false)
+            return null;
+        try {
+            return new String(Files.readAllBytes(info.toPath()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
     public OpenNode createRoot() {
         return new RootNode(this, this);
     }
@@ -168,9 +369,10 @@ public class FileContentStore implements ContentStore, StructureBuilder {
             file = new File(path + child); // just concat paths
         }
 
-        if (file.exists()) {
+        final BasicFileAttributes attributes = readAttributes(file);
+        if (attributes != null) {
             final DefaultNode node = new DefaultNode(child);
-            node.setHandle(createContentHandle(node, file));
+            node.setHandle(createContentHandle(node, file, attributes));
             return node;
         } else {
             return null;
@@ -179,12 +381,21 @@ public class FileContentStore implements ContentStore, StructureBuilder {
 
     public Iterable<? extends OpenNode> find(Node parent) {
         final File pf = getFile(parent);
-        if (pf.exists()) {
+        if (pf.isDirectory()) {
             List<OpenNode> nodes = new ArrayList<>();
-            for (File file : pf.listFiles()) {
-                DefaultNode node = new DefaultNode(file.getName());
-                node.setHandle(createContentHandle(node, file));
-                nodes.add(node);
+            // a single pass, keeping type, size and mtime in the handles
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(pf.toPath())) {
+                for (Path path : stream) {
+                    final File file = path.toFile();
+                    final BasicFileAttributes attributes = readAttributes(file);
+                    if (attributes == null)
+                        continue; // removed meanwhile
+                    DefaultNode node = new DefaultNode(file.getName());
+                    node.setHandle(createContentHandle(node, file, attributes));
+                    nodes.add(node);
+                }
+            } catch (IOException e) {
+                return Collections.emptyList();
             }
             return nodes;
         } else {
@@ -212,10 +423,27 @@ public class FileContentStore implements ContentStore, StructureBuilder {
 
         protected Node owner;
         protected File file;
+        private final long size;
+        private final long lastModified;
+        private final long read;
 
         private FileContentHandle(Node owner, File file) {
+            this(owner, file, -1L, -1L);
+        }
+
+        private FileContentHandle(Node owner, File file, long size, long lastModified) {
             this.owner = owner;
             this.file = file;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.read = System.nanoTime();
+        }
+
+        /**
+         * Attributes read while listing are only good for a short while, the file may be rewritten behind our back.
+         */
+        private boolean prefetched(long value) {
+            return value != -1L && System.nanoTime() - read < TimeUnit.MILLISECONDS.toNanos(attributesTtl);
         }
 
         public boolean hasBinaries() {
@@ -227,7 +455,7 @@ public class FileContentStore implements ContentStore, StructureBuilder {
         }
 
         public SizedInputStream getBinariesAsSizedStream() throws IOException {
-            return new SizedInputStream(getBinariesAsStream(), file.length());
+            return new SizedInputStream(getBinariesAsStream(), getSize());
         }
 
         public File getContentAsFile() throws IOException {
@@ -235,11 +463,11 @@ public class FileContentStore implements ContentStore, StructureBuilder {
         }
 
         public long getLastModified() throws IOException {
-            return file.lastModified();
+            return prefetched(lastModified) ? lastModified : file.lastModified();
         }
 
         public long getSize() throws IOException {
-            return file.length();
+            return prefetched(size) ? size : file.length();
         }
 
         public void clean() {
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.cmr.impl;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.redhat.ceylon.cmr.spi.Node;
+import com.redhat.ceylon.cmr.spi.OpenNode;
+
+/**
+ * Watches a file content store's directory and invalidates
+ * only the nodes, markers and file mappings affected by a change,
+ * so long running tools don't need a full refresh to see new modules.
+ */
+public class FileContentStoreWatcher implements Closeable {
+
+    private static final Logger log = Logger.getLogger(FileContentStoreWatcher.class.getName());
+
+    private final FileContentStore store;
+    private final OpenNode rootNode;
+    private final Path root;
+    private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+    private WatchService watchService;
+    private Thread thread;
+    private long changes;
+
+    FileContentStoreWatcher(FileContentStore store, OpenNode rootNode) {
+        if (store == null)
+            throw new IllegalArgumentException("Null store");
+        if (rootNode == null)
+            throw new IllegalArgumentException("Null root node");
+        this.store = store;
+        this.rootNode = rootNode;
+        this.root = store.getRoot().toPath();
+    }
+
+    synchronized void start() throws IOException {
+        if (watchService != null)
+            return;
+
+        watchService = FileSystems.getDefault().newWatchService();
+        if (Files.isDirectory(root))
+            registerAll(root);
+        thread = new Thread(new Runnable() {
+            public void run() {
+                processEvents();
+            }
+        }, "CMR watcher for " + root);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (watchService == null)
+            return;
+
+        try {
+            watchService.close();
+        } finally {
+            watchService = null;
+            thread = null;
+            keys.clear();
+        }
+    }
+
+    public boolean isRunning() {
+        return thread != null && thread.isAlive();
+    }
+
+    /**
+     * @return how many changes were handled so far
+     */
+    public synchronized long getChanges() {
+        return changes;
+    }
+
+    /**
+     * Wait for the watcher to handle more changes.
+     *
+     * @param seen the changes handled so far, as last returned by this method or {@link #getChanges()}
+     * @param timeout how long to wait at most
+     * @param unit the timeout's unit
+     * @return the changes handled now, still <code>seen</code> if none came in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized long awaitChanges(long seen, long timeout, TimeUnit unit) throws InterruptedException {
+        final long end = System.nanoTime() + unit.toNanos(timeout);
+        long left;
+        while (changes <= seen && (left = end - System.nanoTime()) > 0)
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        return changes;
+    }
+
+    private synchronized void handled() {
+        changes++;
+        notifyAll();
+    }
+
+    private void registerAll(Path start) throws IOException {
+        registerAll(start, false);
+    }
+
+    /**
+     * @param rescan report what is already there, as it may have been created before we watched it
+     */
+    private void registerAll(final Path start, final boolean rescan) throws IOException {
+        final WatchService ws = watchService;
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                keys.put(dir.register(ws, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+                if (rescan && dir.equals(start) == false)
+                    changed(dir.getParent(), dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (rescan)
+                    changed(file.getParent(), file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void processEvents() {
+        final WatchService ws = watchService;
+        while (true) {
+            WatchKey key;
+            try {
+                key = ws.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            final Path dir = keys.get(key);
+            if (dir != null) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        // we lost track, so fall back to what refresh would do
+                        store.clear();
+                        rootNode.refresh(true);
+                        handled();
+                        continue;
+                    }
+                    final Path child = dir.resolve((Path) event.context());
+                    changed(dir, child);
+                    if (event.kind() == ENTRY_CREATE && Files.isDirectory(child)) {
+                        try {
+                            registerAll(child, true);
+                        } catch (IOException | ClosedWatchServiceException e) {
+                            log.log(Level.FINE, "Cannot watch new directory " + child, e);
+                        }
+                    }
+                    handled();
+                }
+            }
+
+            if (key.reset() == false) {
+                keys.remove(key);
+                if (keys.isEmpty() && Files.isDirectory(root) == false)
+                    return;
+            }
+        }
+    }
+
+    private void changed(Path dir, Path child) {
+        store.invalidate(child.toFile());
+
+        final AbstractOpenNode parent = findLoadedNode(dir);
+        if (parent == null)
+            return; // nothing looked up below here yet
+
+        final String label = child.getFileName().toString();
+        parent.invalidate(label);
+        // content stored under concatenated names, e.g. foo.car + .sha1
+        List<AbstractOpenNode> prefixed = new ArrayList<>();
+        for (Node sibling : parent.getLoadedChildren()) {
+            final String sl = sibling.getLabel();
+            if (sl.length() > 0 && sl.length() < label.length() && label.startsWith(sl) && sibling instanceof AbstractOpenNode)
+                prefixed.add((AbstractOpenNode) sibling);
+        }
+        for (AbstractOpenNode sibling : prefixed)
+            sibling.invalidate(label.substring(sibling.getLabel().length()));
+    }
+
+    private AbstractOpenNode findLoadedNode(Path dir) {
+        Node current = rootNode;
+        for (Path segment : root.relativize(dir)) {
+            final String label = segment.toString();
+            if (label.isEmpty())
+                continue;
+            current = ((OpenNode) current).peekChild(label);
+            if (current == null)
+                return null;
+        }
+        return (current instanceof AbstractOpenNode) ? (AbstractOpenNode) current : null;
+    }
+
+    @Override
+    public String toString() {
+        return "FileContentStoreWatcher: " + root;
+    }
+}
@@ -35,7 +35,16 @@ import java.io.OutputStream;
 import java.io.Serializable;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -53,6 +62,9 @@ import com.redhat.ceylon.model.cmr.ArtifactResult;
 public class IOUtils {
 
     private static final Logger log = Logger.getLogger(IOUtils.class.getName());
+
+    // below this many files an archive is extracted by the calling thread alone
+    private static final int PARALLEL_EXTRACT_ENTRIES = 32;
     private static final char[] Hexadecimal = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
 
     /**
@@ -285,6 +297,14 @@ public class IOUtils {
     }
     
     public static void extractArchive(File zip, File dir) throws IOException {
+        extractArchive(zip, dir, 1);
+    }
+
+    /**
+     * Extract the archive, with up to the given number of threads inflating entries
+     * concurrently when there are enough of them to be worth it.
+     */
+    public static void extractArchive(File zip, final File dir, int threads) throws IOException {
         if (dir.exists()) {
             if (!dir.isDirectory()) {
                 throw new UnzipException(UnzipFailure.DestinationNotDirectory, dir);
@@ -293,27 +313,75 @@ public class IOUtils {
             mkdirs(dir);
         }
 
-        try (ZipFile zf = new ZipFile(zip)) {
+        try (final ZipFile zf = new ZipFile(zip)) {
+            // make all folders first, so entries can be written in any order
+            final List<ZipEntry> files = new ArrayList<>();
             Enumeration<? extends ZipEntry> entries = zf.entries();
             while (entries.hasMoreElements()) {
                 ZipEntry entry = entries.nextElement();
-                String entryName = entry.getName();
-                try {
-                    File out = new File(dir, entryName);
-                    if (entry.isDirectory()) {
-                        mkdirs(out);
-                        continue;
-                    }
+                File out = new File(dir, entry.getName());
+                if (entry.isDirectory()) {
+                    mkdirs(out);
+                } else {
                     mkdirs(out.getParentFile());
-                    try (InputStream zipIn = zf.getInputStream(entry)) {
-                        try (BufferedOutputStream fileOut = new BufferedOutputStream(new FileOutputStream(out))) {
-                            IOUtils.copyStream(zipIn, fileOut, false, false);
+                    files.add(entry);
+                }
+            }
+
+            if (threads <= 1 || files.size() < PARALLEL_EXTRACT_ENTRIES) {
+                for (ZipEntry entry : files)
+                    extractEntry(zf, entry, dir);
+                return;
+            }
+
+            final ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, files.size()), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "CMR unzip " + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            try {
+                final List<Future<?>> futures = new ArrayList<>(files.size());
+                for (final ZipEntry entry : files) {
+                    futures.add(executor.submit(new Callable<Void>() {
+                        public Void call() {
+                            extractEntry(zf, entry, dir);
+                            return null;
                         }
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof RuntimeException)
+                            throw (RuntimeException) e.getCause();
+                        throw toIOException(e.getCause());
                     }
-                } catch (IOException e) {
-                    throw new UnzipException(UnzipFailure.CopyError, entryName, e);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while extracting " + zip);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private static void extractEntry(ZipFile zf, ZipEntry entry, File dir) {
+        final String entryName = entry.getName();
+        try {
+            File out = new File(dir, entryName);
+            try (InputStream zipIn = zf.getInputStream(entry)) {
+                try (BufferedOutputStream fileOut = new BufferedOutputStream(new FileOutputStream(out))) {
+                    IOUtils.copyStream(zipIn, fileOut, false, false);
                 }
             }
+        } catch (IOException e) {
+            throw new UnzipException(UnzipFailure.CopyError, entryName, e);
         }
     }
     
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.ceylon.cmr.impl;
+
+import java.util.logging.Level;
+
+import com.redhat.ceylon.cmr.api.ArtifactContext;
+import com.redhat.ceylon.cmr.api.CmrRepository;
+import com.redhat.ceylon.cmr.api.ResolutionMonitor;
+import com.redhat.ceylon.cmr.spi.Node;
+import com.redhat.ceylon.common.log.Logger;
+
+/**
+ * Resolution monitor that traces lookups to the debug log.
+ * Messages are only built when this monitor is installed, and debug logging is on.
+ */
+public class LoggingResolutionMonitor implements ResolutionMonitor {
+
+    private final Logger log;
+
+    public LoggingResolutionMonitor(Logger log) {
+        if (log == null)
+            throw new IllegalArgumentException("Null log");
+        this.log = log;
+    }
+
+    /**
+     * Our Logger cannot tell its level, so we only know it's off for our own JUL logger.
+     */
+    private boolean isDebug() {
+        return (log instanceof CMRJULLogger) == false || CMRJULLogger.log.isLoggable(Level.FINE);
+    }
+
+    @Override
+    public void lookup(ArtifactContext context) {
+        if (isDebug())
+            log.debug("Looking for " + context);
+    }
+
+    @Override
+    public void skipped(CmrRepository repository, ArtifactContext context) {
+        if (context.isMaven())
+            log.debug("  -> Skipping non-Maven repo for Maven lookup");
+        else
+            log.debug("  -> Skipping Maven repo for non-Maven lookup");
+    }
+
+    @Override
+    public void trying(CmrRepository repository, ArtifactContext context) {
+        if (isDebug())
+            log.debug(" Trying repository " + repository.getDisplayString());
+    }
+
+    @Override
+    public void found(CmrRepository repository, ArtifactContext context, Node node, long parentNanos, long childNanos) {
+        if (isDebug())
+            log.debug("  -> Found at " + NodeUtils.getFullPath(node));
+    }
+
+    @Override
+    public void notFound(CmrRepository repository, ArtifactContext context, long parentNanos, long childNanos) {
+        log.debug("  -> Not Found");
+    }
+
+    @Override
+    public void notFound(ArtifactContext context) {
+        if (isDebug())
+            log.debug(" -> Artifact " + context + " not found in any repository");
+    }
+
+    @Override
+    public void caching(ArtifactContext context, Node node) {
+        if (isDebug())
+            log.debug("Looking up artifact " + context + " from " + node + " to cache it");
+    }
+
+    @Override
+    public void storing(ArtifactContext context, Node node, String store) {
+        if (isDebug() == false)
+            return;
+        if (node.isRemote())
+            log.debug(" -> Found it, now caching it");
+        log.debug("Creating local copy of external node: " + node + " at repo: " + store);
+    }
+
+    @Override
+    public void downloaded(CmrRepository repository, ArtifactContext context, long bytes, long nanos) {
+        if (isDebug())
+            log.debug("    Caching done: " + context + " (" + bytes + " bytes in " + (nanos / 1000000L) + "ms)");
+    }
+
+    @Override
+    public void shaChecked(ArtifactContext context, Boolean valid, long nanos) {
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.cmr.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * An artifact's maven-metadata.xml: its versions, latest and release.
+ */
+public final class MavenMetadata {
+    public static final String FILE_NAME = "maven-metadata.xml";
+
+    private static final XMLInputFactory factory;
+
+    static {
+        factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private String groupId;
+    private String artifactId;
+    private String latest;
+    private String release;
+    private String lastUpdated;
+    private List<String> versions = new ArrayList<>();
+
+    private MavenMetadata() {
+    }
+
+    public static MavenMetadata parse(InputStream stream) throws IOException {
+        try {
+            final XMLStreamReader reader = factory.createXMLStreamReader(stream);
+            try {
+                final MavenMetadata metadata = new MavenMetadata();
+                boolean inVersioning = false, inVersions = false;
+                int depth = 0;
+                while (reader.hasNext()) {
+                    final int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        final String element = reader.getLocalName();
+                        if (depth == 1 && element.equals("groupId")) {
+                            metadata.groupId = reader.getElementText().trim();
+                        } else if (depth == 1 && element.equals("artifactId")) {
+                            metadata.artifactId = reader.getElementText().trim();
+                        } else if (depth == 2 && inVersioning && element.equals("latest")) {
+                            metadata.latest = reader.getElementText().trim();
+                        } else if (depth == 2 && inVersioning && element.equals("release")) {
+                            metadata.release = reader.getElementText().trim();
+                        } else if (depth == 2 && inVersioning && element.equals("lastUpdated")) {
+                            metadata.lastUpdated = reader.getElementText().trim();
+                        } else if (depth == 3 && inVersions && element.equals("version")) {
+                            final String version = reader.getElementText().trim();
+                            if (version.isEmpty() == false)
+                                metadata.versions.add(version);
+                        } else {
+                            if (depth == 1 && element.equals("versioning"))
+                                inVersioning = true;
+                            else if (depth == 2 && inVersioning && element.equals("versions"))
+                                inVersions = true;
+                            depth++;
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        depth--;
+                        if (depth == 2)
+                            inVersions = false;
+                        else if (depth == 1)
+                            inVersioning = false;
+                        else if (depth == 0)
+                            break;
+                    }
+                }
+                metadata.versions = Collections.unmodifiableList(metadata.versions);
+                return metadata;
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Cannot parse " + FILE_NAME + ": " + e.getMessage(), e);
+        }
+    }
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    public String getArtifactId() {
+        return artifactId;
+    }
+
+    /**
+     * @return the latest version, including snapshots
+     */
+    public String getLatest() {
+        if (latest != null && latest.isEmpty() == false)
+            return latest;
+        return versions.isEmpty() ? null : versions.get(versions.size() - 1);
+    }
+
+    /**
+     * @return the latest released version
+     */
+    public String getRelease() {
+        return release != null && release.isEmpty() == false ? release : null;
+    }
+
+    public String getLastUpdated() {
+        return lastUpdated;
+    }
+
+    /**
+     * @return the versions, oldest first
+     */
+    public List<String> getVersions() {
+        return versions;
+    }
+
+    @Override
+    public String toString() {
+        return "MavenMetadata: " + groupId + ":" + artifactId + " " + versions;
+    }
+}
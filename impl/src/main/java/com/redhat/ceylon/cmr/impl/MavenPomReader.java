@@ -0,0 +1,538 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.cmr.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Lightweight Maven pom reader.
+ * <p/>
+ * Builds the effective dependencies of a pom: parent inheritance,
+ * properties, dependency management (including imported boms) and scopes.
+ * It doesn't do profiles, plugins or anything else a build needs.
+ */
+public final class MavenPomReader {
+    private static final int MAX_CACHED = 2000;
+    private static final int MAX_DEPTH = 16;
+    private static final XMLInputFactory factory;
+
+    static {
+        factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /**
+     * Where poms come from.
+     */
+    public interface PomSource {
+        /**
+         * @return the pom's stream, or null if there is no such pom
+         */
+        InputStream openPom(String groupId, String artifactId, String version) throws IOException;
+    }
+
+    private final PomSource source;
+    // merged with the parents, not interpolated yet
+    private final ConcurrentMap<String, Pom> inherited = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Pom> effective = new ConcurrentHashMap<>();
+
+    public MavenPomReader(PomSource source) {
+        if (source == null)
+            throw new IllegalArgumentException("Null source");
+        this.source = source;
+    }
+
+    /**
+     * The effective pom of the coordinates.
+     *
+     * @return the pom, or null if there is no such pom
+     */
+    public Pom getEffectivePom(String groupId, String artifactId, String version) throws IOException {
+        return getEffectivePom(groupId, artifactId, version, 0);
+    }
+
+    /**
+     * The effective pom of a pom which isn't in the source, e.g. one embedded
+     * in a jar; its parents and imported boms still come from the source.
+     */
+    public Pom getEffectivePom(InputStream stream) throws IOException {
+        return effective(inherit(parse(stream), 0), 0);
+    }
+
+    public void clear() {
+        inherited.clear();
+        effective.clear();
+    }
+
+    private Pom getEffectivePom(String groupId, String artifactId, String version, int depth) throws IOException {
+        final String gav = groupId + ":" + artifactId + ":" + version;
+        Pom pom = effective.get(gav);
+        if (pom == null) {
+            final Pom inherited = getInheritedPom(groupId, artifactId, version, depth);
+            if (inherited == null)
+                return null;
+            pom = effective(inherited, depth);
+            if (effective.size() >= MAX_CACHED)
+                effective.clear();
+            effective.put(gav, pom);
+        }
+        return pom;
+    }
+
+    private Pom getInheritedPom(String groupId, String artifactId, String version, int depth) throws IOException {
+        final String gav = groupId + ":" + artifactId + ":" + version;
+        Pom pom = inherited.get(gav);
+        if (pom == null) {
+            if (depth > MAX_DEPTH)
+                throw new IOException("Pom hierarchy too deep, or cyclic: " + gav);
+            final InputStream stream = source.openPom(groupId, artifactId, version);
+            if (stream == null)
+                return null;
+            final Pom raw;
+            try {
+                raw = parse(stream);
+            } finally {
+                IOUtils.safeClose(stream);
+            }
+            pom = inherit(raw, depth);
+            if (inherited.size() >= MAX_CACHED)
+                inherited.clear();
+            inherited.put(gav, pom);
+        }
+        return pom;
+    }
+
+    /**
+     * Merge a raw pom with its parents, as Maven does before interpolating,
+     * so properties a child overrides apply to what it inherits too.
+     */
+    private Pom inherit(Pom raw, int depth) throws IOException {
+        Pom parent = null;
+        if (raw.parent != null && raw.parent.version != null) {
+            parent = getInheritedPom(raw.parent.groupId, raw.parent.artifactId, raw.parent.version, depth + 1);
+        }
+
+        final Pom pom = new Pom();
+        pom.groupId = raw.groupId != null ? raw.groupId : (raw.parent != null ? raw.parent.groupId : null);
+        pom.artifactId = raw.artifactId;
+        pom.version = raw.version != null ? raw.version : (raw.parent != null ? raw.parent.version : null);
+        pom.packaging = raw.packaging != null ? raw.packaging : "jar";
+        pom.parent = raw.parent;
+
+        if (parent != null)
+            pom.properties.putAll(parent.properties);
+        pom.properties.putAll(raw.properties);
+        // ours replace the parent's ones
+        pom.dependencyManagement.addAll(merge(parent != null ? parent.dependencyManagement : null, raw.dependencyManagement));
+        pom.dependencies.addAll(merge(parent != null ? parent.dependencies : null, raw.dependencies));
+
+        pom.freeze();
+        return pom;
+    }
+
+    private static Collection<Dependency> merge(List<Dependency> inherited, List<Dependency> own) {
+        final Map<String, Dependency> merged = new LinkedHashMap<>();
+        if (inherited != null) {
+            for (Dependency dependency : inherited)
+                merged.put(dependency.getManagementKey(), dependency);
+        }
+        for (Dependency dependency : own)
+            merged.put(dependency.getManagementKey(), dependency);
+        return merged.values();
+    }
+
+    private Pom effective(Pom inherited, int depth) throws IOException {
+        final Pom pom = new Pom();
+        pom.groupId = inherited.groupId;
+        pom.artifactId = inherited.artifactId;
+        pom.version = inherited.version;
+        pom.packaging = inherited.packaging;
+        pom.parent = inherited.parent;
+        pom.properties.putAll(inherited.properties);
+        putBuiltinProperties(pom);
+
+        // dependency management: declared (ours or inherited) win over imported boms
+        final Map<String, Dependency> managed = new LinkedHashMap<>();
+        final List<Dependency> imports = new ArrayList<>();
+        for (Dependency dependency : inherited.dependencyManagement) {
+            final Dependency interpolated = dependency.interpolate(pom.properties);
+            if ("import".equals(interpolated.scope) && "pom".equals(interpolated.type))
+                imports.add(interpolated);
+            else
+                managed.put(interpolated.getManagementKey(), interpolated);
+        }
+        for (Dependency bom : imports) {
+            final Pom imported = (bom.version != null) ? getEffectivePom(bom.groupId, bom.artifactId, bom.version, depth + 1) : null;
+            if (imported == null)
+                continue;
+            for (Dependency dependency : imported.dependencyManagement) {
+                if (managed.containsKey(dependency.getManagementKey()) == false)
+                    managed.put(dependency.getManagementKey(), dependency);
+            }
+        }
+        pom.dependencyManagement.addAll(managed.values());
+
+        // dependencies, inherited ones included, get their missing versions and scopes from the management
+        final Map<String, Dependency> dependencies = new LinkedHashMap<>();
+        for (Dependency dependency : inherited.dependencies) {
+            final Dependency interpolated = dependency.interpolate(pom.properties);
+            dependencies.put(interpolated.getManagementKey(), interpolated.manage(managed.get(interpolated.getManagementKey())));
+        }
+        pom.dependencies.addAll(dependencies.values());
+
+        pom.freeze();
+        return pom;
+    }
+
+    private static void putBuiltinProperties(Pom pom) {
+        for (String prefix : new String[]{"project.", "pom."}) {
+            putIfNotNull(pom.properties, prefix + "groupId", pom.groupId);
+            putIfNotNull(pom.properties, prefix + "artifactId", pom.artifactId);
+            putIfNotNull(pom.properties, prefix + "version", pom.version);
+            if (pom.parent != null) {
+                putIfNotNull(pom.properties, prefix + "parent.groupId", pom.parent.groupId);
+                putIfNotNull(pom.properties, prefix + "parent.artifactId", pom.parent.artifactId);
+                putIfNotNull(pom.properties, prefix + "parent.version", pom.parent.version);
+            }
+        }
+    }
+
+    private static void putIfNotNull(Map<String, String> map, String key, String value) {
+        if (value != null)
+            map.put(key, value);
+    }
+
+    static String interpolate(String value, Map<String, String> properties) {
+        if (value == null || value.indexOf("${") < 0)
+            return value;
+        String current = value;
+        // properties can refer to other properties
+        for (int round = 0; round < 10 && current.indexOf("${") >= 0; round++) {
+            final StringBuilder builder = new StringBuilder();
+            int index = 0;
+            boolean replaced = false;
+            while (true) {
+                final int start = current.indexOf("${", index);
+                final int end = (start >= 0) ? current.indexOf('}', start) : -1;
+                if (start < 0 || end < 0) {
+                    builder.append(current, index, current.length());
+                    break;
+                }
+                builder.append(current, index, start);
+                final String key = current.substring(start + 2, end);
+                final String replacement = properties.get(key);
+                if (replacement != null) {
+                    builder.append(replacement);
+                    replaced = true;
+                } else {
+                    builder.append(current, start, end + 1);
+                }
+                index = end + 1;
+            }
+            current = builder.toString();
+            if (replaced == false)
+                break;
+        }
+        return current;
+    }
+
+    /**
+     * Parse a pom as it is, without inheritance or interpolation.
+     */
+    public static Pom parse(InputStream stream) throws IOException {
+        try {
+            final XMLStreamReader reader = factory.createXMLStreamReader(stream);
+            try {
+                return parse(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Cannot parse pom: " + e.getMessage(), e);
+        }
+    }
+
+    private static Pom parse(XMLStreamReader reader) throws XMLStreamException {
+        final Pom pom = new Pom();
+        // element names below the document, e.g. [project, dependencies, dependency]
+        final List<String> path = new ArrayList<>();
+        Dependency dependency = null;
+        while (reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                final String element = reader.getLocalName();
+                final int depth = path.size();
+                if (depth == 1) {
+                    switch (element) {
+                        case "groupId":
+                            pom.groupId = text(reader);
+                            continue;
+                        case "artifactId":
+                            pom.artifactId = text(reader);
+                            continue;
+                        case "version":
+                            pom.version = text(reader);
+                            continue;
+                        case "packaging":
+                            pom.packaging = text(reader);
+                            continue;
+                        case "parent":
+                            pom.parent = new Dependency();
+                            break;
+                        case "properties":
+                        case "dependencies":
+                        case "dependencyManagement":
+                            break;
+                        default:
+                            skipElement(reader);
+                            continue;
+                    }
+                } else if (depth == 2 && path.get(1).equals("parent")) {
+                    if (dependency(pom.parent, element, reader) == false)
+                        skipElement(reader);
+                    continue;
+                } else if (depth == 2 && path.get(1).equals("properties")) {
+                    pom.properties.put(element, text(reader));
+                    continue;
+                } else if ((depth == 2 && path.get(1).equals("dependencies") && element.equals("dependency"))
+                        || (depth == 3 && path.get(1).equals("dependencyManagement") && path.get(2).equals("dependencies") && element.equals("dependency"))) {
+                    dependency = new Dependency();
+                    if (depth == 2)
+                        pom.dependencies.add(dependency);
+                    else
+                        pom.dependencyManagement.add(dependency);
+                } else if (dependency != null && path.get(path.size() - 1).equals("dependency")) {
+                    if (dependency(dependency, element, reader) == false)
+                        skipElement(reader);
+                    continue;
+                } else if (depth > 0 && (depth != 2 || path.get(1).equals("dependencyManagement") == false)) {
+                    skipElement(reader);
+                    continue;
+                }
+                path.add(element);
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                final String element = path.remove(path.size() - 1);
+                if (element.equals("dependency"))
+                    dependency = null;
+                if (path.isEmpty())
+                    break;
+            }
+        }
+        return pom;
+    }
+
+    private static boolean dependency(Dependency dependency, String element, XMLStreamReader reader) throws XMLStreamException {
+        switch (element) {
+            case "groupId":
+                dependency.groupId = text(reader);
+                return true;
+            case "artifactId":
+                dependency.artifactId = text(reader);
+                return true;
+            case "version":
+                dependency.version = text(reader);
+                return true;
+            case "scope":
+                dependency.scope = text(reader);
+                return true;
+            case "type":
+                dependency.type = text(reader);
+                return true;
+            case "classifier":
+                dependency.classifier = text(reader);
+                return true;
+            case "optional":
+                dependency.optional = text(reader);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static String text(XMLStreamReader reader) throws XMLStreamException {
+        final String text = reader.getElementText().trim();
+        return text.isEmpty() ? null : text;
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT)
+                depth++;
+            else if (event == XMLStreamConstants.END_ELEMENT)
+                depth--;
+        }
+    }
+
+    /**
+     * A pom; once effective, every dependency has its version and scope filled in where known.
+     */
+    public static final class Pom {
+        private String groupId;
+        private String artifactId;
+        private String version;
+        private String packaging;
+        private Dependency parent;
+        private Map<String, String> properties = new HashMap<>();
+        private List<Dependency> dependencyManagement = new ArrayList<>();
+        private List<Dependency> dependencies = new ArrayList<>();
+
+        private void freeze() {
+            properties = Collections.unmodifiableMap(properties);
+            dependencyManagement = Collections.unmodifiableList(dependencyManagement);
+            dependencies = Collections.unmodifiableList(dependencies);
+        }
+
+        public String getGroupId() {
+            return groupId;
+        }
+
+        public String getArtifactId() {
+            return artifactId;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public String getPackaging() {
+            return packaging;
+        }
+
+        public Map<String, String> getProperties() {
+            return properties;
+        }
+
+        public List<Dependency> getDependencyManagement() {
+            return dependencyManagement;
+        }
+
+        public List<Dependency> getDependencies() {
+            return dependencies;
+        }
+
+        @Override
+        public String toString() {
+            return "Pom: " + groupId + ":" + artifactId + ":" + version;
+        }
+    }
+
+    public static final class Dependency {
+        private String groupId;
+        private String artifactId;
+        private String version;
+        private String scope;
+        private String type;
+        private String classifier;
+        private String optional;
+
+        private Dependency() {
+        }
+
+        private Dependency copy() {
+            final Dependency copy = new Dependency();
+            copy.groupId = groupId;
+            copy.artifactId = artifactId;
+            copy.version = version;
+            copy.scope = scope;
+            copy.type = type;
+            copy.classifier = classifier;
+            copy.optional = optional;
+            return copy;
+        }
+
+        private Dependency interpolate(Map<String, String> properties) {
+            final Dependency copy = copy();
+            copy.groupId = MavenPomReader.interpolate(groupId, properties);
+            copy.artifactId = MavenPomReader.interpolate(artifactId, properties);
+            copy.version = MavenPomReader.interpolate(version, properties);
+            copy.scope = MavenPomReader.interpolate(scope, properties);
+            copy.type = MavenPomReader.interpolate(type, properties);
+            copy.classifier = MavenPomReader.interpolate(classifier, properties);
+            copy.optional = MavenPomReader.interpolate(optional, properties);
+            return copy;
+        }
+
+        private Dependency manage(Dependency managed) {
+            if (managed == null)
+                return this;
+            final Dependency copy = copy();
+            if (copy.version == null)
+                copy.version = managed.version;
+            if (copy.scope == null)
+                copy.scope = managed.scope;
+            if (copy.optional == null)
+                copy.optional = managed.optional;
+            return copy;
+        }
+
+        private String getManagementKey() {
+            return groupId + ":" + artifactId + ":" + getType() + (classifier != null ? ":" + classifier : "");
+        }
+
+        public String getGroupId() {
+            return groupId;
+        }
+
+        public String getArtifactId() {
+            return artifactId;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public String getScope() {
+            return scope != null ? scope : "compile";
+        }
+
+        public String getType() {
+            return type != null ? type : "jar";
+        }
+
+        public String getClassifier() {
+            return classifier;
+        }
+
+        public boolean isOptional() {
+            return "true".equals(optional);
+        }
+
+        @Override
+        public String toString() {
+            return "Dependency: " + groupId + ":" + artifactId + ":" + version + " (" + getScope() + ")";
+        }
+    }
+}
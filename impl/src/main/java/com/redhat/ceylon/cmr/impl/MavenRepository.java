@@ -18,18 +18,34 @@ package com.redhat.ceylon.cmr.impl;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import com.redhat.ceylon.cmr.api.ArtifactContext;
 import com.redhat.ceylon.cmr.api.CmrRepository;
+import com.redhat.ceylon.cmr.api.ModuleDependencyInfo;
+import com.redhat.ceylon.cmr.api.ModuleInfo;
+import com.redhat.ceylon.cmr.api.ModuleVersionArtifact;
+import com.redhat.ceylon.cmr.api.ModuleVersionDetails;
+import com.redhat.ceylon.cmr.api.ModuleVersionQuery;
+import com.redhat.ceylon.cmr.api.ModuleVersionResult;
+import com.redhat.ceylon.cmr.api.Overrides;
 import com.redhat.ceylon.cmr.api.RepositoryManager;
+import com.redhat.ceylon.cmr.spi.ContentStore;
 import com.redhat.ceylon.cmr.spi.Node;
 import com.redhat.ceylon.cmr.spi.OpenNode;
+import com.redhat.ceylon.cmr.spi.SizedInputStream;
 import com.redhat.ceylon.model.cmr.ArtifactResult;
 import com.redhat.ceylon.model.cmr.ArtifactResultType;
+import com.redhat.ceylon.model.cmr.ImportType;
 import com.redhat.ceylon.model.cmr.RepositoryException;
 
 /**
@@ -38,8 +54,29 @@ import com.redhat.ceylon.model.cmr.RepositoryException;
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
  */
 public class MavenRepository extends AbstractRepository {
+    private static final Logger log = Logger.getLogger(MavenRepository.class.getName());
+
+    private final MavenPomReader pomReader;
+
     protected MavenRepository(OpenNode root) {
         super(root);
+        pomReader = new MavenPomReader(new MavenPomReader.PomSource() {
+            public InputStream openPom(String groupId, String artifactId, String version) throws IOException {
+                final Node parent = findParent(new ArtifactContext(groupId + ":" + artifactId, version));
+                final Node pom = (parent != null) ? parent.getChild(artifactId + "-" + version + ".pom") : null;
+                if (pom == null || pom.hasBinaries() == false)
+                    return null;
+                final SizedInputStream stream = pom.getSizedInputStream();
+                return (stream != null) ? stream.inputStream : null;
+            }
+        });
+    }
+
+    /**
+     * The reader of this repository's poms, which caches the effective poms.
+     */
+    protected MavenPomReader getPomReader() {
+        return pomReader;
     }
 
     @Override
@@ -61,8 +98,79 @@ public class MavenRepository extends AbstractRepository {
         return "[Maven] " + super.getDisplayString();
     }
 
+    @Override
+    public void completeVersions(ModuleVersionQuery lookup, ModuleVersionResult result) {
+        final RemoteContentStore store = getRemoteContentStore();
+        if (store == null) {
+            super.completeVersions(lookup, result);
+            return;
+        }
+        // a remote Maven repository can't list, but it has metadata
+        if (lookup.getMemberName() != null || hasJarSuffix(lookup) == false)
+            return;
+        final MavenMetadata metadata = getMavenMetadata(store, lookup.getName());
+        if (metadata == null)
+            return;
+        final String name = metadata.getGroupId() != null && metadata.getArtifactId() != null
+                ? metadata.getGroupId() + ":" + metadata.getArtifactId() : lookup.getName();
+        for (String version : metadata.getVersions()) {
+            if (lookup.getVersion() != null && version.startsWith(lookup.getVersion()) == false)
+                continue;
+            if (result.hasVersion(version))
+                continue;
+            Set<ModuleVersionArtifact> artifactTypes = new HashSet<>();
+            artifactTypes.add(new ModuleVersionArtifact(ArtifactContext.JAR, null, null));
+            result.addVersion(new ModuleVersionDetails(name, version, null, null,
+                    new HashSet<String>(), new HashSet<ModuleDependencyInfo>(), artifactTypes, true, getDisplayString()));
+        }
+    }
+
+    /**
+     * The latest released version of a module, from a remote repository's metadata.
+     *
+     * @param name the module name
+     * @return the version, or null if it's not known
+     */
+    public String getLatestVersion(String name) {
+        final RemoteContentStore store = getRemoteContentStore();
+        if (store == null)
+            return null;
+        final MavenMetadata metadata = getMavenMetadata(store, name);
+        if (metadata == null)
+            return null;
+        return metadata.getRelease() != null ? metadata.getRelease() : metadata.getLatest();
+    }
+
+    private RemoteContentStore getRemoteContentStore() {
+        final ContentStore store = getRoot().getService(ContentStore.class);
+        return (store instanceof RemoteContentStore) ? (RemoteContentStore) store : null;
+    }
+
+    private MavenMetadata getMavenMetadata(RemoteContentStore store, String name) {
+        final int p = name.contains(":") ? name.lastIndexOf(":") : name.lastIndexOf(".");
+        if (p < 0)
+            return null;
+        try {
+            return store.getMavenMetadata(name.substring(0, p), name.substring(p + 1));
+        } catch (IOException e) {
+            log.log(Level.FINE, "Cannot get Maven metadata of " + name, e);
+            return null;
+        }
+    }
+
+    private static boolean hasJarSuffix(ModuleVersionQuery lookup) {
+        if (lookup.getType() == null)
+            return true;
+        for (String suffix : lookup.getType().getSuffixes()) {
+            if (suffix.equals(ArtifactContext.JAR))
+                return true;
+        }
+        return false;
+    }
+
     private static class MavenArtifactResult extends AbstractCeylonArtifactResult {
         private Node node;
+        private volatile List<ArtifactResult> dependencies;
 
         private MavenArtifactResult(CmrRepository repository, RepositoryManager manager, String name, String version, Node node) {
             super(repository, manager, name, version);
@@ -85,7 +193,56 @@ public class MavenRepository extends AbstractRepository {
 
         @Override
         public List<ArtifactResult> dependencies() throws RepositoryException {
-            return Collections.emptyList(); // dunno how to grab deps
+            List<ArtifactResult> results = dependencies;
+            if (results == null) {
+                results = readDependencies();
+                dependencies = results;
+            }
+            return results;
+        }
+
+        private List<ArtifactResult> readDependencies() {
+            final String name = name();
+            final int p = name.contains(":") ? name.lastIndexOf(":") : name.lastIndexOf(".");
+            if (p < 0)
+                return Collections.emptyList();
+
+            final MavenPomReader.Pom pom;
+            try {
+                pom = ((MavenRepository) repository()).getPomReader().getEffectivePom(name.substring(0, p), name.substring(p + 1), version());
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Cannot read the pom of " + name + "/" + version() + ": " + e.getMessage());
+                return Collections.emptyList();
+            }
+            if (pom == null)
+                return Collections.emptyList(); // no pom, no deps
+
+            Set<ModuleDependencyInfo> infos = new LinkedHashSet<>();
+            for (MavenPomReader.Dependency dependency : pom.getDependencies()) {
+                final String scope = dependency.getScope();
+                final boolean provided = scope.equals("provided");
+                if (scope.equals("compile") == false && scope.equals("runtime") == false && provided == false)
+                    continue; // test, system, import
+                if (dependency.getClassifier() != null || (dependency.getType().equals("jar") == false && dependency.getType().equals("bundle") == false))
+                    continue; // not something we can import
+                final String version = toVersion(dependency.getVersion());
+                if (dependency.getGroupId() == null || dependency.getArtifactId() == null || version == null)
+                    continue; // not a version we understand
+                infos.add(new ModuleDependencyInfo(dependency.getGroupId() + ":" + dependency.getArtifactId(), version, dependency.isOptional() || provided, false));
+            }
+            ModuleInfo info = new ModuleInfo(null, infos);
+            final Overrides overrides = ((CmrRepository) repository()).getRoot().getService(Overrides.class);
+            if (overrides != null)
+                info = overrides.applyOverrides(name, version(), info);
+
+            final List<ArtifactResult> results = new ArrayList<>();
+            for (ModuleDependencyInfo mi : info.getDependencies()) {
+                results.add(new LazyArtifactResult(getManager(),
+                        mi.getName(),
+                        mi.getVersion(),
+                        mi.isOptional() ? ImportType.OPTIONAL : (mi.isExport() ? ImportType.EXPORT : ImportType.UNDEFINED)));
+            }
+            return Collections.unmodifiableList(results);
         }
         
         @Override
@@ -104,6 +261,30 @@ public class MavenRepository extends AbstractRepository {
         return getParentPath(context);
     }
     
+    /**
+     * A concrete version for a Maven version, or version range such as [1.0,2.0).
+     *
+     * @return the version, or null if there's no concrete one to pick
+     */
+    static String toVersion(String version) {
+        if (version == null || version.contains("${"))
+            return null;
+        if (version.startsWith("[") || version.startsWith("(")) {
+            final String range = version.substring(1, version.length() - 1);
+            final int comma = range.indexOf(',');
+            if (comma < 0)
+                return range.trim().isEmpty() ? null : range.trim(); // [1.0]
+            final String lower = range.substring(0, comma).trim();
+            if (lower.isEmpty() == false && version.startsWith("["))
+                return lower;
+            final String upper = range.substring(comma + 1).trim();
+            if (upper.isEmpty() == false && version.endsWith("]"))
+                return upper;
+            return null;
+        }
+        return version;
+    }
+
     public static List<String> getParentPath(ArtifactContext context) {
         final String name = context.getName();
         final int p = name.contains(":") ? name.lastIndexOf(":") : name.lastIndexOf(".");
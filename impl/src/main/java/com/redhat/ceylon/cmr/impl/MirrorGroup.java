@@ -0,0 +1,155 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.cmr.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.redhat.ceylon.cmr.api.CmrRepository;
+
+/**
+ * Repositories declared as mirrors of the same content.
+ * <p/>
+ * A lookup goes through the group as a whole: the mirrors are tried best first, and the other
+ * mirrors are not looked in again once one of them answered. The best mirror is the one with the
+ * highest measured download throughput; mirrors we have no measure of yet are tried first, so that
+ * every mirror gets one, and every {@link #PROBE_INTERVAL}th lookup goes to the next best mirror first
+ * to keep the measures current. A mirror that failed a download, or whose content did not match
+ * its SHA-1, is put last for {@link #FAILURE_BACKOFF} millis.
+ */
+public class MirrorGroup {
+
+    public static final int PROBE_INTERVAL = 20;
+    public static final long FAILURE_BACKOFF = 60 * 1000L;
+    // weight of the latest download in the throughput average
+    private static final double WEIGHT = 0.3;
+
+    private final List<CmrRepository> mirrors;
+    private final List<Stats> stats;
+    private final AtomicLong lookups = new AtomicLong();
+
+    private static class Stats {
+        private volatile double throughput; // bytes per second, 0 if unknown
+        private volatile long failedUntil;
+    }
+
+    public MirrorGroup(List<CmrRepository> mirrors) {
+        if (mirrors == null)
+            throw new IllegalArgumentException("Null mirrors!");
+        if (mirrors.isEmpty())
+            throw new IllegalArgumentException("Empty mirror group!");
+        this.mirrors = Collections.unmodifiableList(new ArrayList<>(mirrors));
+        this.stats = new ArrayList<>(mirrors.size());
+        for (int i = 0; i < mirrors.size(); i++)
+            stats.add(new Stats());
+    }
+
+    public List<CmrRepository> getMirrors() {
+        return mirrors;
+    }
+
+    public boolean contains(CmrRepository repository) {
+        return mirrors.contains(repository);
+    }
+
+    /**
+     * @return the measured throughput of the mirror, in bytes per second; 0 if we have none yet
+     */
+    public double getThroughput(CmrRepository mirror) {
+        final int index = mirrors.indexOf(mirror);
+        return index >= 0 ? stats.get(index).throughput : 0;
+    }
+
+    /**
+     * Record a completed download.
+     *
+     * @param mirror the mirror we downloaded from
+     * @param bytes how much
+     * @param nanos how long it took
+     */
+    public void downloaded(CmrRepository mirror, long bytes, long nanos) {
+        final int index = mirrors.indexOf(mirror);
+        if (index < 0 || nanos <= 0)
+            return;
+        final Stats s = stats.get(index);
+        final double latest = bytes * 1e9 / nanos;
+        final double previous = s.throughput;
+        s.throughput = previous == 0 ? latest : previous + WEIGHT * (latest - previous);
+        s.failedUntil = 0;
+    }
+
+    /**
+     * Record a failed download, or one with a bad SHA-1.
+     *
+     * @param mirror the mirror we downloaded from
+     */
+    public void failed(CmrRepository mirror) {
+        final int index = mirrors.indexOf(mirror);
+        if (index >= 0)
+            stats.get(index).failedUntil = System.currentTimeMillis() + FAILURE_BACKOFF;
+    }
+
+    /**
+     * Order the mirrors for a lookup, best first.
+     *
+     * @param repositories the repositories we may use, the group's mirrors not among them are left out
+     * @return the mirrors to try, in order
+     */
+    public List<CmrRepository> order(List<CmrRepository> repositories) {
+        final long now = System.currentTimeMillis();
+        final List<CmrRepository> healthy = new ArrayList<>(mirrors.size());
+        final List<CmrRepository> failed = new ArrayList<>();
+        for (int i = 0; i < mirrors.size(); i++) {
+            final CmrRepository mirror = mirrors.get(i);
+            if (repositories.contains(mirror) == false)
+                continue;
+            if (stats.get(i).failedUntil > now)
+                failed.add(mirror);
+            else
+                healthy.add(mirror);
+        }
+        // stable: unmeasured mirrors keep their declared order, ahead of the measured ones
+        Collections.sort(healthy, new Comparator<CmrRepository>() {
+            public int compare(CmrRepository m1, CmrRepository m2) {
+                final double t1 = getThroughput(m1);
+                final double t2 = getThroughput(m2);
+                if (t1 == 0 || t2 == 0)
+                    return t1 == t2 ? 0 : (t1 == 0 ? -1 : 1);
+                return Double.compare(t2, t1);
+            }
+        });
+        if (healthy.size() > 1 && lookups.incrementAndGet() % PROBE_INTERVAL == 0)
+            Collections.swap(healthy, 0, 1);
+        healthy.addAll(failed);
+        return healthy;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("MirrorGroup[");
+        for (int i = 0; i < mirrors.size(); i++) {
+            if (i > 0)
+                builder.append(", ");
+            builder.append(mirrors.get(i).getDisplayString()).append(" (").append((long) stats.get(i).throughput).append(" B/s)");
+        }
+        return builder.append("]").toString();
+    }
+}
@@ -17,6 +17,7 @@
 
 package com.redhat.ceylon.cmr.impl;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -27,6 +28,8 @@ import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.redhat.ceylon.cmr.spi.ContentHandle;
 import com.redhat.ceylon.cmr.spi.ContentOptions;
@@ -43,25 +46,120 @@ import com.redhat.ceylon.common.log.Logger;
  */
 public class RemoteContentStore extends URLContentStore {
 
+    private static final long METADATA_TTL = 5 * 60 * 1000L;
+    private static final int MAX_CACHED_METADATA = 1000;
+
+    private final ConcurrentMap<String, CachedMetadata> metadataCache = new ConcurrentHashMap<>();
+
     public RemoteContentStore(String root, Logger log, boolean offline, int timeout, Proxy proxy) {
         super(root, log, offline, timeout, proxy);
     }
 
-    protected SizedInputStream openSizedStream(final URL url) throws IOException {
-        if (connectionAllowed()) {
-            final URLConnection conn;
-            if (proxy != null) {
-                conn = url.openConnection(proxy);
+    /**
+     * Get an artifact's maven-metadata.xml.
+     * It's fetched once, then revalidated with a conditional request
+     * when it's older than a few minutes.
+     *
+     * @param groupId the group id
+     * @param artifactId the artifact id
+     * @return the metadata, or null if there is none
+     */
+    public MavenMetadata getMavenMetadata(String groupId, String artifactId) throws IOException {
+        final String path = SEPARATOR + groupId.replace('.', '/') + SEPARATOR + artifactId + SEPARATOR + MavenMetadata.FILE_NAME;
+        final CachedMetadata cached = metadataCache.get(path);
+        final long now = System.currentTimeMillis();
+        if (cached != null && (cached.expires > now || connectionAllowed() == false))
+            return cached.metadata;
+        if (connectionAllowed() == false)
+            return null;
+
+        final URL url = getURL(path);
+        if (url == null)
+            return null;
+        final URLConnection conn = (proxy != null) ? url.openConnection(proxy) : url.openConnection();
+        if (conn instanceof HttpURLConnection == false)
+            return null;
+        final HttpURLConnection huc = (HttpURLConnection) conn;
+        final Closeable registration = cancellable(huc);
+        huc.setConnectTimeout(timeout);
+        huc.setReadTimeout(timeout * Constants.READ_TIMEOUT_MULTIPLIER);
+        if (cached != null) {
+            if (cached.etag != null)
+                huc.setRequestProperty("If-None-Match", cached.etag);
+            if (cached.lastModified > 0)
+                huc.setIfModifiedSince(cached.lastModified);
+        }
+        try {
+            addCredentials(huc);
+            final int code = responseCode(huc);
+            log.debug("Got " + code + " for url: " + url);
+            CachedMetadata fresh;
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                fresh = new CachedMetadata(cached.metadata, cached.etag, cached.lastModified, now + METADATA_TTL);
+            } else if (code == HttpURLConnection.HTTP_OK) {
+                try (InputStream stream = huc.getInputStream()) {
+                    fresh = new CachedMetadata(MavenMetadata.parse(stream), huc.getHeaderField("ETag"), huc.getLastModified(), now + METADATA_TTL);
+                }
+            } else if (code == HttpURLConnection.HTTP_NOT_FOUND) {
+                // remember it's not there either
+                fresh = new CachedMetadata(null, null, -1, now + METADATA_TTL);
             } else {
-                conn = url.openConnection();
+                log.info("Got " + code + " for url: " + url);
+                return cached != null ? cached.metadata : null;
             }
-            if (conn instanceof HttpURLConnection) {
-                HttpURLConnection huc = (HttpURLConnection) conn;
-                huc.setConnectTimeout(timeout);
-                huc.setReadTimeout(timeout * Constants.READ_TIMEOUT_MULTIPLIER);
-                addCredentials(huc);
+            if (metadataCache.size() >= MAX_CACHED_METADATA)
+                metadataCache.clear();
+            metadataCache.put(path, fresh);
+            return fresh.metadata;
+        } catch (SocketTimeoutException timeoutException) {
+            SocketTimeoutException newException = new SocketTimeoutException("Timed out during connection to " + url);
+            newException.initCause(timeoutException);
+            throw newException;
+        } finally {
+            huc.disconnect();
+            IOUtils.safeClose(registration);
+        }
+    }
+
+    /**
+     * Open a connection, which the caller registers with {@link #cancellable(HttpURLConnection)}.
+     */
+    private HttpURLConnection openHttpConnection(final URL url) throws IOException {
+        final URLConnection conn;
+        if (proxy != null) {
+            conn = url.openConnection(proxy);
+        } else {
+            conn = url.openConnection();
+        }
+        if (conn instanceof HttpURLConnection == false)
+            return null;
+        HttpURLConnection huc = (HttpURLConnection) conn;
+        huc.setConnectTimeout(timeout);
+        huc.setReadTimeout(timeout * Constants.READ_TIMEOUT_MULTIPLIER);
+        return huc;
+    }
+
+    /**
+     * @return what identifies this version of the content for an <code>If-Range</code>,
+     * its strong ETag or else its last modification date; null if there is none
+     */
+    private static String getValidator(HttpURLConnection huc) {
+        final String etag = huc.getHeaderField("ETag");
+        if (etag != null && etag.startsWith("W/") == false)
+            return etag;
+        return huc.getHeaderField("Last-Modified");
+    }
+
+    protected SizedInputStream openSizedStream(final URL url) throws IOException {
+        if (connectionAllowed()) {
+            final HttpURLConnection huc = openHttpConnection(url);
+            if (huc != null) {
+                final Closeable registration = cancellable(huc);
+                boolean streaming = false;
                 try{
-                    InputStream stream = conn.getInputStream();
+                    addCredentials(huc);
+                    responseCode(huc);
+                    InputStream stream = huc.getInputStream();
                     int code = huc.getResponseCode();
                     if (code != -1 && code != 200) {
                         log.info("Got " + code + " for url: " + url);
@@ -69,11 +167,16 @@ public class RemoteContentStore extends URLContentStore {
                     }
                     log.debug("Got " + code + " for url: " + url);
                     long contentLength = huc.getContentLengthLong();
-                    return new SizedInputStream(stream, contentLength);
+                    streaming = true;
+                    return new SizedInputStream(new HttpResumableInputStream(url, cancellable(stream, registration), contentLength, getValidator(huc)), contentLength);
                 }catch(SocketTimeoutException timeoutException){
                     SocketTimeoutException newException = new SocketTimeoutException("Timed out during connection to "+url);
                     newException.initCause(timeoutException);
                     throw newException;
+                }finally{
+                    // the stream unregisters when it is closed
+                    if (streaming == false)
+                        IOUtils.safeClose(registration);
                 }
             }
         }
@@ -168,6 +271,62 @@ public class RemoteContentStore extends URLContentStore {
         }
     }
 
+    /**
+     * Resumes with a <code>Range</code> request, if the content is still the same.
+     */
+    private class HttpResumableInputStream extends ResumableInputStream {
+        private final URL url;
+
+        private HttpResumableInputStream(URL url, InputStream stream, long length, String validator) {
+            super(stream, length, validator);
+            this.url = url;
+        }
+
+        protected InputStream openFrom(long offset, String validator) throws IOException {
+            if (connectionAllowed() == false)
+                return null;
+            final HttpURLConnection huc = openHttpConnection(url);
+            if (huc == null)
+                return null;
+            final Closeable registration = cancellable(huc);
+            boolean streaming = false;
+            try {
+                huc.setRequestProperty("Range", "bytes=" + offset + "-");
+                huc.setRequestProperty("If-Range", validator);
+                addCredentials(huc);
+                final int code = responseCode(huc);
+                final String range = huc.getHeaderField("Content-Range");
+                // a 200 means it changed, or ranges are not supported
+                if (code == HttpURLConnection.HTTP_PARTIAL && range != null && range.startsWith("bytes " + offset + "-")) {
+                    log.debug("Resuming " + url + " from byte " + offset);
+                    final InputStream stream = cancellable(huc.getInputStream(), registration);
+                    streaming = true;
+                    return stream;
+                }
+                log.debug("Got " + code + " instead of a range for url: " + url);
+                huc.disconnect();
+                return null;
+            } finally {
+                if (streaming == false)
+                    IOUtils.safeClose(registration);
+            }
+        }
+    }
+
+    private static class CachedMetadata {
+        private final MavenMetadata metadata;
+        private final String etag;
+        private final long lastModified;
+        private final long expires;
+
+        private CachedMetadata(MavenMetadata metadata, String etag, long lastModified, long expires) {
+            this.metadata = metadata;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expires = expires;
+        }
+    }
+
     private static class ImmutableRemoteNode extends RemoteNode {
         private ImmutableRemoteNode(String label) {
             super(label);
@@ -19,6 +19,7 @@ package com.redhat.ceylon.cmr.impl;
 
 import java.io.File;
 import java.net.Proxy;
+import java.util.Arrays;
 import java.util.List;
 
 import com.redhat.ceylon.cmr.api.CmrRepository;
@@ -26,6 +27,7 @@ import com.redhat.ceylon.cmr.api.Overrides;
 import com.redhat.ceylon.cmr.api.RepositoryBuilder;
 import com.redhat.ceylon.cmr.api.RepositoryManager;
 import com.redhat.ceylon.cmr.api.RepositoryManagerBuilder;
+import com.redhat.ceylon.cmr.api.ResolutionMonitor;
 import com.redhat.ceylon.cmr.spi.ContentTransformer;
 import com.redhat.ceylon.cmr.spi.MergeStrategy;
 import com.redhat.ceylon.cmr.spi.OpenNode;
@@ -94,6 +96,16 @@ public class RepositoryManagerBuilderImpl extends RepositoryManagerBuilder {
         return this;
     }
 
+    public RepositoryManagerBuilderImpl resolutionMonitor(ResolutionMonitor monitor) {
+        repository.setResolutionMonitor(monitor);
+        return this;
+    }
+
+    public RepositoryManagerBuilderImpl contentAddressedStore(File blobs) {
+        repository.setContentAddressedStore(blobs != null ? new ContentAddressedStore(blobs) : null);
+        return this;
+    }
+
     protected RepositoryManagerBuilderImpl addExternalRoot(OpenNode externalRoot) {
         repository.addRepository(new DefaultRepository(externalRoot));
         return this;
@@ -104,6 +116,13 @@ public class RepositoryManagerBuilderImpl extends RepositoryManagerBuilder {
         return this;
     }
 
+    public RepositoryManagerBuilderImpl addMirrorGroup(CmrRepository... mirrors) {
+        if (mirrors == null)
+            throw new IllegalArgumentException("Null mirrors!");
+        repository.addMirrorGroup(new MirrorGroup(Arrays.asList(mirrors)));
+        return this;
+    }
+
     public List<String> getRepositoriesDisplayString() {
         return repository.getRepositoriesDisplayString();
     }
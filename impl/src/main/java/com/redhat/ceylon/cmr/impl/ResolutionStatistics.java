@@ -0,0 +1,308 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.ceylon.cmr.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.redhat.ceylon.cmr.api.ArtifactContext;
+import com.redhat.ceylon.cmr.api.CmrRepository;
+import com.redhat.ceylon.cmr.api.ResolutionMonitor;
+import com.redhat.ceylon.cmr.spi.Node;
+
+/**
+ * Resolution monitor collecting per repository counters and latencies.
+ * Can be exported over JMX, or dumped as text.
+ */
+public class ResolutionStatistics implements ResolutionMonitor, ResolutionStatisticsMBean {
+
+    public static final String DEFAULT_OBJECT_NAME = "com.redhat.ceylon.cmr:type=ResolutionStatistics";
+
+    private final ConcurrentMap<String, RepositoryStatistics> repositories = new ConcurrentHashMap<>();
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong notFound = new AtomicLong();
+    private final AtomicLong localHits = new AtomicLong();
+    private final AtomicLong shaChecks = new AtomicLong();
+    private final AtomicLong shaFailures = new AtomicLong();
+    private final LatencyHistogram sha = new LatencyHistogram();
+
+    /**
+     * Per repository statistics.
+     */
+    public static class RepositoryStatistics {
+        private final String name;
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final LatencyHistogram findParent = new LatencyHistogram();
+        private final LatencyHistogram getChild = new LatencyHistogram();
+        private final LatencyHistogram download = new LatencyHistogram();
+
+        private RepositoryStatistics(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getHits() {
+            return hits.get();
+        }
+
+        public long getMisses() {
+            return misses.get();
+        }
+
+        public long getSkipped() {
+            return skipped.get();
+        }
+
+        public long getBytesDownloaded() {
+            return bytes.get();
+        }
+
+        public LatencyHistogram getFindParentLatency() {
+            return findParent;
+        }
+
+        public LatencyHistogram getChildLatency() {
+            return getChild;
+        }
+
+        public LatencyHistogram getDownloadLatency() {
+            return download;
+        }
+
+        void reset() {
+            hits.set(0);
+            misses.set(0);
+            skipped.set(0);
+            bytes.set(0);
+            findParent.reset();
+            getChild.reset();
+            download.reset();
+        }
+
+        @Override
+        public String toString() {
+            return name + ": hits=" + hits + " misses=" + misses + " skipped=" + skipped + " bytes=" + bytes
+                    + "\n    findParent " + findParent
+                    + "\n    getChild   " + getChild
+                    + "\n    download   " + download;
+        }
+    }
+
+    private RepositoryStatistics stats(CmrRepository repository) {
+        final String name = (repository != null) ? repository.getDisplayString() : NodeUtils.UNKNOWN_REPOSITORY;
+        RepositoryStatistics stats = repositories.get(name);
+        if (stats == null) {
+            stats = new RepositoryStatistics(name);
+            final RepositoryStatistics previous = repositories.putIfAbsent(name, stats);
+            if (previous != null)
+                stats = previous;
+        }
+        return stats;
+    }
+
+    public RepositoryStatistics getRepositoryStatistics(CmrRepository repository) {
+        return stats(repository);
+    }
+
+    public Collection<RepositoryStatistics> getRepositoryStatistics() {
+        return repositories.values();
+    }
+
+    @Override
+    public void lookup(ArtifactContext context) {
+        lookups.incrementAndGet();
+    }
+
+    @Override
+    public void skipped(CmrRepository repository, ArtifactContext context) {
+        stats(repository).skipped.incrementAndGet();
+    }
+
+    @Override
+    public void trying(CmrRepository repository, ArtifactContext context) {
+    }
+
+    @Override
+    public void found(CmrRepository repository, ArtifactContext context, Node node, long parentNanos, long childNanos) {
+        final RepositoryStatistics stats = stats(repository);
+        stats.hits.incrementAndGet();
+        stats.findParent.record(parentNanos);
+        stats.getChild.record(childNanos);
+        if (node.isRemote() == false)
+            localHits.incrementAndGet();
+    }
+
+    @Override
+    public void notFound(CmrRepository repository, ArtifactContext context, long parentNanos, long childNanos) {
+        final RepositoryStatistics stats = stats(repository);
+        stats.misses.incrementAndGet();
+        stats.findParent.record(parentNanos);
+        if (childNanos > 0)
+            stats.getChild.record(childNanos);
+    }
+
+    @Override
+    public void notFound(ArtifactContext context) {
+        notFound.incrementAndGet();
+    }
+
+    @Override
+    public void caching(ArtifactContext context, Node node) {
+    }
+
+    @Override
+    public void storing(ArtifactContext context, Node node, String store) {
+    }
+
+    @Override
+    public void downloaded(CmrRepository repository, ArtifactContext context, long bytes, long nanos) {
+        final RepositoryStatistics stats = stats(repository);
+        stats.bytes.addAndGet(bytes);
+        stats.download.record(nanos);
+    }
+
+    @Override
+    public void shaChecked(ArtifactContext context, Boolean valid, long nanos) {
+        shaChecks.incrementAndGet();
+        if (valid != null && valid == false)
+            shaFailures.incrementAndGet();
+        sha.record(nanos);
+    }
+
+    @Override
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    @Override
+    public long getNotFound() {
+        return notFound.get();
+    }
+
+    @Override
+    public long getLocalHits() {
+        return localHits.get();
+    }
+
+    @Override
+    public long getDownloads() {
+        long downloads = 0;
+        for (RepositoryStatistics stats : repositories.values())
+            downloads += stats.download.getCount();
+        return downloads;
+    }
+
+    @Override
+    public double getCacheHitRatio() {
+        final long local = getLocalHits();
+        final long total = local + getDownloads();
+        return (total == 0) ? 0.0 : (double) local / total;
+    }
+
+    @Override
+    public long getBytesDownloaded() {
+        long bytes = 0;
+        for (RepositoryStatistics stats : repositories.values())
+            bytes += stats.bytes.get();
+        return bytes;
+    }
+
+    @Override
+    public long getShaChecks() {
+        return shaChecks.get();
+    }
+
+    @Override
+    public long getShaNanos() {
+        return sha.getTotalNanos();
+    }
+
+    @Override
+    public String[] getRepositorySummaries() {
+        final List<String> summaries = new ArrayList<>();
+        for (RepositoryStatistics stats : repositories.values())
+            summaries.add(stats.toString());
+        return summaries.toArray(new String[summaries.size()]);
+    }
+
+    @Override
+    public String dump() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("Lookups: ").append(getLookups())
+                .append(", not found: ").append(getNotFound())
+                .append(", local hits: ").append(getLocalHits())
+                .append(", downloads: ").append(getDownloads())
+                .append(String.format(", cache hit ratio: %.2f", getCacheHitRatio()))
+                .append(", bytes downloaded: ").append(getBytesDownloaded()).append('\n');
+        builder.append("SHA1 checks: ").append(getShaChecks())
+                .append(", failures: ").append(shaFailures.get())
+                .append(", ").append(sha).append('\n');
+        for (String summary : getRepositorySummaries())
+            builder.append("  ").append(summary).append('\n');
+        return builder.toString();
+    }
+
+    @Override
+    public void reset() {
+        lookups.set(0);
+        notFound.set(0);
+        localHits.set(0);
+        shaChecks.set(0);
+        shaFailures.set(0);
+        sha.reset();
+        for (RepositoryStatistics stats : repositories.values())
+            stats.reset();
+    }
+
+    /**
+     * Register with the platform MBean server, under the default name.
+     *
+     * @return the name we registered under
+     * @throws Exception for any JMX error
+     */
+    public ObjectName register() throws Exception {
+        return register(DEFAULT_OBJECT_NAME);
+    }
+
+    public ObjectName register(String name) throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName objectName = new ObjectName(name);
+        if (server.isRegistered(objectName))
+            server.unregisterMBean(objectName);
+        server.registerMBean(this, objectName);
+        return objectName;
+    }
+
+    @Override
+    public String toString() {
+        return dump();
+    }
+}
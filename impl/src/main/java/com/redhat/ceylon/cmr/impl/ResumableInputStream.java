@@ -0,0 +1,145 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.cmr.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+
+import com.redhat.ceylon.cmr.api.Cancellation;
+
+/**
+ * A remote content stream which can continue from an offset, e.g. with an HTTP <code>Range</code> request.
+ * <p/>
+ * When a read fails it reopens the content where it broke off, a few times, as long as the content
+ * hasn't changed meanwhile (see {@link #getValidator()}). {@link FileContentStore} also uses
+ * {@link #resumeFrom(long)} to continue a partial file left by an earlier attempt.
+ */
+public abstract class ResumableInputStream extends InputStream {
+
+    private static final int MAX_RESUMES = 3;
+
+    private final long length;
+    private final String validator;
+    private InputStream stream;
+    private long position;
+    private int resumes;
+
+    /**
+     * @param stream the content from its start
+     * @param length the content's length, -1 if unknown
+     * @param validator identifies this version of the content, e.g. its ETag; null if it cannot be resumed
+     */
+    protected ResumableInputStream(InputStream stream, long length, String validator) {
+        if (stream == null)
+            throw new IllegalArgumentException("Null stream!");
+        this.stream = stream;
+        this.length = length;
+        this.validator = validator;
+    }
+
+    /**
+     * Open the content from the offset.
+     *
+     * @return the content from the offset, or null if it changed or that is not supported
+     */
+    protected abstract InputStream openFrom(long offset, String validator) throws IOException;
+
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return what identifies this version of the content, or null if it cannot be resumed
+     */
+    public String getValidator() {
+        return validator;
+    }
+
+    /**
+     * @return how far we are into the content
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Continue from the offset instead of the current position.
+     *
+     * @return true if we did, false if we stay where we are
+     */
+    public boolean resumeFrom(long offset) throws IOException {
+        if (validator == null || offset < 0 || (length >= 0 && offset > length))
+            return false;
+        final InputStream from = openFrom(offset, validator);
+        if (from == null)
+            return false;
+        IOUtils.safeClose(stream);
+        stream = from;
+        position = offset;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] b = new byte[1];
+        final int n = read(b, 0, 1);
+        return n == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        while (true) {
+            try {
+                final int n = stream.read(b, off, len);
+                if (n > 0)
+                    position += n;
+                else if (n == -1 && length >= 0 && position < length)
+                    throw new IOException("Premature end of content: " + position + " of " + length + " bytes");
+                return n;
+            } catch (InterruptedIOException e) {
+                if (e instanceof SocketTimeoutException == false)
+                    throw e;
+                resume(e);
+            } catch (IOException e) {
+                resume(e);
+            }
+        }
+    }
+
+    private void resume(IOException cause) throws IOException {
+        // cancelled lookups stay cancelled
+        Cancellation.check();
+        if (resumes++ >= MAX_RESUMES || Thread.currentThread().isInterrupted())
+            throw cause;
+        final boolean resumed;
+        try {
+            resumed = resumeFrom(position);
+        } catch (IOException e) {
+            throw cause;
+        }
+        if (resumed == false)
+            throw cause;
+    }
+
+    @Override
+    public void close() throws IOException {
+        stream.close();
+    }
+}
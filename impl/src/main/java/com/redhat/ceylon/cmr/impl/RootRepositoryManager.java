@@ -23,13 +23,17 @@ import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.redhat.ceylon.cmr.api.ArtifactCallback;
 import com.redhat.ceylon.cmr.api.ArtifactCallbackStream;
 import com.redhat.ceylon.cmr.api.ArtifactContext;
 import com.redhat.ceylon.cmr.api.CmrRepository;
 import com.redhat.ceylon.cmr.api.Overrides;
+import com.redhat.ceylon.cmr.api.ScheduledArtifactCallback;
+import com.redhat.ceylon.cmr.spi.ContentHandle;
 import com.redhat.ceylon.cmr.spi.ContentStore;
 import com.redhat.ceylon.cmr.spi.Node;
 import com.redhat.ceylon.cmr.spi.OpenNode;
@@ -46,6 +50,8 @@ import com.redhat.ceylon.model.cmr.RepositoryException;
  */
 public class RootRepositoryManager extends AbstractNodeRepositoryManager {
     private final FileContentStore fileContentStore;
+    private final List<FileContentStoreWatcher> watchers = new CopyOnWriteArrayList<>();
+    private volatile TransferScheduler transfers = TransferScheduler.getDefault();
 
     private static File getRootDir() {
         com.redhat.ceylon.common.config.Repositories.Repository rootRepo = Repositories.get().getCacheRepository();
@@ -73,37 +79,37 @@ public class RootRepositoryManager extends AbstractNodeRepositoryManager {
         }
     }
 
+    /**
+     * Deduplicate the cache's content through the blob store, see {@link ContentAddressedStore}.
+     */
+    public void setContentAddressedStore(ContentAddressedStore blobs) {
+        if (fileContentStore != null)
+            fileContentStore.setContentAddressedStore(blobs);
+    }
+
+    /**
+     * Use another scheduler than the shared {@link TransferScheduler#getDefault() default} one for downloads.
+     */
+    public void setTransferScheduler(TransferScheduler transfers) {
+        if (transfers == null)
+            throw new IllegalArgumentException("Null transfer scheduler!");
+        this.transfers = transfers;
+    }
+
+    public TransferScheduler getTransferScheduler() {
+        return transfers;
+    }
+
     @Override
     protected ArtifactResult getArtifactResult(ArtifactContext context, Node node) throws RepositoryException {
         if (node.isRemote()) {
             final boolean forceOp = context.isForceOperation();
             try {
                 context.setForceOperation(true); // just force the ops
-                log.debug("Looking up artifact " + context + " from " + node + " to cache it");
-                SizedInputStream sizedInputStream = node.getSizedInputStream();
-                // temp fix for https://github.com/ceylon/ceylon-module-resolver/issues/60
-                // in theory we should not have nodes with null streams, but at least provide a helpful exception
-                if (sizedInputStream == null) {
-                    throw new RepositoryException("Node " + node + " for repository " + this + " returned a null stream");
-                }
-                try {
-                    log.debug(" -> Found it, now caching it");
-                    final File file = putContent(context, node, sizedInputStream.inputStream, sizedInputStream.size);
-                    log.debug("    Caching done: " + file);
-                    String repositoryDisplayString = NodeUtils.getRepositoryDisplayString(node);
-                    File originalRepoFile = new File(file.getParentFile(), file.getName().concat(ORIGIN));                        
-                    FileWriter writer = new FileWriter(originalRepoFile, false);
-                    try {
-                        writer.write(repositoryDisplayString);
-                        writer.close();
-                    } catch(IOException e) {
-                        log.error(e.toString());
-                    }
-                    // we expect the remote nodes to support Ceylon module info
-                    return new FileArtifactResult(NodeUtils.getRepository(node), this, context.getName(), context.getVersion(), file, repositoryDisplayString);
-                } finally {
-                    IOUtils.safeClose(sizedInputStream.inputStream);
-                }
+                final MirrorGroup group = getMirrorGroup(NodeUtils.getRepository(node));
+                if (group != null)
+                    return downloadFromMirrors(group, context, node);
+                return download(context, node);
             } catch (IOException e) {
                 throw new RepositoryException(e);
             } finally {
@@ -114,6 +120,99 @@ public class RootRepositoryManager extends AbstractNodeRepositoryManager {
         }
     }
 
+    /**
+     * Download from the node's mirror, failing over to the group's other mirrors
+     * when the download fails or its content does not match the mirror's SHA-1.
+     */
+    private ArtifactResult downloadFromMirrors(MirrorGroup group, ArtifactContext context, Node node) throws IOException {
+        final List<CmrRepository> tried = new ArrayList<>();
+        while (true) {
+            final CmrRepository mirror = NodeUtils.getRepository(node);
+            tried.add(mirror);
+            try {
+                return download(context, node);
+            } catch (IOException | RepositoryException e) {
+                group.failed(mirror);
+                Node next = null;
+                for (CmrRepository other : group.order(getRepositories())) {
+                    if (tried.contains(other))
+                        continue;
+                    tried.add(other);
+                    next = fromRepository(other, context, true);
+                    if (next != null)
+                        break;
+                }
+                if (next == null)
+                    throw e;
+                log.info("Failed to download " + context + " from " + mirror.getDisplayString() + ", trying mirror " + NodeUtils.getRepository(next).getDisplayString() + ": " + e.getMessage());
+                node = next;
+            }
+        }
+    }
+
+    private ArtifactResult download(final ArtifactContext context, final Node node) throws IOException {
+        ArtifactCallback callback = context.getCallback();
+        if (callback == null) {
+            callback = ArtifactCallbackStream.getCallback();
+        }
+        TransferScheduler.Listener listener = null;
+        if (callback instanceof ScheduledArtifactCallback) {
+            final ScheduledArtifactCallback scheduled = (ScheduledArtifactCallback) callback;
+            listener = new TransferScheduler.Listener() {
+                public void waiting(int ahead) {
+                    scheduled.waiting(NodeUtils.getFullPath(node), ahead, node.getStoreDisplayString());
+                }
+            };
+        }
+        try (TransferScheduler.Slot slot = transfers.acquire(getHost(node), TransferScheduler.Priority.of(node.getLabel()), listener)) {
+            return transfer(context, node);
+        }
+    }
+
+    private static String getHost(Node node) {
+        final CmrRepository repository = NodeUtils.getRepository(node);
+        final ContentStore store = repository != null ? repository.getRoot().getService(ContentStore.class) : null;
+        if (store instanceof URLContentStore)
+            return ((URLContentStore) store).getHost();
+        return node.getStoreDisplayString();
+    }
+
+    private ArtifactResult transfer(ArtifactContext context, Node node) throws IOException {
+        monitor.caching(context, node);
+        SizedInputStream sizedInputStream = node.getSizedInputStream();
+        // temp fix for https://github.com/ceylon/ceylon-module-resolver/issues/60
+        // in theory we should not have nodes with null streams, but at least provide a helpful exception
+        if (sizedInputStream == null) {
+            throw new RepositoryException("Node " + node + " for repository " + this + " returned a null stream");
+        }
+        try {
+            final File file = putContent(context, node, sizedInputStream.inputStream, sizedInputStream.size);
+            CacheCollector.accessed(file.getParentFile());
+            String repositoryDisplayString = NodeUtils.getRepositoryDisplayString(node);
+            File originalRepoFile = new File(file.getParentFile(), file.getName().concat(ORIGIN));                        
+            FileWriter writer = new FileWriter(originalRepoFile, false);
+            try {
+                writer.write(repositoryDisplayString);
+                writer.close();
+            } catch(IOException e) {
+                log.error(e.toString());
+            }
+            // we expect the remote nodes to support Ceylon module info
+            return new FileArtifactResult(NodeUtils.getRepository(node), this, context.getName(), context.getVersion(), file, repositoryDisplayString);
+        } finally {
+            IOUtils.safeClose(sizedInputStream.inputStream);
+        }
+    }
+
+    @Override
+    protected Node getLeafNode(ArtifactContext context) {
+        final Node node = super.getLeafNode(context);
+        // a cache hit, remember it for the CacheCollector
+        if (node != null && cache != null && node.isRemote() == false && NodeUtils.getRepository(node) == cache)
+            CacheCollector.accessed(fileContentStore.getFile(node).getParentFile());
+        return node;
+    }
+
     @Override
     protected ArtifactResult artifactNotFound(ArtifactContext context) throws RepositoryException {
         boolean hasRemote = false;
@@ -167,8 +266,7 @@ public class RootRepositoryManager extends AbstractNodeRepositoryManager {
     }
 
     private File putContent(ArtifactContext context, Node node, InputStream stream, long length) throws IOException {
-        log.debug("Creating local copy of external node: " + node + " at repo: " + 
-                (fileContentStore != null ? fileContentStore.getDisplayString() : null));
+        monitor.storing(context, node, fileContentStore != null ? fileContentStore.getDisplayString() : null);
         if(fileContentStore == null)
             throw new IOException("No location to place node at: fileContentStore is null");
         
@@ -177,16 +275,29 @@ public class RootRepositoryManager extends AbstractNodeRepositoryManager {
             callback = ArtifactCallbackStream.getCallback();
         }
         final File file;
+        final long start = System.nanoTime();
         try {
             if (callback != null) {
                 callback.start(NodeUtils.getFullPath(node), length != -1 ? length : node.getSize(), node.getStoreDisplayString());
                 stream = new ArtifactCallbackStream(callback, stream);
             }
-            fileContentStore.putContent(node, stream, context); // stream should be closed closer to API call
+            final ContentHandle handle = fileContentStore.putContent(node, stream, context); // stream should be closed closer to API call
+            if (node.isRemote() == false && node instanceof DefaultNode) {
+                // drop any attributes prefetched for the previous content
+                ((DefaultNode) node).setHandle(handle);
+            }
             file = fileContentStore.getFile(node); // re-get
             if (callback != null) {
                 callback.done(file);
             }
+            if (node.isRemote()) {
+                final CmrRepository repository = NodeUtils.getRepository(node);
+                final long nanos = System.nanoTime() - start;
+                monitor.downloaded(repository, context, file.length(), nanos);
+                final MirrorGroup group = getMirrorGroup(repository);
+                if (group != null)
+                    group.downloaded(repository, file.length(), nanos);
+            }
         } catch (Throwable t) {
             if (callback != null) {
                 callback.error(fileContentStore.getFile(node), t);
@@ -200,6 +311,7 @@ public class RootRepositoryManager extends AbstractNodeRepositoryManager {
 
         if (context.isIgnoreSHA() == false && node instanceof OpenNode) {
             final OpenNode on = (OpenNode) node;
+            final long shaStart = System.nanoTime();
             final String sha1 = IOUtils.sha1(new FileInputStream(file));
             if (sha1 != null) {
                 ByteArrayInputStream shaStream = new ByteArrayInputStream(sha1.getBytes("ASCII"));
@@ -220,8 +332,10 @@ public class RootRepositoryManager extends AbstractNodeRepositoryManager {
                         } catch (Exception e) {
                             log.warning("Error removing new content: " + file);
                         }
+                        monitor.shaChecked(context, false, System.nanoTime() - shaStart);
                         throw new IOException("Bad SHA1 - file: " + sha1 + " != " + existingSha1);
                     }
+                    monitor.shaChecked(context, true, System.nanoTime() - shaStart);
                 }
                 // create empty marker node
                 OpenNode sl = ((OpenNode) parent).addNode(on.getLabel() + SHA1 + LOCAL);
@@ -326,6 +440,35 @@ public class RootRepositoryManager extends AbstractNodeRepositoryManager {
         return result;
     }
 
+    /**
+     * Watch all local file repositories, including the cache, for changes.
+     * Newly published or removed content is then seen without a full refresh.
+     *
+     * @throws IOException for any I/O error while starting the watchers
+     */
+    public synchronized void watchLocalRepositories() throws IOException {
+        if (watchers.isEmpty() == false)
+            return;
+
+        for (CmrRepository repo : getRepositories()) {
+            final OpenNode root = repo.getRoot();
+            final ContentStore cs = root.getService(ContentStore.class);
+            if (cs instanceof FileContentStore) {
+                watchers.add(((FileContentStore) cs).watch(root));
+            }
+        }
+    }
+
+    /**
+     * Stop watching local repositories.
+     */
+    public synchronized void stopWatching() {
+        for (FileContentStoreWatcher watcher : watchers) {
+            IOUtils.safeClose(watcher);
+        }
+        watchers.clear();
+    }
+
     @Override
     public String toString() {
         return "RootRepositoryManager: " + fileContentStore;
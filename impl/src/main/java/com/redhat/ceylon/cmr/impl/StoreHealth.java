@@ -0,0 +1,295 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.cmr.impl;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.redhat.ceylon.common.log.Logger;
+
+/**
+ * Circuit breaker for a remote content store.
+ * <p/>
+ * Every request the store makes is reported as a success or a failure. After
+ * {@link #FAILURE_THRESHOLD_PROPERTY} consecutive failures the store is marked {@link State#DOWN}:
+ * it makes no more requests, so its lookups are immediate misses instead of connect timeouts.
+ * Meanwhile the store is probed in the background, first after {@link #RETRY_INTERVAL_PROPERTY}
+ * millis and then less and less often, and goes back {@link State#UP} as soon as a probe succeeds.
+ * Probing stops on {@link #close()}, or once nothing but the scheduled probe refers to the store's health,
+ * so stores of discarded repository managers do not live on just to be probed.
+ */
+public class StoreHealth implements StoreHealthMBean {
+
+    public static final String FAILURE_THRESHOLD_PROPERTY = "ceylon.remote.failureThreshold";
+    public static final String RETRY_INTERVAL_PROPERTY = "ceylon.remote.retryInterval";
+    private static final int MAX_BACKOFF = 8;
+
+    public enum State {
+        UP, DOWN
+    }
+
+    private static final ScheduledThreadPoolExecutor PROBES;
+
+    static {
+        PROBES = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "CMR store probe");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        PROBES.setKeepAliveTime(30, TimeUnit.SECONDS);
+        PROBES.allowCoreThreadTimeOut(true);
+        PROBES.setRemoveOnCancelPolicy(true);
+    }
+
+    private final Object store;
+    private final Callable<Boolean> probe;
+    private final Logger log;
+    private volatile int threshold = Integer.getInteger(FAILURE_THRESHOLD_PROPERTY, 3);
+    private volatile long retryInterval = Long.getLong(RETRY_INTERVAL_PROPERTY, 30 * 1000L);
+
+    private volatile State state = State.UP;
+    private volatile String lastFailure;
+    private int backoff; // guarded by this
+    private ScheduledFuture<?> pending; // guarded by this
+    private boolean closed; // guarded by this
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong successes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong fastMisses = new AtomicLong();
+    private final AtomicLong trips = new AtomicLong();
+    private final AtomicLong probes = new AtomicLong();
+
+    /**
+     * @param store the store, for messages
+     * @param probe checks whether the store is reachable again
+     * @param log the log
+     */
+    public StoreHealth(Object store, Callable<Boolean> probe, Logger log) {
+        if (probe == null)
+            throw new IllegalArgumentException("Null probe!");
+        this.store = store;
+        this.probe = probe;
+        this.log = log;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public String getStateName() {
+        return state.name();
+    }
+
+    /**
+     * Can the store make requests? Counts a fast miss if it cannot.
+     */
+    public boolean isAvailable() {
+        if (state == State.UP)
+            return true;
+        fastMisses.incrementAndGet();
+        return false;
+    }
+
+    public boolean isDown() {
+        return state == State.DOWN;
+    }
+
+    public void setFailureThreshold(int threshold) {
+        if (threshold < 1)
+            throw new IllegalArgumentException("Failure threshold must be positive: " + threshold);
+        this.threshold = threshold;
+    }
+
+    public void setRetryInterval(long retryInterval) {
+        if (retryInterval <= 0)
+            throw new IllegalArgumentException("Retry interval must be positive: " + retryInterval);
+        this.retryInterval = retryInterval;
+    }
+
+    public void success() {
+        successes.incrementAndGet();
+        consecutiveFailures.set(0);
+    }
+
+    /**
+     * Report an HTTP response: server errors are failures, anything else means the store is fine.
+     */
+    public void response(int code) {
+        if (code >= 500)
+            failure("HTTP " + code);
+        else
+            success();
+    }
+
+    public void failure(Throwable cause) {
+        failure(String.valueOf(cause));
+    }
+
+    public void failure(String cause) {
+        failures.incrementAndGet();
+        lastFailure = cause;
+        if (consecutiveFailures.incrementAndGet() >= threshold)
+            trip();
+    }
+
+    private synchronized void trip() {
+        if (state == State.DOWN)
+            return;
+        state = State.DOWN;
+        backoff = 1;
+        trips.incrementAndGet();
+        if (log != null)
+            log.warning("Repository " + store + " is unreachable, skipping it until it answers again (" + lastFailure + ")");
+        scheduleProbe();
+    }
+
+    private synchronized void scheduleProbe() {
+        if (closed)
+            return;
+        pending = PROBES.schedule(new Probe(this), retryInterval * backoff, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs the probe unless the health, and so its store, is gone meanwhile.
+     */
+    private static final class Probe implements Runnable {
+        private final WeakReference<StoreHealth> health;
+
+        private Probe(StoreHealth health) {
+            this.health = new WeakReference<>(health);
+        }
+
+        public void run() {
+            final StoreHealth health = this.health.get();
+            if (health != null)
+                health.runProbe();
+        }
+    }
+
+    private void runProbe() {
+        synchronized (this) {
+            if (closed)
+                return;
+        }
+        probes.incrementAndGet();
+        boolean up;
+        try {
+            up = Boolean.TRUE.equals(probe.call());
+        } catch (Exception e) {
+            lastFailure = String.valueOf(e);
+            up = false;
+        }
+        synchronized (this) {
+            pending = null;
+            if (closed || state != State.DOWN)
+                return;
+            if (up) {
+                consecutiveFailures.set(0);
+                state = State.UP;
+                if (log != null)
+                    log.info("Repository " + store + " is reachable again");
+            } else {
+                backoff = Math.min(backoff * 2, MAX_BACKOFF);
+                scheduleProbe();
+            }
+        }
+    }
+
+    /**
+     * Stop probing, e.g. when the store is no longer used; a store which is down stays down.
+     */
+    public synchronized void close() {
+        closed = true;
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    public long getSuccesses() {
+        return successes.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getFastMisses() {
+        return fastMisses.get();
+    }
+
+    public long getTrips() {
+        return trips.get();
+    }
+
+    public long getProbes() {
+        return probes.get();
+    }
+
+    public String getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Reset the counters; a store which is down stays down until a probe succeeds.
+     */
+    public void reset() {
+        successes.set(0);
+        failures.set(0);
+        fastMisses.set(0);
+        trips.set(0);
+        probes.set(0);
+    }
+
+    /**
+     * Register with the platform MBean server.
+     *
+     * @param name the object name
+     * @return the name we registered under
+     * @throws Exception for any JMX error
+     */
+    public ObjectName register(String name) throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName objectName = new ObjectName(name);
+        if (server.isRegistered(objectName))
+            server.unregisterMBean(objectName);
+        server.registerMBean(this, objectName);
+        return objectName;
+    }
+
+    @Override
+    public String toString() {
+        return "StoreHealth[" + store + ": " + state + ", failures=" + failures + ", fastMisses=" + fastMisses + ", trips=" + trips + "]";
+    }
+}
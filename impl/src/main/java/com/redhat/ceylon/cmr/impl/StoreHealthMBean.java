@@ -0,0 +1,42 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.cmr.impl;
+
+/**
+ * JMX view of a content store's health.
+ */
+public interface StoreHealthMBean {
+
+    String getStateName();
+
+    int getConsecutiveFailures();
+
+    long getSuccesses();
+
+    long getFailures();
+
+    long getFastMisses();
+
+    long getTrips();
+
+    long getProbes();
+
+    String getLastFailure();
+
+    void reset();
+}
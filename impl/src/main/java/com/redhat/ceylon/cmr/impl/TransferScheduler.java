@@ -0,0 +1,345 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.cmr.impl;
+
+import java.io.Closeable;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.redhat.ceylon.cmr.api.ArtifactContext;
+import com.redhat.ceylon.cmr.api.Cancellation;
+
+/**
+ * Limits how many downloads run at once, overall and per host, and decides which waiting download goes next.
+ * <p/>
+ * A download first {@link #acquire}s a slot, and {@link Slot#close}s it when done. When no slot is free,
+ * it waits, and freed slots go to the waiting download of the highest {@link Priority} whose host has
+ * room, the one which waited longest among equals. So compiler inputs are not stuck behind sources and
+ * docs, and one slow host cannot take all slots. A thread which already holds a slot gets nested ones
+ * right away; those hold nothing, only closing the outermost slot frees it, whatever the order or thread.
+ * <p/>
+ * All repository managers share the {@link #getDefault() default} scheduler, sized by the
+ * {@link #MAX_TRANSFERS_PROPERTY} and {@link #MAX_TRANSFERS_PER_HOST_PROPERTY} system properties.
+ * Aether resolutions take their slots from it too; as Aether picks the Maven repository itself,
+ * they count against a single host per Maven settings file.
+ */
+public class TransferScheduler {
+
+    public static final String MAX_TRANSFERS_PROPERTY = "ceylon.transfers.max";
+    public static final String MAX_TRANSFERS_PER_HOST_PROPERTY = "ceylon.transfers.maxPerHost";
+
+    /**
+     * Download priorities, most urgent first.
+     */
+    public enum Priority {
+        /** what the compiler and runtime need: binaries and module descriptors */
+        CRITICAL,
+        NORMAL,
+        /** sources, docs, scripts and resources */
+        BACKGROUND;
+
+        public static Priority of(String name) {
+            if (name == null)
+                return NORMAL;
+            if (name.endsWith(ArtifactContext.SHA1))
+                name = name.substring(0, name.length() - ArtifactContext.SHA1.length());
+            if (name.endsWith(ArtifactContext.CAR) || name.endsWith(ArtifactContext.JAR) && name.endsWith(ArtifactContext.MAVEN_SRC) == false
+                    || name.endsWith(ArtifactContext.JS) || name.endsWith(ArtifactContext.MODULE_PROPERTIES) || name.endsWith(ArtifactContext.MODULE_XML))
+                return CRITICAL;
+            if (name.endsWith(ArtifactContext.SRC) || name.endsWith(ArtifactContext.MAVEN_SRC) || name.contains(ArtifactContext.DOCS)
+                    || name.contains(ArtifactContext.RESOURCES) || name.endsWith(ArtifactContext.SCRIPTS_ZIPPED))
+                return BACKGROUND;
+            return NORMAL;
+        }
+    }
+
+    private static final TransferScheduler DEFAULT = new TransferScheduler(
+            Integer.getInteger(MAX_TRANSFERS_PROPERTY, 8),
+            Integer.getInteger(MAX_TRANSFERS_PER_HOST_PROPERTY, 4));
+
+    private final int maxTransfers;
+    private final int maxPerHost;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final List<Waiter> waiters = new ArrayList<>();
+    private final Map<String, Integer> perHost = new HashMap<>();
+    private final ThreadLocal<Slot> held = new ThreadLocal<>();
+    private int running;
+    private long sequence;
+    private long waited;
+
+    public static TransferScheduler getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param maxTransfers downloads at once
+     * @param maxPerHost downloads at once from the same host
+     */
+    public TransferScheduler(int maxTransfers, int maxPerHost) {
+        if (maxTransfers < 1 || maxPerHost < 1)
+            throw new IllegalArgumentException("Transfer limits must be positive: " + maxTransfers + ", " + maxPerHost);
+        this.maxTransfers = maxTransfers;
+        this.maxPerHost = maxPerHost;
+    }
+
+    /**
+     * A slot held by a download.
+     */
+    public final class Slot implements Closeable {
+        // null for a nested slot, which holds nothing
+        private final String host;
+        private volatile boolean closed;
+
+        private Slot(String host) {
+            this.host = host;
+        }
+
+        @Override
+        public void close() {
+            if (host != null)
+                release(this);
+            else
+                closed = true;
+        }
+    }
+
+    private static final class Waiter {
+        private final String host;
+        private final Priority priority;
+        private final long sequence;
+
+        private Waiter(String host, Priority priority, long sequence) {
+            this.host = host;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        private boolean before(Waiter other) {
+            final int p = priority.compareTo(other.priority);
+            return p < 0 || (p == 0 && sequence < other.sequence);
+        }
+    }
+
+    /**
+     * Listens to a download waiting for its slot.
+     */
+    public interface Listener {
+        /**
+         * @param ahead how many downloads are running or queued ahead of this one
+         */
+        void waiting(int ahead);
+    }
+
+    public Slot acquire(String host, Priority priority) throws InterruptedIOException {
+        return acquire(host, priority, null);
+    }
+
+    /**
+     * Get a slot for a download, waiting for one if needed.
+     *
+     * @param host the host we download from, null if unknown
+     * @param priority the download's priority
+     * @param listener told once if we have to wait, may be null
+     * @return the slot, to close when the download is done
+     * @throws InterruptedIOException if the thread is interrupted or its lookup cancelled meanwhile
+     */
+    public Slot acquire(String host, Priority priority, Listener listener) throws InterruptedIOException {
+        if (priority == null)
+            throw new IllegalArgumentException("Null priority!");
+        final String key = host != null ? host : "";
+        if (holdsSlot())
+            return new Slot(null);
+        Cancellation.check();
+        lock.lock();
+        try {
+            final Waiter waiter = new Waiter(key, priority, sequence++);
+            waiters.add(waiter);
+            try {
+                if (canRun(waiter) == false) {
+                    waited++;
+                    if (listener != null)
+                        listener.waiting(running + ahead(waiter));
+                    // wake up when the lookup is cancelled
+                    final Closeable registration = Cancellation.register(new Closeable() {
+                        public void close() {
+                            lock.lock();
+                            try {
+                                changed.signalAll();
+                            } finally {
+                                lock.unlock();
+                            }
+                        }
+                    });
+                    try {
+                        do {
+                            changed.await(1, TimeUnit.SECONDS);
+                            Cancellation.check();
+                        } while (canRun(waiter) == false);
+                    } finally {
+                        IOUtils.safeClose(registration);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a transfer slot");
+            } finally {
+                waiters.remove(waiter);
+                // someone else may be able to go now
+                changed.signalAll();
+            }
+            take(key);
+        } finally {
+            lock.unlock();
+        }
+        final Slot slot = new Slot(key);
+        held.set(slot);
+        return slot;
+    }
+
+    /**
+     * Get a slot for a download if one is free right away, e.g. for a download
+     * which is only speculative, and which another thread might be waiting for.
+     *
+     * @param host the host we download from, null if unknown
+     * @param priority the download's priority
+     * @return the slot, to close when the download is done, or null if none is free
+     */
+    public Slot tryAcquire(String host, Priority priority) {
+        if (priority == null)
+            throw new IllegalArgumentException("Null priority!");
+        final String key = host != null ? host : "";
+        if (holdsSlot())
+            return new Slot(null);
+        lock.lock();
+        try {
+            if (canRun(new Waiter(key, priority, sequence++)) == false)
+                return null;
+            take(key);
+        } finally {
+            lock.unlock();
+        }
+        final Slot slot = new Slot(key);
+        held.set(slot);
+        return slot;
+    }
+
+    /**
+     * Does this thread hold an open slot, which it may have closed on another thread.
+     */
+    private boolean holdsSlot() {
+        final Slot slot = held.get();
+        if (slot == null)
+            return false;
+        if (slot.closed == false)
+            return true;
+        held.remove();
+        return false;
+    }
+
+    private void take(String host) {
+        running++;
+        final Integer count = perHost.get(host);
+        perHost.put(host, count != null ? count + 1 : 1);
+    }
+
+    private boolean hasRoom(String host) {
+        final Integer count = perHost.get(host);
+        return count == null || count < maxPerHost;
+    }
+
+    private boolean canRun(Waiter waiter) {
+        if (running >= maxTransfers || hasRoom(waiter.host) == false)
+            return false;
+        // nobody more urgent who could run as well
+        for (Waiter other : waiters) {
+            if (other != waiter && other.before(waiter) && hasRoom(other.host))
+                return false;
+        }
+        return true;
+    }
+
+    private int ahead(Waiter waiter) {
+        int ahead = 0;
+        for (Waiter other : waiters)
+            if (other.before(waiter))
+                ahead++;
+        return ahead;
+    }
+
+    private void release(Slot slot) {
+        if (held.get() == slot)
+            held.remove();
+        lock.lock();
+        try {
+            if (slot.closed)
+                return;
+            slot.closed = true;
+            running--;
+            final Integer count = perHost.get(slot.host);
+            if (count != null && count > 1)
+                perHost.put(slot.host, count - 1);
+            else
+                perHost.remove(slot.host);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getRunning() {
+        lock.lock();
+        try {
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getWaiting() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return how many downloads had to wait for a slot so far
+     */
+    public long getWaited() {
+        lock.lock();
+        try {
+            return waited;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TransferScheduler[max=" + maxTransfers + ", maxPerHost=" + maxPerHost + ", running=" + getRunning() + ", waiting=" + getWaiting() + "]";
+    }
+}
@@ -16,11 +16,17 @@
 
 package com.redhat.ceylon.cmr.impl;
 
+import java.io.Closeable;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
 import java.net.InetAddress;
+import java.net.MalformedURLException;
 import java.net.NetworkInterface;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.net.Proxy;
 import java.net.URL;
 import java.net.URLConnection;
@@ -36,6 +42,7 @@ import java.util.TreeSet;
 import javax.xml.bind.DatatypeConverter;
 
 import com.redhat.ceylon.cmr.api.ArtifactContext;
+import com.redhat.ceylon.cmr.api.Cancellation;
 import com.redhat.ceylon.cmr.api.ModuleDependencyInfo;
 import com.redhat.ceylon.cmr.api.ModuleInfo;
 import com.redhat.ceylon.cmr.api.ModuleQuery;
@@ -102,9 +109,24 @@ public abstract class URLContentStore extends AbstractRemoteContentStore {
             throw new IllegalArgumentException("Only Herd APIs 1 to 4 are supported: requested API "+apiVersion);
     }
 
+    /**
+     * The host and port we talk to, so downloads share the {@link TransferScheduler}'s per host slots.
+     */
+    public String getHost() {
+        try {
+            return new URL(root).getAuthority();
+        } catch (MalformedURLException e) {
+            return root;
+        }
+    }
+
     @Override
     public boolean isHerd(){
         if(_isHerd == null){
+            if (!connectionAllowed()) {
+                // don't remember anything while we can't ask
+                return false;
+            }
             synchronized(this){
                 if(_isHerd == null){
                     _isHerd = testHerd();
@@ -128,11 +150,13 @@ public abstract class URLContentStore extends AbstractRemoteContentStore {
             } else {
                 con = (HttpURLConnection) rootURL.openConnection();
             }
+            Closeable registration = null;
             try{
+                registration = cancellable(con);
                 con.setConnectTimeout(timeout);
                 con.setReadTimeout(timeout * Constants.READ_TIMEOUT_MULTIPLIER);
                 con.setRequestMethod("OPTIONS");
-                if(con.getResponseCode() != HttpURLConnection.HTTP_OK)
+                if(responseCode(con) != HttpURLConnection.HTTP_OK)
                     return false;
                 String herdVersion = con.getHeaderField("X-Herd-Version");
                 log.debug("Herd version: "+herdVersion);
@@ -148,6 +172,7 @@ public abstract class URLContentStore extends AbstractRemoteContentStore {
                 return ret;
             }finally{
                 con.disconnect();
+                IOUtils.safeClose(registration);
             }
         }catch(Exception x){
             log.debug("Failed to determine if remote host is a Herd repo: "+x.getMessage());
@@ -172,7 +197,50 @@ public abstract class URLContentStore extends AbstractRemoteContentStore {
 
     
     protected boolean connectionAllowed() {
-        return !offline || rootIsLocalMachine();
+        return (!offline || rootIsLocalMachine()) && health.isAvailable();
+    }
+
+    /**
+     * Get the response code, telling our {@link StoreHealth} how the request went.
+     */
+    protected int responseCode(HttpURLConnection conn) throws IOException {
+        final int code;
+        try {
+            code = conn.getResponseCode();
+        } catch (InterruptedIOException e) {
+            // a cancelled lookup says nothing about the store, a timeout does
+            if (e instanceof SocketTimeoutException)
+                health.failure(e);
+            throw e;
+        } catch (IOException e) {
+            health.failure(e);
+            throw e;
+        }
+        health.response(code);
+        return code;
+    }
+
+    /**
+     * Any answer from the root url means the store is back.
+     */
+    @Override
+    protected boolean probe() throws IOException {
+        if (offline && !rootIsLocalMachine())
+            return false;
+        final URL url = getURL("");
+        final URLConnection conn = (proxy != null) ? url.openConnection(proxy) : url.openConnection();
+        if (conn instanceof HttpURLConnection == false)
+            return true;
+        final HttpURLConnection huc = (HttpURLConnection) conn;
+        try {
+            huc.setConnectTimeout(timeout);
+            huc.setReadTimeout(timeout * Constants.READ_TIMEOUT_MULTIPLIER);
+            huc.setRequestMethod("HEAD");
+            addCredentials(huc);
+            return huc.getResponseCode() < 500;
+        } finally {
+            huc.disconnect();
+        }
     }
     
     private boolean rootIsLocalMachine() {
@@ -287,8 +355,10 @@ public abstract class URLContentStore extends AbstractRemoteContentStore {
     @Override
     public String getDisplayString() {
         String name = root;
-        if (!connectionAllowed()) {
+        if (offline && !rootIsLocalMachine()) {
             name += " (offline)";
+        } else if (health.isDown()) {
+            name += " (unreachable)";
         }
         return name;
     }
@@ -313,12 +383,18 @@ public abstract class URLContentStore extends AbstractRemoteContentStore {
             }
             if (conn instanceof HttpURLConnection) {
                 HttpURLConnection huc = (HttpURLConnection) conn;
-                huc.setConnectTimeout(timeout);
-                huc.setReadTimeout(timeout * Constants.READ_TIMEOUT_MULTIPLIER);
-                huc.setRequestMethod("HEAD");
-                addCredentials(huc);
-                int code = huc.getResponseCode();
-                huc.disconnect();
+                final Closeable registration = cancellable(huc);
+                int code;
+                try {
+                    huc.setConnectTimeout(timeout);
+                    huc.setReadTimeout(timeout * Constants.READ_TIMEOUT_MULTIPLIER);
+                    huc.setRequestMethod("HEAD");
+                    addCredentials(huc);
+                    code = responseCode(huc);
+                } finally {
+                    huc.disconnect();
+                    IOUtils.safeClose(registration);
+                }
                 log.debug("Got " + code + " for url: " + url);
                 if (code == 200) {
                     return huc;
@@ -328,6 +404,41 @@ public abstract class URLContentStore extends AbstractRemoteContentStore {
         return null;
     }
 
+    /**
+     * Let a cancelled lookup abort this connection.
+     *
+     * @param conn the connection
+     * @return the registration, to close once we are done with the connection
+     * @throws InterruptedIOException if the lookup was already cancelled
+     */
+    protected static Closeable cancellable(final HttpURLConnection conn) throws InterruptedIOException {
+        return Cancellation.register(new Closeable() {
+            @Override
+            public void close() {
+                conn.disconnect();
+            }
+        });
+    }
+
+    /**
+     * A connection's stream which closes the connection's registration with it.
+     *
+     * @param stream the connection's stream
+     * @param registration what {@link #cancellable(HttpURLConnection)} returned
+     */
+    protected static InputStream cancellable(InputStream stream, final Closeable registration) {
+        return new FilterInputStream(stream) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    registration.close();
+                }
+            }
+        };
+    }
+
     protected void addCredentials(HttpURLConnection conn) throws IOException {
         if (username != null && password != null) {
             try {
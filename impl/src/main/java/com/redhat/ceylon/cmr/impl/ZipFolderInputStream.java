@@ -0,0 +1,159 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.cmr.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Reads a folder as a zip, the same one {@link IOUtils#zipFolder(File)} would write,
+ * produced chunk by chunk as it is read, so no temporary file is needed and memory stays bounded.
+ * The SHA-1 of the zip is computed on the way.
+ */
+public class ZipFolderInputStream extends InputStream {
+
+    private final Iterator<Entry> entries;
+    private final Buffer buffer = new Buffer();
+    private final ZipOutputStream zip = new ZipOutputStream(buffer);
+    private final MessageDigest digest;
+    private final byte[] chunk = new byte[8192];
+
+    private InputStream current;
+    private int position;
+    private boolean finished;
+    private boolean closed;
+    private String sha1;
+
+    public ZipFolderInputStream(File root) throws IOException {
+        if (root == null)
+            throw new IllegalArgumentException("Null root!");
+        if (root.isDirectory() == false)
+            throw new IOException("Zip root must be a folder");
+        final List<Entry> list = new ArrayList<>();
+        for (File f : root.listFiles())
+            collect("", f, list);
+        entries = list.iterator();
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static void collect(String path, File file, List<Entry> list) {
+        final String filePath = path.isEmpty() ? file.getName() : path + "/" + file.getName();
+        if (file.isDirectory()) {
+            for (File f : file.listFiles())
+                collect(filePath, f, list);
+        } else {
+            list.add(new Entry(filePath, file));
+        }
+    }
+
+    /**
+     * @return the SHA-1 of the whole zip, once it has been read to the end; null before
+     */
+    public String getSha1() {
+        return position == buffer.size() ? sha1 : null;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] b = new byte[1];
+        final int n = read(b, 0, 1);
+        return n == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+        if (len == 0)
+            return 0;
+        while (position == buffer.size()) {
+            if (finished)
+                return -1;
+            buffer.reset();
+            position = 0;
+            fill();
+            digest.update(buffer.array(), 0, buffer.size());
+            if (finished)
+                sha1 = IOUtils.toHexString(digest.digest());
+        }
+        final int n = Math.min(len, buffer.size() - position);
+        System.arraycopy(buffer.array(), position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    private void fill() throws IOException {
+        if (current != null) {
+            final int read = current.read(chunk);
+            if (read == -1) {
+                current.close();
+                current = null;
+                zip.closeEntry();
+            } else {
+                zip.write(chunk, 0, read);
+            }
+        } else if (entries.hasNext()) {
+            final Entry entry = entries.next();
+            zip.putNextEntry(new ZipEntry(entry.name));
+            current = new FileInputStream(entry.file);
+        } else {
+            zip.finish();
+            finished = true;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        IOUtils.safeClose(current);
+        // releases the deflater
+        IOUtils.safeClose(zip);
+    }
+
+    private static class Entry {
+        private final String name;
+        private final File file;
+
+        private Entry(String name, File file) {
+            this.name = name;
+            this.file = file;
+        }
+    }
+
+    private static class Buffer extends ByteArrayOutputStream {
+        private byte[] array() {
+            return buf;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.redhat.ceylon.cmr.util;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
@@ -17,6 +18,7 @@ import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 
+import com.redhat.ceylon.cmr.api.Cancellation;
 import com.redhat.ceylon.common.Constants;
 import com.redhat.ceylon.common.config.DefaultToolOptions;
 
@@ -127,11 +129,17 @@ public class WS {
         }
     }
 
-    public static void getXML(HttpURLConnection connection, XMLHandler handler){
+    public static void getXML(final HttpURLConnection connection, XMLHandler handler){
         try{
-            connection.addRequestProperty("Accept", "application/xml");
-            connection.connect();
+            Closeable registration = Cancellation.register(new Closeable() {
+                @Override
+                public void close() {
+                    connection.disconnect();
+                }
+            });
             try{
+                connection.addRequestProperty("Accept", "application/xml");
+                connection.connect();
                 if(connection.getResponseCode() == 200){
                     InputStream is = connection.getInputStream();
                     try{
@@ -149,6 +157,7 @@ public class WS {
                 }
             }finally{
                 connection.disconnect();
+                registration.close();
             }
         }catch(XMLStreamException x){
             throw new RuntimeException(x);
@@ -26,6 +26,7 @@ import com.redhat.ceylon.cmr.api.CmrRepository;
 import com.redhat.ceylon.cmr.api.RepositoryManager;
 import com.redhat.ceylon.cmr.impl.MavenRepository;
 import com.redhat.ceylon.cmr.impl.NodeUtils;
+import com.redhat.ceylon.cmr.impl.TransferScheduler;
 import com.redhat.ceylon.cmr.spi.Node;
 import com.redhat.ceylon.common.log.Logger;
 import com.redhat.ceylon.model.cmr.ArtifactResult;
@@ -54,6 +55,49 @@ public class AetherRepository extends MavenRepository {
         return repo;
     }
 
+    AetherUtils getUtils() {
+        return utils;
+    }
+
+    /**
+     * Resolve each artifact's whole dependency graph at once,
+     * instead of resolving its dependencies one by one.
+     *
+     * @param resolveGraph true to resolve whole graphs
+     */
+    public void setResolveGraph(boolean resolveGraph) {
+        utils.setResolveGraph(resolveGraph);
+    }
+
+    public boolean isResolveGraph() {
+        return utils.isResolveGraph();
+    }
+
+    /**
+     * Download up to this many dependencies concurrently.
+     *
+     * @param downloadThreads the number of threads, 1 downloads on demand only
+     */
+    public void setDownloadThreads(int downloadThreads) {
+        utils.setDownloadThreads(downloadThreads);
+    }
+
+    public int getDownloadThreads() {
+        return utils.getDownloadThreads();
+    }
+
+    /**
+     * Take download slots from another scheduler than the shared
+     * {@link TransferScheduler#getDefault() default} one.
+     */
+    public void setTransferScheduler(TransferScheduler transfers) {
+        utils.setTransferScheduler(transfers);
+    }
+
+    public TransferScheduler getTransferScheduler() {
+        return utils.getTransferScheduler();
+    }
+
     @Override
     public String[] getArtifactNames(ArtifactContext context) {
         String name = context.getName();
@@ -20,23 +20,33 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.URL;
 import java.security.CodeSource;
 import java.security.ProtectionDomain;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jboss.shrinkwrap.resolver.api.ResolutionException;
-import org.jboss.shrinkwrap.resolver.api.Resolvers;
 import org.jboss.shrinkwrap.resolver.api.VersionResolutionException;
-import org.jboss.shrinkwrap.resolver.api.maven.ConfigurableMavenResolverSystem;
 import org.jboss.shrinkwrap.resolver.api.maven.MavenArtifactInfo;
 import org.jboss.shrinkwrap.resolver.api.maven.MavenFormatStage;
 import org.jboss.shrinkwrap.resolver.api.maven.MavenResolvedArtifact;
@@ -44,14 +54,10 @@ import org.jboss.shrinkwrap.resolver.api.maven.MavenResolverSystem;
 import org.jboss.shrinkwrap.resolver.api.maven.MavenStrategyStage;
 import org.jboss.shrinkwrap.resolver.api.maven.MavenVersionRangeResult;
 import org.jboss.shrinkwrap.resolver.api.maven.PackagingType;
-import org.jboss.shrinkwrap.resolver.api.maven.PomEquippedResolveStage;
 import org.jboss.shrinkwrap.resolver.api.maven.ScopeType;
 import org.jboss.shrinkwrap.resolver.api.maven.coordinate.MavenCoordinate;
 import org.jboss.shrinkwrap.resolver.api.maven.coordinate.MavenCoordinates;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import org.jboss.shrinkwrap.resolver.api.maven.strategy.AcceptScopesStrategy;
 
 import com.redhat.ceylon.cmr.api.ArtifactContext;
 import com.redhat.ceylon.cmr.api.ArtifactOverrides;
@@ -66,9 +72,10 @@ import com.redhat.ceylon.cmr.api.PathFilterParser;
 import com.redhat.ceylon.cmr.api.RepositoryManager;
 import com.redhat.ceylon.cmr.ceylon.CeylonUtils;
 import com.redhat.ceylon.cmr.impl.AbstractArtifactResult;
-import com.redhat.ceylon.cmr.impl.IOUtils;
 import com.redhat.ceylon.cmr.impl.LazyArtifactResult;
+import com.redhat.ceylon.cmr.impl.MavenPomReader;
 import com.redhat.ceylon.cmr.impl.NodeUtils;
+import com.redhat.ceylon.cmr.impl.TransferScheduler;
 import com.redhat.ceylon.cmr.spi.Node;
 import com.redhat.ceylon.common.log.Logger;
 import com.redhat.ceylon.model.cmr.ArtifactResult;
@@ -87,49 +94,158 @@ import com.redhat.ceylon.model.cmr.RepositoryException;
 public class AetherUtils {
     private static final ScopeType[] SCOPES = new ScopeType[]{ScopeType.COMPILE, ScopeType.PROVIDED, ScopeType.RUNTIME};
     private static final SingleScopedStrategy SCOPED_STRATEGY = new SingleScopedStrategy(SCOPES);
+    private static final AcceptScopesStrategy GRAPH_STRATEGY = new AcceptScopesStrategy(SCOPES);
+
+    /**
+     * System property which turns on whole graph resolution by default.
+     */
+    public static final String RESOLVE_GRAPH_PROPERTY = "ceylon.maven.resolveGraph";
+    /**
+     * System property with the number of dependencies downloaded concurrently.
+     */
+    public static final String DOWNLOAD_THREADS_PROPERTY = "ceylon.maven.downloadThreads";
+    /**
+     * System property with how long, in milliseconds, version listings are cached.
+     */
+    public static final String VERSIONS_TTL_PROPERTY = "ceylon.maven.versionsTtl";
+
+    private static final long DEFAULT_VERSIONS_TTL = 10 * 60 * 1000L;
+    private static final int MAX_CACHED_VERSIONS = 1000;
+    private static final ConcurrentMap<String, CachedVersions> versionsCache = new ConcurrentHashMap<>();
+
+    private static final int MAX_PREFETCHED = 1000;
 
     private Logger log;
     private int timeout;
     private boolean offline;
     private String settingsXml;
+    private boolean resolveGraph;
+    private int downloadThreads;
+    private long versionsTtl;
+    private ExecutorService downloadExecutor;
+    private final ConcurrentMap<String, Future<MavenResolvedArtifact>> prefetched = new ConcurrentHashMap<>();
+    private volatile TransferScheduler transfers = TransferScheduler.getDefault();
+    private final MavenPomReader pomReader = new MavenPomReader(new MavenPomReader.PomSource() {
+        public InputStream openPom(String groupId, String artifactId, String version) throws IOException {
+            return AetherUtils.this.openPom(groupId, artifactId, version);
+        }
+    });
 
     AetherUtils(Logger log, boolean offline, int timeout) {
         this.log = log;
         this.timeout = timeout;
         this.offline = offline;
         settingsXml = getDefaultMavenSettings();
+        resolveGraph = Boolean.getBoolean(RESOLVE_GRAPH_PROPERTY);
+        downloadThreads = Integer.getInteger(DOWNLOAD_THREADS_PROPERTY, 1);
+        versionsTtl = Long.getLong(VERSIONS_TTL_PROPERTY, DEFAULT_VERSIONS_TTL);
     }
 
-    MavenArtifactInfo[] getDependencies(File pomXml) {
-        MavenResolverSystem system = getResolver();
-        PomEquippedResolveStage resolverStage = system.loadPomFromFile(pomXml).importDependencies(SCOPES);
-        MavenStrategyStage strategyStage = resolverStage.resolve();
-        MavenFormatStage formatStage = strategyStage.using(SCOPED_STRATEGY);
-        return formatStage.asResolvedArtifact();
+    /**
+     * Reads poms in memory; parents and imported boms are resolved
+     * with this repository's settings, e.g. offline and timeout.
+     */
+    MavenPomReader getPomReader() {
+        return pomReader;
     }
 
-    MavenArtifactInfo[] getDependencies(InputStream pomXml) {
-        File tempFile = null;
+    /**
+     * Open an artifact's pom, without downloading the artifact or its dependencies.
+     *
+     * @return the pom, or null if it cannot be resolved
+     */
+    private InputStream openPom(String groupId, String artifactId, String version) throws IOException {
+        final String coordinates = toCanonicalForm(toCanonicalForm(toCanonicalForm(groupId, artifactId), PackagingType.POM.getId()), version);
+        final MavenResolvedArtifact info;
         try {
-            tempFile = IOUtils.toTempFile(pomXml);
-            return getDependencies(tempFile);
-        } catch (IOException e) {
-            throw new IllegalArgumentException(e);
-        } finally {
-            if (tempFile != null) {
-                //noinspection ResultOfMethodCallIgnored
-                tempFile.delete();
-            }
+            info = resolveSingle(coordinates, TransferScheduler.Priority.NORMAL);
+        } catch (ResolutionException e) {
+            log.debug("Could not resolve pom [" + coordinates + "] : " + e);
+            return null;
         }
+        final File file = (info != null) ? info.asFile() : null;
+        return (file != null && file.isFile()) ? new FileInputStream(file) : null;
     }
 
     static boolean isOptional(MavenArtifactInfo info) {
         return info.isOptional() || !(info.getScope() == ScopeType.COMPILE || info.getScope() == ScopeType.RUNTIME);
     }
 
+    /**
+     * Resolve an artifact's whole dependency graph with a single request,
+     * so versions are mediated once and the transitive dependencies are
+     * taken from that graph instead of being resolved one by one.
+     *
+     * @param resolveGraph true to resolve whole graphs
+     */
+    void setResolveGraph(boolean resolveGraph) {
+        this.resolveGraph = resolveGraph;
+    }
+
+    boolean isResolveGraph() {
+        return resolveGraph;
+    }
+
+    /**
+     * Download an artifact's dependencies in the background while the
+     * artifact itself is being processed, using up to this many threads.
+     *
+     * @param downloadThreads the number of threads, 1 downloads on demand only
+     */
+    synchronized void setDownloadThreads(int downloadThreads) {
+        if (downloadThreads < 1)
+            throw new IllegalArgumentException("Download threads must be positive: " + downloadThreads);
+        this.downloadThreads = downloadThreads;
+        if (downloadExecutor != null) {
+            downloadExecutor.shutdown();
+            downloadExecutor = null;
+        }
+    }
+
+    int getDownloadThreads() {
+        return downloadThreads;
+    }
+
+    /**
+     * Take download slots from another scheduler than the shared default one.
+     */
+    void setTransferScheduler(TransferScheduler transfers) {
+        if (transfers == null)
+            throw new IllegalArgumentException("Null transfer scheduler!");
+        this.transfers = transfers;
+    }
+
+    TransferScheduler getTransferScheduler() {
+        return transfers;
+    }
+
+    /**
+     * How long version listings are cached.
+     *
+     * @param versionsTtl the time in milliseconds, 0 to not cache
+     */
+    void setVersionsTtl(long versionsTtl) {
+        if (versionsTtl < 0)
+            throw new IllegalArgumentException("Negative versions TTL: " + versionsTtl);
+        this.versionsTtl = versionsTtl;
+    }
+
+    long getVersionsTtl() {
+        return versionsTtl;
+    }
+
+    /**
+     * Forget cached version listings and pom summaries.
+     */
+    static void clearCaches() {
+        versionsCache.clear();
+        PomSummary.clear();
+    }
+
     void overrideSettingsXml(String settingsXml) {
         if (settingsXml != null) {
             this.settingsXml = settingsXml;
+            pomReader.clear();
         }
     }
 
@@ -173,10 +289,10 @@ public class AetherUtils {
             return fetchWithClassifier(repository, groupId, artifactId, version, "sources", repositoryDisplayString);
         }
 
-        return fetchDependencies(manager, repository, groupId, artifactId, version, fetchSingleArtifact != null ? fetchSingleArtifact : ac.isIgnoreDependencies(), repositoryDisplayString);
+        return fetchDependencies(manager, repository, groupId, artifactId, version, fetchSingleArtifact != null ? fetchSingleArtifact : ac.isIgnoreDependencies(), repositoryDisplayString, null);
     }
 
-    private ArtifactResult fetchDependencies(RepositoryManager manager, CmrRepository repository, String groupId, String artifactId, String version, boolean fetchSingleArtifact, String repositoryDisplayString) {
+    private ArtifactResult fetchDependencies(RepositoryManager manager, CmrRepository repository, String groupId, String artifactId, String version, boolean fetchSingleArtifact, String repositoryDisplayString, Map<String, MavenResolvedArtifact> graph) {
         MavenCoordinate mc = MavenCoordinates.createCoordinate(groupId, artifactId, version, PackagingType.JAR, null);
         Overrides overrides = repository.getRoot().getService(Overrides.class);
         ArtifactOverrides ao = null;
@@ -217,9 +333,21 @@ public class AetherUtils {
         final String name = toCanonicalForm(groupId, artifactId);
         final String coordinates = toCanonicalForm(name, version);
         try {
-            final MavenStrategyStage mss = getResolver().resolve(coordinates);
-            final MavenFormatStage mfs = mss.using(SCOPED_STRATEGY);
-            final MavenResolvedArtifact info = mfs.asSingleResolvedArtifact();
+            final MavenResolvedArtifact info;
+            if (fetchSingleArtifact == false && graph == null && resolveGraph) {
+                try {
+                    graph = resolveGraph(coordinates);
+                } catch (ResolutionException e) {
+                    // some transitive dependency is missing, resolve this artifact on its own like the lazy mode does
+                    log.debug("Could not resolve graph of [" + coordinates + "], resolving artifacts one by one: " + e);
+                }
+            }
+            final MavenResolvedArtifact resolved = (graph != null) ? graph.get(name) : null;
+            if (resolved != null && version.equals(resolved.getCoordinate().getVersion())) {
+                info = resolved;
+            } else {
+                info = resolvePrefetched(coordinates);
+            }
             if (info == null) {
                 log.debug("No artifact found: " + coordinates);
                 return null;
@@ -295,13 +423,18 @@ public class AetherUtils {
                     // do we have a version update?
                     if(overrides != null && overrides.isVersionOverridden(dContext)){
                         dVersion = overrides.getVersionOverride(dContext);
+                    } else if (graph != null && isCeylon == false) {
+                        // use the version the graph's mediation picked
+                        final MavenResolvedArtifact mediated = graph.get(toCanonicalForm(dGroupId, dArtifactId));
+                        if (mediated != null)
+                            dVersion = mediated.getCoordinate().getVersion();
                     }
                     
                     ArtifactResult dr;
                     if(isCeylon)
                         dr = createArtifactResult(manager, dContext.getName(), dVersion, export, optional, repositoryDisplayString);
                     else
-                        dr = createArtifactResult(manager, repository, dGroupId, dArtifactId, dVersion, export, optional, repositoryDisplayString);
+                        dr = createArtifactResult(manager, repository, dGroupId, dArtifactId, dVersion, export, optional, repositoryDisplayString, graph);
                     dependencies.add(dr);
                 }
 
@@ -310,11 +443,15 @@ public class AetherUtils {
                         ArtifactContext dContext = addon.getArtifactContext();
                         String dVersion = overrides.getVersionOverride(dContext);
                         dependencies.add(createArtifactResult(manager, repository, dContext, dVersion, 
-                                addon.isShared(), addon.isOptional(), repositoryDisplayString));
+                                addon.isShared(), addon.isOptional(), repositoryDisplayString, graph));
                         log.debug(String.format("[Maven-Overrides] Added %s to %s.", addon.getArtifactContext(), mc));
                     }
                 }
 
+                if (graph == null) {
+                    // the graph has them all already
+                    prefetch(dependencies);
+                }
                 result = new AetherArtifactResult(repository, name, version, info.asFile(), dependencies, repositoryDisplayString);
             }
 
@@ -332,18 +469,15 @@ public class AetherUtils {
     }
 
     public void search(String groupId, String artifactId, String version, ModuleVersionResult result, Overrides overrides, String repositoryDisplayString){
-        MavenResolverSystem resolver = getResolver();
         if(version == null || version.isEmpty()){
-            MavenVersionRangeResult resolveVersionRange = resolver.resolveVersionRange(groupId+":"+artifactId+":(,)");
-            List<MavenCoordinate> versions = resolveVersionRange.getVersions();
+            List<MavenCoordinate> versions = getVersions(groupId+":"+artifactId+":(,)");
             for(MavenCoordinate co : versions){
                 if(co.getVersion() != null && !co.getVersion().isEmpty())
                     addSearchResult(co.getGroupId(), co.getArtifactId(), co.getVersion(), result, overrides, repositoryDisplayString);
             }
         }else{
             try{
-                MavenVersionRangeResult resolveVersionRange = resolver.resolveVersionRange(groupId+":"+artifactId+":["+version+",]");
-                List<MavenCoordinate> versions = resolveVersionRange.getVersions();
+                List<MavenCoordinate> versions = getVersions(groupId+":"+artifactId+":["+version+",]");
                 for(MavenCoordinate co : versions){
                     // make sure the version matches because with maven if we ask for [1,] we also get 2.x
                     if(co.getVersion() != null && co.getVersion().startsWith(version))
@@ -356,6 +490,25 @@ public class AetherUtils {
         }
     }
 
+    /**
+     * Version range listings, cached for {@link #VERSIONS_TTL_PROPERTY} milliseconds.
+     */
+    private List<MavenCoordinate> getVersions(String range) {
+        final String key = settingsXml + "|" + offline + "|" + range;
+        final long now = System.currentTimeMillis();
+        final CachedVersions cached = versionsCache.get(key);
+        if (cached != null && cached.expires > now)
+            return cached.versions;
+
+        final List<MavenCoordinate> versions = Collections.unmodifiableList(new ArrayList<>(resolveVersionRange(range).getVersions()));
+        if (versionsTtl > 0) {
+            if (versionsCache.size() >= MAX_CACHED_VERSIONS)
+                versionsCache.clear();
+            versionsCache.put(key, new CachedVersions(versions, now + versionsTtl));
+        }
+        return versions;
+    }
+
     private void addSearchResult(String groupId, String artifactId, String version, ModuleVersionResult result, Overrides overrides, String repositoryDisplayString) {
         ArtifactOverrides artifactOverrides = null;
         if(overrides != null){
@@ -377,26 +530,19 @@ public class AetherUtils {
             }
             artifactOverrides = overrides.getArtifactOverrides(ctx);
         }
-        MavenResolverSystem resolver = getResolver();
-        final MavenStrategyStage mss = resolver.resolve(groupId+":"+artifactId+":"+version);
-        final MavenFormatStage mfs = mss.using(SCOPED_STRATEGY);
-        final MavenResolvedArtifact info = mfs.asSingleResolvedArtifact();
-        if(info != null){
-            StringBuilder description = new StringBuilder();
-            StringBuilder licenseBuilder = new StringBuilder();
-            collectInfo(info, description, licenseBuilder);
+        final PomSummary summary = getPomSummary(groupId, artifactId, version);
+        if(summary != null){
             Set<ModuleDependencyInfo> dependencies = new HashSet<>();
             Set<ModuleVersionArtifact> artifactTypes = new HashSet<>();
             artifactTypes.add(new ModuleVersionArtifact(".jar", null, null));
             Set<String> authors = new HashSet<>();
-            for(MavenArtifactInfo dep : info.getDependencies()){
-                MavenCoordinate depCo = dep.getCoordinate();
-                String depName = depCo.getGroupId()+":"+depCo.getArtifactId();
-                String depVersion = depCo.getVersion();
+            for(PomSummary.Dependency dep : summary.getDependencies()){
+                String depName = dep.getName();
+                String depVersion = dep.getVersion();
                 boolean export = false;
                 boolean optional = dep.isOptional();
                 if(overrides != null){
-                    ArtifactContext depCtx = new ArtifactContext(depName, depCo.getVersion());
+                    ArtifactContext depCtx = new ArtifactContext(depName, depVersion);
                     if(overrides.isRemoved(depCtx)
                             || (artifactOverrides != null 
                                 && (artifactOverrides.isRemoved(depCtx)
@@ -427,73 +573,28 @@ public class AetherUtils {
                 }
             }
             ModuleVersionDetails moduleVersionDetails = new ModuleVersionDetails(groupId+":"+artifactId, version, 
-                    description.length() > 0 ? description.toString() : null,
-                    licenseBuilder.length() > 0 ? licenseBuilder.toString() : null,
+                    summary.getDescription(), summary.getLicense(),
                     authors, dependencies, artifactTypes , true, repositoryDisplayString);
             result.addVersion(moduleVersionDetails);
         }
     }
 
-    private void collectInfo(MavenResolvedArtifact info, StringBuilder description, StringBuilder licenseBuilder) {
-        File jarFile = info.asFile();
-        if(jarFile != null && jarFile.getName().endsWith(".jar")){
-            File pomFile = new File(jarFile.getParentFile(), jarFile.getName().substring(0, jarFile.getName().length()-4)+".pom");
-            if(pomFile.exists()){
-                try(InputStream is = new FileInputStream(pomFile)) {
-                    DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-                    DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-                    Document doc = dBuilder.parse(is);
-                    doc.getDocumentElement().normalize();
-                    Element root = doc.getDocumentElement();
-                    collectText(root, description, "name", "description", "url");
-                    Element licenses = getFirstElement(root, "licenses");
-                    if(licenses != null){
-                        Element license = getFirstElement(licenses, "license");
-                        if(license != null){
-                            collectText(license, licenseBuilder, "name", "url");
-                        }
-                    }
-                } catch (IOException e) {
-                    // ignore, no info
-                    e.printStackTrace();
-                } catch (ParserConfigurationException e) {
-                    // ignore, no info
-                    e.printStackTrace();
-                } catch (SAXException e) {
-                    // ignore, no info
-                    e.printStackTrace();
-                }
-            };
-        }
-    }
-
-    private String getText(Element element, String childName){
-        NodeList elems = element.getElementsByTagName(childName);
-        if(elems != null && elems.getLength() > 0){
-            return elems.item(0).getTextContent();
-        }
-        return null;
-    }
-
-    private Element getFirstElement(Element element, String childName){
-        NodeList elems = element.getElementsByTagName(childName);
-        if(elems != null && elems.getLength() > 0 && elems.item(0) instanceof Element){
-            return (Element) elems.item(0);
+    /**
+     * Only the pom is resolved, so listing versions doesn't download every jar.
+     */
+    private PomSummary getPomSummary(String groupId, String artifactId, String version) {
+        final String gav = toCanonicalForm(toCanonicalForm(groupId, artifactId), version);
+        PomSummary summary = PomSummary.get(gav);
+        if (summary == null) {
+            final MavenResolvedArtifact info = resolveSingle(toCanonicalForm(toCanonicalForm(toCanonicalForm(groupId, artifactId), PackagingType.POM.getId()), version), TransferScheduler.Priority.NORMAL);
+            if (info == null)
+                return null;
+            summary = PomSummary.create(info.asFile(), info.getDependencies(), log);
+            PomSummary.put(gav, summary);
         }
-        return null;
+        return summary;
     }
 
-    private void collectText(Element element, StringBuilder builder, String... tags){
-        for(String tag : tags){
-            String desc = getText(element, tag);
-            if(desc != null){
-                if(builder.length() > 0)
-                    builder.append("\n");
-                builder.append(desc);
-            }
-        }
-    }
-    
     private ArtifactContext getArtifactContext(MavenCoordinate mc){
         String packaging;
         if(mc.getPackaging() == PackagingType.JAR)
@@ -510,16 +611,26 @@ public class AetherUtils {
 
     protected ArtifactResult createArtifactResult(RepositoryManager manager, CmrRepository repository, final ArtifactContext dCo, String version, 
             final boolean shared, boolean optional, final String repositoryDisplayString) {
+        return createArtifactResult(manager, repository, dCo, version, shared, optional, repositoryDisplayString, null);
+    }
+
+    private ArtifactResult createArtifactResult(RepositoryManager manager, CmrRepository repository, final ArtifactContext dCo, String version, 
+            final boolean shared, boolean optional, final String repositoryDisplayString, Map<String, MavenResolvedArtifact> graph) {
         String[] groupArtifactIds = nameToGroupArtifactIds(dCo.getName());
         if(groupArtifactIds == null)
             return createArtifactResult(manager, dCo.getName(), version, 
                     shared, optional, repositoryDisplayString);
         return createArtifactResult(manager, repository, groupArtifactIds[0], groupArtifactIds[1], version, 
-                shared, optional, repositoryDisplayString);
+                shared, optional, repositoryDisplayString, graph);
     }
 
     protected ArtifactResult createArtifactResult(final RepositoryManager manager, CmrRepository repository, final String groupId, final String artifactId, final String dVersion, 
             final boolean shared, final boolean optional, final String repositoryDisplayString) {
+        return createArtifactResult(manager, repository, groupId, artifactId, dVersion, shared, optional, repositoryDisplayString, null);
+    }
+
+    private ArtifactResult createArtifactResult(final RepositoryManager manager, CmrRepository repository, final String groupId, final String artifactId, final String dVersion, 
+            final boolean shared, final boolean optional, final String repositoryDisplayString, final Map<String, MavenResolvedArtifact> graph) {
         final String dName = toCanonicalForm(groupId, artifactId);
 
         return new MavenArtifactResult(repository, dName, dVersion, repositoryDisplayString) {
@@ -532,7 +643,7 @@ public class AetherUtils {
 
             private synchronized ArtifactResult getResult() {
                 if (result == null) {
-                    result = fetchDependencies(manager, (CmrRepository) repository(), groupId, artifactId, dVersion, false, repositoryDisplayString);
+                    result = fetchDependencies(manager, (CmrRepository) repository(), groupId, artifactId, dVersion, false, repositoryDisplayString, graph);
                 }
                 return result;
             }
@@ -557,9 +668,7 @@ public class AetherUtils {
         final String name = toCanonicalForm(groupId, artifactId);
         final String coordinates = toCanonicalForm(toCanonicalForm(toCanonicalForm(name, "jar"), classifier), version);
         try {
-            final MavenStrategyStage source_mss = getResolver().resolve(coordinates);
-            final MavenFormatStage source_mfs = source_mss.using(SCOPED_STRATEGY);
-            final MavenResolvedArtifact info = source_mfs.asSingleResolvedArtifact();
+            final MavenResolvedArtifact info = resolveSingle(coordinates, TransferScheduler.Priority.BACKGROUND);
             if (info != null) {
                 return new SingleArtifactResult(repository, name, version, info.asFile(), repositoryDisplayString);
             }
@@ -600,16 +709,170 @@ public class AetherUtils {
         return "classpath:settings.xml";
     }
 
-    private MavenResolverSystem getResolver() {
-        ClassLoader classLoader = AetherUtils.class.getClassLoader();
-        if (classLoader == null)
-            classLoader = ClassLoader.getSystemClassLoader();
+    private MavenResolverPool getPool() {
+        return MavenResolverPool.getPool(settingsXml, offline);
+    }
+
+    private synchronized ExecutorService getDownloadExecutor() {
+        if (downloadThreads <= 1)
+            return null;
+        if (downloadExecutor == null) {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(downloadThreads, downloadThreads, 30L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "CMR Maven download " + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            downloadExecutor = executor;
+        }
+        return downloadExecutor;
+    }
+
+    /**
+     * Start downloading the Maven dependencies in the background,
+     * the results pick them up once they are asked for.
+     */
+    private void prefetch(List<ArtifactResult> dependencies) {
+        final ExecutorService executor = getDownloadExecutor();
+        if (executor == null)
+            return;
+        for (ArtifactResult dependency : dependencies) {
+            if (dependency instanceof MavenArtifactResult == false)
+                continue;
+            if (prefetched.size() >= MAX_PREFETCHED) {
+                // drop finished downloads nobody picked up, e.g. because of version overrides
+                for (Map.Entry<String, Future<MavenResolvedArtifact>> entry : prefetched.entrySet()) {
+                    if (entry.getValue().isDone())
+                        prefetched.remove(entry.getKey(), entry.getValue());
+                }
+                if (prefetched.size() >= MAX_PREFETCHED)
+                    return;
+            }
+            final String coordinates = toCanonicalForm(dependency.name(), dependency.version());
+            final FutureTask<MavenResolvedArtifact> task = new FutureTask<>(new Callable<MavenResolvedArtifact>() {
+                public MavenResolvedArtifact call() throws Exception {
+                    // never wait for a slot here: whoever needs it might be holding one, waiting for us
+                    final TransferScheduler.Slot slot = transfers.tryAcquire(getTransferHost(), TransferScheduler.Priority.NORMAL);
+                    if (slot == null)
+                        return null; // resolved on demand instead
+                    try {
+                        return resolveSingle(coordinates, TransferScheduler.Priority.NORMAL);
+                    } finally {
+                        slot.close();
+                    }
+                }
+            });
+            if (prefetched.putIfAbsent(coordinates, task) == null) {
+                try {
+                    executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    prefetched.remove(coordinates, task);
+                }
+            }
+        }
+    }
+
+    private MavenResolvedArtifact resolvePrefetched(String coordinates) {
+        final Future<MavenResolvedArtifact> future = prefetched.remove(coordinates);
+        if (future != null) {
+            try {
+                final MavenResolvedArtifact artifact = future.get();
+                if (artifact != null)
+                    return artifact;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ResolutionException("Interrupted while downloading " + coordinates);
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                log.debug("Background download of " + coordinates + " failed: " + cause);
+            }
+        }
+        return resolveSingle(coordinates, TransferScheduler.Priority.CRITICAL);
+    }
+
+    /**
+     * Aether downloads take their slots from the same scheduler as the other repositories.
+     * It picks the Maven repository itself, so they all count against one host per settings.
+     */
+    private TransferScheduler.Slot acquireSlot(String coordinates, TransferScheduler.Priority priority) {
+        try {
+            return transfers.acquire(getTransferHost(), priority);
+        } catch (InterruptedIOException e) {
+            throw new ResolutionException("Interrupted while waiting to download " + coordinates);
+        }
+    }
+
+    private String getTransferHost() {
+        return "maven:" + settingsXml;
+    }
+
+    private MavenResolvedArtifact resolveSingle(String coordinates, TransferScheduler.Priority priority) {
+        final MavenResolverPool pool = getPool();
+        try (TransferScheduler.Slot slot = acquireSlot(coordinates, priority)) {
+            final MavenResolverSystem resolver = pool.borrow();
+            try {
+                final MavenStrategyStage mss = resolver.resolve(coordinates);
+                final MavenFormatStage mfs = mss.using(SCOPED_STRATEGY);
+                return mfs.asSingleResolvedArtifact();
+            } finally {
+                pool.release(resolver);
+            }
+        }
+    }
+
+    /**
+     * Resolve the whole transitive graph of the coordinates in one go.
+     *
+     * @return the graph's artifacts by group and artifact id
+     */
+    private Map<String, MavenResolvedArtifact> resolveGraph(String coordinates) {
+        final MavenResolvedArtifact[] artifacts;
+        final MavenResolverPool pool = getPool();
+        try (TransferScheduler.Slot slot = acquireSlot(coordinates, TransferScheduler.Priority.CRITICAL)) {
+            final MavenResolverSystem resolver = pool.borrow();
+            try {
+                artifacts = resolver.resolve(coordinates).using(GRAPH_STRATEGY).asResolvedArtifact();
+            } finally {
+                pool.release(resolver);
+            }
+        }
+        final Map<String, MavenResolvedArtifact> graph = new HashMap<>();
+        for (MavenResolvedArtifact artifact : artifacts) {
+            final MavenCoordinate co = artifact.getCoordinate();
+            final String classifier = co.getClassifier();
+            if (classifier == null || classifier.isEmpty())
+                graph.put(toCanonicalForm(co.getGroupId(), co.getArtifactId()), artifact);
+        }
+        log.debug("Resolved graph of " + coordinates + ": " + graph.size() + " artifact(s)");
+        return Collections.unmodifiableMap(graph);
+    }
+
+    private MavenVersionRangeResult resolveVersionRange(String coordinates) {
+        final MavenResolverPool pool = getPool();
+        try (TransferScheduler.Slot slot = acquireSlot(coordinates, TransferScheduler.Priority.NORMAL)) {
+            final MavenResolverSystem resolver = pool.borrow();
+            try {
+                return resolver.resolveVersionRange(coordinates);
+            } finally {
+                pool.release(resolver);
+            }
+        }
+    }
+
+    private static class CachedVersions {
+        private final List<MavenCoordinate> versions;
+        private final long expires;
 
-        ConfigurableMavenResolverSystem factory = Resolvers.use(ConfigurableMavenResolverSystem.class, classLoader).workOffline(offline);
-        if (settingsXml.startsWith("classpath:")) {
-            return factory.fromClassloaderResource(settingsXml.substring(10), classLoader);
-        } else {
-            return factory.fromFile(settingsXml);
+        private CachedVersions(List<MavenCoordinate> versions, long expires) {
+            this.versions = versions;
+            this.expires = expires;
         }
     }
 
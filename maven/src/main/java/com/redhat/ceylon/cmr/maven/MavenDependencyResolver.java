@@ -17,9 +17,14 @@
 package com.redhat.ceylon.cmr.maven;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.jboss.shrinkwrap.resolver.api.maven.MavenArtifactInfo;
 import org.jboss.shrinkwrap.resolver.api.maven.coordinate.MavenCoordinate;
@@ -31,6 +36,7 @@ import com.redhat.ceylon.cmr.api.ModuleInfo;
 import com.redhat.ceylon.cmr.api.Overrides;
 import com.redhat.ceylon.cmr.impl.CMRJULLogger;
 import com.redhat.ceylon.cmr.impl.IOUtils;
+import com.redhat.ceylon.cmr.impl.MavenPomReader;
 import com.redhat.ceylon.cmr.impl.NodeUtils;
 import com.redhat.ceylon.cmr.spi.Node;
 import com.redhat.ceylon.common.log.Logger;
@@ -41,6 +47,11 @@ import com.redhat.ceylon.model.cmr.ArtifactResult;
  */
 public class MavenDependencyResolver extends AbstractDependencyResolver {
     private static final Logger logger = new CMRJULLogger();
+    private static final int MAX_CACHED = 2000;
+    // for poms not found through an Aether repository; offline, so it only reads the local Maven repository
+    private static final AetherUtils localUtils = new AetherUtils(logger, true, (int)com.redhat.ceylon.common.Constants.DEFAULT_TIMEOUT);
+    // jar's dependencies, by name, version and jar
+    private static final ConcurrentMap<String, CachedDependencies> cache = new ConcurrentHashMap<>();
 
     @Override
     public ModuleInfo resolve(DependencyContext context, Overrides overrides) {
@@ -58,27 +69,86 @@ public class MavenDependencyResolver extends AbstractDependencyResolver {
             String groupId = name.substring(0, p);
             String artifactId = name.substring(p + 1);
             String descriptorPath = String.format("META-INF/maven/%s/%s/pom.xml", groupId, artifactId);
-            InputStream inputStream = IOUtils.findDescriptor(result, descriptorPath);
-            if (inputStream != null) {
-                try {
-                    return resolveFromInputStream(inputStream, name, result.version(), overrides);
-                } finally {
-                    IOUtils.safeClose(inputStream);
-                }
+            File jar = result.artifact();
+            if (jar == null) {
+                return null;
+            }
+
+            final String key = name + ":" + result.version() + "|" + jar.getAbsolutePath();
+            final long lastModified = jar.lastModified();
+            CachedDependencies cached = cache.get(key);
+            if (cached == null || cached.lastModified != lastModified) {
+                Set<ModuleDependencyInfo> dependencies = resolveDescriptor(result, descriptorPath);
+                cached = new CachedDependencies(lastModified, dependencies);
+                if (cache.size() >= MAX_CACHED)
+                    cache.clear();
+                cache.put(key, cached);
+            }
+            if (cached.dependencies != null) {
+                return toModuleInfo(cached.dependencies, name, result.version(), overrides);
             }
         }
         return null;
     }
 
+    private Set<ModuleDependencyInfo> resolveDescriptor(ArtifactResult result, String descriptorPath) {
+        // the embedded pom is read into memory, and parsed from there
+        InputStream inputStream = IOUtils.findDescriptor(result, descriptorPath);
+        if (inputStream == null) {
+            return null;
+        }
+        try {
+            return readDependencies(inputStream, getUtils(result));
+        } finally {
+            IOUtils.safeClose(inputStream);
+        }
+    }
+
+    private static AetherUtils getUtils(ArtifactResult result) {
+        // resolve the parent poms the way the artifact's repository is configured
+        if (result.repository() instanceof AetherRepository) {
+            return ((AetherRepository) result.repository()).getUtils();
+        }
+        return localUtils;
+    }
+
+    private static Set<ModuleDependencyInfo> readDependencies(InputStream pomXml, AetherUtils utils) {
+        final MavenPomReader.Pom pom;
+        try {
+            pom = utils.getPomReader().getEffectivePom(pomXml);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        Set<ModuleDependencyInfo> infos = new HashSet<>();
+        for (MavenPomReader.Dependency dep : pom.getDependencies()) {
+            final String scope = dep.getScope();
+            final boolean provided = scope.equals("provided");
+            if (scope.equals("compile") == false && scope.equals("runtime") == false && provided == false)
+                continue; // test, system, import
+            if (dep.getGroupId() == null || dep.getArtifactId() == null || dep.getVersion() == null)
+                continue; // neither declared nor managed
+            infos.add(new ModuleDependencyInfo(AetherUtils.toCanonicalForm(dep.getGroupId(), dep.getArtifactId()), dep.getVersion(), dep.isOptional() || provided, false));
+        }
+        return infos;
+    }
+
     @Override
     public ModuleInfo resolveFromFile(File file, String name, String version, Overrides overrides) {
         if (file.exists() == false) {
             return null;
         }
 
-        AetherUtils utils = new AetherUtils(logger, false, (int)com.redhat.ceylon.common.Constants.DEFAULT_TIMEOUT);
-        MavenArtifactInfo[] dependencies = utils.getDependencies(file);
-        return toModuleInfo(dependencies, name, version, overrides);
+        final InputStream stream;
+        try {
+            stream = new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            return resolveFromInputStream(stream, name, version, overrides);
+        } finally {
+            IOUtils.safeClose(stream);
+        }
     }
 
     public ModuleInfo resolveFromInputStream(InputStream stream, String name, String version, Overrides overrides) {
@@ -86,9 +156,7 @@ public class MavenDependencyResolver extends AbstractDependencyResolver {
             return null;
         }
 
-        AetherUtils utils = new AetherUtils(logger, false, (int)com.redhat.ceylon.common.Constants.DEFAULT_TIMEOUT);
-        MavenArtifactInfo[] dependencies = utils.getDependencies(stream);
-        return toModuleInfo(dependencies, name, version, overrides);
+        return toModuleInfo(readDependencies(stream, localUtils), name, version, overrides);
     }
 
     public Node descriptor(Node artifact) {
@@ -96,14 +164,32 @@ public class MavenDependencyResolver extends AbstractDependencyResolver {
     }
 
     protected static ModuleInfo toModuleInfo(MavenArtifactInfo[] dependencies, String name, String version, Overrides overrides) {
+        return toModuleInfo(toDependencyInfos(dependencies), name, version, overrides);
+    }
+
+    private static Set<ModuleDependencyInfo> toDependencyInfos(MavenArtifactInfo[] dependencies) {
         Set<ModuleDependencyInfo> infos = new HashSet<>();
         for (MavenArtifactInfo dep : dependencies) {
             MavenCoordinate co = dep.getCoordinate();
             infos.add(new ModuleDependencyInfo(AetherUtils.toCanonicalForm(co.getGroupId(), co.getArtifactId()), co.getVersion(), AetherUtils.isOptional(dep), false));
         }
-        ModuleInfo ret = new ModuleInfo(null, infos);
+        return infos;
+    }
+
+    private static ModuleInfo toModuleInfo(Set<ModuleDependencyInfo> infos, String name, String version, Overrides overrides) {
+        ModuleInfo ret = new ModuleInfo(null, new HashSet<>(infos));
         if(overrides != null)
             ret = overrides.applyOverrides(name, version, ret);
         return ret;
     }
+
+    private static class CachedDependencies {
+        private final long lastModified;
+        private final Set<ModuleDependencyInfo> dependencies;
+
+        private CachedDependencies(long lastModified, Set<ModuleDependencyInfo> dependencies) {
+            this.lastModified = lastModified;
+            this.dependencies = dependencies;
+        }
+    }
 }
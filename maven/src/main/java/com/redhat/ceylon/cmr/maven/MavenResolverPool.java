@@ -0,0 +1,125 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.cmr.maven;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.shrinkwrap.resolver.api.Resolvers;
+import org.jboss.shrinkwrap.resolver.api.maven.ConfigurableMavenResolverSystem;
+import org.jboss.shrinkwrap.resolver.api.maven.MavenResolverSystem;
+import org.jboss.shrinkwrap.resolver.api.maven.MavenWorkingSession;
+import org.jboss.shrinkwrap.resolver.impl.maven.MavenWorkingSessionContainer;
+
+/**
+ * Pool of configured Maven resolvers.
+ * <p/>
+ * Creating a resolver parses settings.xml and sets up the repository
+ * session, so resolvers are kept per settings and offline mode
+ * and handed out to one caller at a time.
+ * A resolver remembers the dependencies it was asked for,
+ * which is why those get cleared before it goes back into the pool.
+ */
+final class MavenResolverPool {
+    private static final int MAX_IDLE = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final ConcurrentMap<String, MavenResolverPool> pools = new ConcurrentHashMap<>();
+
+    private final String settingsXml;
+    private final boolean offline;
+    private final Queue<MavenResolverSystem> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    private MavenResolverPool(String settingsXml, boolean offline) {
+        this.settingsXml = settingsXml;
+        this.offline = offline;
+    }
+
+    static MavenResolverPool getPool(String settingsXml, boolean offline) {
+        final String key = settingsXml + "|" + offline;
+        MavenResolverPool pool = pools.get(key);
+        if (pool == null) {
+            pool = new MavenResolverPool(settingsXml, offline);
+            MavenResolverPool previous = pools.putIfAbsent(key, pool);
+            if (previous != null)
+                pool = previous;
+        }
+        return pool;
+    }
+
+    /**
+     * Drop all idle resolvers, e.g. after settings.xml was edited.
+     */
+    static void clear() {
+        pools.clear();
+    }
+
+    /**
+     * Take a resolver; give it back with {@link #release(MavenResolverSystem)}.
+     */
+    MavenResolverSystem borrow() {
+        MavenResolverSystem resolver = idle.poll();
+        if (resolver != null) {
+            idleCount.decrementAndGet();
+            return resolver;
+        }
+        return create();
+    }
+
+    void release(MavenResolverSystem resolver) {
+        if (resolver == null || reset(resolver) == false)
+            return;
+        if (idleCount.incrementAndGet() <= MAX_IDLE) {
+            idle.offer(resolver);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * A resolver which isn't shared, for a caller that changes its model (e.g. loads a pom).
+     */
+    MavenResolverSystem create() {
+        ClassLoader classLoader = AetherUtils.class.getClassLoader();
+        if (classLoader == null)
+            classLoader = ClassLoader.getSystemClassLoader();
+
+        ConfigurableMavenResolverSystem factory = Resolvers.use(ConfigurableMavenResolverSystem.class, classLoader).workOffline(offline);
+        if (settingsXml.startsWith("classpath:")) {
+            return factory.fromClassloaderResource(settingsXml.substring(10), classLoader);
+        } else {
+            return factory.fromFile(settingsXml);
+        }
+    }
+
+    private static boolean reset(MavenResolverSystem resolver) {
+        if (resolver instanceof MavenWorkingSessionContainer == false)
+            return false;
+        try {
+            final MavenWorkingSession session = ((MavenWorkingSessionContainer) resolver).getMavenWorkingSession();
+            session.getDependenciesForResolution().clear();
+            session.getDeclaredDependencies().clear();
+            session.getDependencyManagement().clear();
+            return true;
+        } catch (RuntimeException e) {
+            // not the session we know, don't reuse it
+            return false;
+        }
+    }
+}
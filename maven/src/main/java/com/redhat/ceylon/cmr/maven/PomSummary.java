@@ -0,0 +1,220 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.cmr.maven;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jboss.shrinkwrap.resolver.api.maven.MavenArtifactInfo;
+import org.jboss.shrinkwrap.resolver.api.maven.coordinate.MavenCoordinate;
+
+import com.redhat.ceylon.common.log.Logger;
+
+/**
+ * What module search needs from a Maven artifact:
+ * the pom's description and license, and the artifact's dependencies.
+ * <p/>
+ * Summaries are cached by group, artifact and version,
+ * released versions don't change.
+ */
+final class PomSummary {
+    private static final int MAX_CACHED = 5000;
+    private static final ConcurrentMap<String, PomSummary> cache = new ConcurrentHashMap<>();
+    private static final XMLInputFactory factory;
+
+    static {
+        factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private final String description;
+    private final String license;
+    private final List<Dependency> dependencies;
+
+    private PomSummary(String description, String license, List<Dependency> dependencies) {
+        this.description = description;
+        this.license = license;
+        this.dependencies = dependencies;
+    }
+
+    static PomSummary get(String gav) {
+        return cache.get(gav);
+    }
+
+    static void put(String gav, PomSummary summary) {
+        if (cache.size() >= MAX_CACHED)
+            cache.clear();
+        cache.put(gav, summary);
+    }
+
+    static void clear() {
+        cache.clear();
+    }
+
+    /**
+     * @param pom the pom file, can be null
+     * @param dependencies the artifact's resolved dependencies
+     * @param log the log
+     */
+    static PomSummary create(File pom, MavenArtifactInfo[] dependencies, Logger log) {
+        final StringBuilder description = new StringBuilder();
+        final StringBuilder license = new StringBuilder();
+        if (pom != null && pom.exists()) {
+            try (InputStream is = new FileInputStream(pom)) {
+                parse(is, description, license);
+            } catch (IOException | XMLStreamException e) {
+                // ignore, no info
+                log.debug("Could not read the description and license of " + pom + ": " + e);
+            }
+        }
+        final List<Dependency> deps = new ArrayList<>(dependencies.length);
+        for (MavenArtifactInfo dep : dependencies) {
+            final MavenCoordinate co = dep.getCoordinate();
+            deps.add(new Dependency(AetherUtils.toCanonicalForm(co.getGroupId(), co.getArtifactId()), co.getVersion(), dep.isOptional()));
+        }
+        return new PomSummary(
+                description.length() > 0 ? description.toString() : null,
+                license.length() > 0 ? license.toString() : null,
+                Collections.unmodifiableList(deps));
+    }
+
+    /**
+     * Collect project's name, description and url, and the first license's name and url.
+     */
+    private static void parse(InputStream is, StringBuilder description, StringBuilder license) throws XMLStreamException {
+        final XMLStreamReader reader = factory.createXMLStreamReader(is);
+        try {
+            String name = null, desc = null, url = null, licenseName = null, licenseUrl = null;
+            // element names below the project, e.g. [licenses, license, name]
+            final List<String> path = new ArrayList<>();
+            int licenseCount = 0;
+            while (reader.hasNext()) {
+                final int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    final String element = reader.getLocalName();
+                    final int depth = path.size();
+                    if (depth == 1 && (element.equals("name") || element.equals("description") || element.equals("url"))) {
+                        final String text = reader.getElementText().trim();
+                        if (element.equals("name"))
+                            name = text;
+                        else if (element.equals("description"))
+                            desc = text;
+                        else
+                            url = text;
+                        continue; // getElementText consumed the end element
+                    }
+                    if (depth == 3 && licenseCount == 1 && path.get(1).equals("licenses") && path.get(2).equals("license")
+                            && (element.equals("name") || element.equals("url"))) {
+                        final String text = reader.getElementText().trim();
+                        if (element.equals("name"))
+                            licenseName = text;
+                        else
+                            licenseUrl = text;
+                        continue;
+                    }
+                    if (depth == 2 && element.equals("license") && path.get(1).equals("licenses"))
+                        licenseCount++;
+                    // skip whole sections we don't care about
+                    if (depth == 1 && element.equals("licenses") == false) {
+                        skipElement(reader);
+                        continue;
+                    }
+                    path.add(element);
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    path.remove(path.size() - 1);
+                    if (path.isEmpty())
+                        break;
+                }
+            }
+            append(description, name);
+            append(description, desc);
+            append(description, url);
+            append(license, licenseName);
+            append(license, licenseUrl);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT)
+                depth++;
+            else if (event == XMLStreamConstants.END_ELEMENT)
+                depth--;
+        }
+    }
+
+    private static void append(StringBuilder builder, String text) {
+        if (text == null || text.isEmpty())
+            return;
+        if (builder.length() > 0)
+            builder.append("\n");
+        builder.append(text);
+    }
+
+    String getDescription() {
+        return description;
+    }
+
+    String getLicense() {
+        return license;
+    }
+
+    List<Dependency> getDependencies() {
+        return dependencies;
+    }
+
+    static final class Dependency {
+        private final String name;
+        private final String version;
+        private final boolean optional;
+
+        private Dependency(String name, String version, boolean optional) {
+            this.name = name;
+            this.version = version;
+            this.optional = optional;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        String getVersion() {
+            return version;
+        }
+
+        boolean isOptional() {
+            return optional;
+        }
+    }
+}
@@ -20,13 +20,19 @@ import java.io.File;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.redhat.ceylon.cmr.api.ArtifactContext;
 import com.redhat.ceylon.cmr.api.CmrRepository;
+import com.redhat.ceylon.cmr.api.ModuleQuery;
+import com.redhat.ceylon.cmr.api.ModuleVersionDetails;
+import com.redhat.ceylon.cmr.api.ModuleVersionQuery;
+import com.redhat.ceylon.cmr.api.ModuleVersionResult;
 import com.redhat.ceylon.cmr.api.RepositoryManager;
 import com.redhat.ceylon.cmr.api.RepositoryManagerBuilder;
 import com.redhat.ceylon.cmr.impl.MavenRepositoryHelper;
 import com.redhat.ceylon.cmr.impl.SimpleRepositoryManager;
+import com.redhat.ceylon.cmr.impl.TransferScheduler;
 import com.redhat.ceylon.cmr.maven.AetherContentStore;
 import com.redhat.ceylon.cmr.maven.AetherRepository;
 import com.redhat.ceylon.cmr.spi.StructureBuilder;
@@ -144,6 +150,120 @@ public class AetherTestCase extends AbstractAetherTest {
         }
     }
 
+    @Test
+    public void testAetherResolveGraph() throws Throwable {
+        AetherRepository repository = (AetherRepository) createAetherRepository();
+        repository.setResolveGraph(true);
+        RepositoryManager manager = new SimpleRepositoryManager(repository, log);
+        ArtifactResult result = manager.getArtifactResult("org.jboss.xnio:xnio-api", "3.1.0.Beta7");
+        Assert.assertNotNull(result);
+        File artifact = result.artifact();
+        boolean exists = false;
+        try {
+            Assert.assertNotNull(artifact);
+            Assert.assertTrue(artifact.exists());
+            exists = true;
+            List<ArtifactResult> deps = result.dependencies();
+            Assert.assertTrue(deps.size() > 0);
+            for (ArtifactResult dep : deps) {
+                // filled from the graph, no further resolution
+                Assert.assertNotNull(dep.artifact());
+                Assert.assertNotNull(dep.dependencies());
+            }
+            log.debug("deps = " + deps);
+        } finally {
+            if (exists) {
+                Assert.assertTrue(artifact.delete()); // delete this one
+            }
+        }
+    }
+
+    @Test
+    public void testAetherResolveGraphWithMissingDependency() throws Throwable {
+        AetherRepository repository = (AetherRepository) createAetherRepository();
+        repository.setResolveGraph(true);
+        RepositoryManager manager = new SimpleRepositoryManager(repository, log);
+        // the graph cannot be resolved, but the artifact itself still is, as in the lazy mode
+        ArtifactResult result = manager.getArtifactResult("com.redhat.ceylon.test:graph-root", "1.0");
+        Assert.assertNotNull(result);
+        File artifact = result.artifact();
+        Assert.assertNotNull(artifact);
+        Assert.assertTrue(artifact.exists());
+        Assert.assertEquals("graph-root-1.0.jar", artifact.getName());
+    }
+
+    @Test
+    public void testAetherDownloadsAreScheduled() throws Throwable {
+        AetherRepository repository = (AetherRepository) createAetherRepository();
+        TransferScheduler transfers = new TransferScheduler(1, 1);
+        repository.setTransferScheduler(transfers);
+        final RepositoryManager manager = new SimpleRepositoryManager(repository, log);
+        final AtomicReference<Object> result = new AtomicReference<>();
+        Thread resolver;
+        try (TransferScheduler.Slot slot = transfers.acquire("somewhere", TransferScheduler.Priority.CRITICAL)) {
+            resolver = new Thread() {
+                public void run() {
+                    try {
+                        result.set(manager.getArtifactResult("com.redhat.ceylon.test:graph-root", "1.0"));
+                    } catch (Throwable t) {
+                        result.set(t);
+                    }
+                }
+            };
+            resolver.start();
+            // the resolution waits for the only slot
+            for (int i = 0; i < 100 && transfers.getWaiting() == 0; i++)
+                Thread.sleep(100);
+            Assert.assertEquals(1, transfers.getWaiting());
+            Assert.assertNull(result.get());
+        }
+        resolver.join(30000);
+        Assert.assertTrue(String.valueOf(result.get()), result.get() instanceof ArtifactResult);
+        Assert.assertEquals(1, transfers.getWaited());
+        Assert.assertEquals(0, transfers.getRunning());
+    }
+
+    @Test
+    public void testAetherParallelDownloads() throws Throwable {
+        AetherRepository repository = (AetherRepository) createAetherRepository();
+        repository.setDownloadThreads(4);
+        RepositoryManager manager = new SimpleRepositoryManager(repository, log);
+        ArtifactResult result = manager.getArtifactResult("org.jboss.xnio:xnio-api", "3.1.0.Beta7");
+        Assert.assertNotNull(result);
+        File artifact = result.artifact();
+        boolean exists = false;
+        try {
+            Assert.assertNotNull(artifact);
+            Assert.assertTrue(artifact.exists());
+            exists = true;
+            List<ArtifactResult> deps = result.dependencies();
+            Assert.assertTrue(deps.size() > 0);
+            for (ArtifactResult dep : deps) {
+                Assert.assertNotNull(dep.artifact());
+            }
+        } finally {
+            if (exists) {
+                Assert.assertTrue(artifact.delete()); // delete this one
+            }
+        }
+    }
+
+    @Test
+    public void testAetherCompleteVersions() throws Throwable {
+        CmrRepository repository = createAetherRepository();
+        RepositoryManager manager = new SimpleRepositoryManager(repository, log);
+        ModuleVersionQuery query = new ModuleVersionQuery("org.slf4j:slf4j-api", "1.6.4", ModuleQuery.Type.JVM);
+        ModuleVersionResult result = manager.completeVersions(query);
+        Assert.assertNotNull(result);
+        ModuleVersionDetails details = result.getVersions().get("1.6.4");
+        Assert.assertNotNull(details);
+        Assert.assertNotNull(details.getDoc());
+        // second time around it comes from the caches
+        ModuleVersionResult cached = manager.completeVersions(query);
+        Assert.assertEquals(result.getVersions().keySet(), cached.getVersions().keySet());
+        Assert.assertEquals(details.getDoc(), cached.getVersions().get("1.6.4").getDoc());
+    }
+
     @Test
     public void testAetherWithSemiColonModule() throws Throwable {
         CmrRepository repository = createAetherRepository();
@@ -17,17 +17,24 @@
 package com.redhat.ceylon.test.maven.test;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.net.URL;
 import java.util.Collections;
 import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
 
 import org.junit.Assert;
 import org.junit.Test;
 
 import com.redhat.ceylon.cmr.api.CmrRepository;
+import com.redhat.ceylon.cmr.api.ModuleDependencyInfo;
 import com.redhat.ceylon.cmr.api.ModuleInfo;
 import com.redhat.ceylon.cmr.api.RepositoryManager;
 import com.redhat.ceylon.cmr.impl.AbstractArtifactResult;
 import com.redhat.ceylon.cmr.impl.SimpleRepositoryManager;
+import com.redhat.ceylon.cmr.maven.AetherRepository;
 import com.redhat.ceylon.cmr.maven.MavenDependencyResolver;
 import com.redhat.ceylon.model.cmr.ArtifactResult;
 import com.redhat.ceylon.model.cmr.ArtifactResultType;
@@ -49,6 +56,51 @@ public class ResolverTestCase extends AbstractAetherTest {
         });
     }
 
+    @Test
+    public void testEmbeddedPomReadInMemory() throws Exception {
+        final String pom = "<project>" +
+                "<modelVersion>4.0.0</modelVersion>" +
+                "<parent><groupId>com.redhat.ceylon.test</groupId><artifactId>embedded-parent</artifactId><version>1.0</version></parent>" +
+                "<artifactId>embedded-child</artifactId>" +
+                "<dependencies>" +
+                "<dependency><groupId>com.redhat.ceylon.test</groupId><artifactId>graph-root</artifactId></dependency>" +
+                "<dependency><groupId>junit</groupId><artifactId>junit</artifactId><version>4.11</version><scope>test</scope></dependency>" +
+                "</dependencies>" +
+                "</project>";
+        final File jar = File.createTempFile("embedded-child-", ".jar");
+        try {
+            try (JarOutputStream jos = new JarOutputStream(new FileOutputStream(jar))) {
+                jos.putNextEntry(new ZipEntry("META-INF/maven/com.redhat.ceylon.test/embedded-child/pom.xml"));
+                jos.write(pom.getBytes("UTF-8"));
+                jos.closeEntry();
+            }
+            // offline, so the parent pom can only come from the local repository
+            URL settingsURL = getClass().getClassLoader().getResource("maven-settings/settings.xml");
+            CmrRepository repository = AetherRepository.createRepository(log, new File(settingsURL.toURI()).getPath(), true, 60000);
+            final File tmp = new File(System.getProperty("java.io.tmpdir"));
+            final int tempFiles = countTempFiles(tmp);
+
+            ModuleInfo info = new MavenDependencyResolver().resolve(new TestArtifactResult(repository, "com.redhat.ceylon.test:embedded-child", "1.0", jar), null);
+            Assert.assertNotNull(info);
+            Assert.assertEquals(String.valueOf(info), 1, info.getDependencies().size());
+            ModuleDependencyInfo dependency = info.getDependencies().iterator().next();
+            Assert.assertEquals("com.redhat.ceylon.test:graph-root", dependency.getName());
+            Assert.assertEquals("1.0", dependency.getVersion()); // managed by the parent
+            Assert.assertEquals(tempFiles, countTempFiles(tmp));
+        } finally {
+            Assert.assertTrue(jar.delete());
+        }
+    }
+
+    private static int countTempFiles(File dir) {
+        final String[] names = dir.list(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith("ceylon-ioutils-");
+            }
+        });
+        return (names != null) ? names.length : 0;
+    }
+
     private void doTest(Tester tester) throws Exception {
         CmrRepository repository = createAetherRepository();
         RepositoryManager manager = new SimpleRepositoryManager(repository, log);
@@ -0,0 +1,538 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.test.smoke.support;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded HTTP server faking a Herd (API 4) under <code>/herd</code>
+ * and a Maven repository under <code>/maven</code>, for load tests.
+ * <p/>
+ * Content is generated: Ceylon module <code>i</code> is <code>load.m&lt;i&gt;</code> with JS artifacts,
+ * depending on module <code>i/2</code>; Maven artifact <code>i</code> is <code>org.load:a&lt;i&gt;</code>
+ * with a jar and a pom, depending on artifact <code>i/2</code>.
+ * Every request can be slowed down, throttled, failed or rejected, see the setters.
+ */
+public class FakeRepositoryServer {
+    public static final String HERD = "/herd";
+    public static final String MAVEN = "/maven";
+    public static final String MODULE_PREFIX = "load.m";
+    public static final String GROUP_ID = "org.load";
+    public static final String VERSION = "1.0.0";
+
+    private final int modules;
+    private final int versions;
+    private final Random random = new Random(42);
+
+    private volatile int latency;
+    private volatile long bandwidth;
+    private volatile double errorRate;
+    private volatile int artifactSize = 1024;
+    private volatile Semaphore connections;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param modules how many Ceylon modules and Maven artifacts
+     * @param versions how many versions of each, <code>1.0.0</code> being the first
+     */
+    public FakeRepositoryServer(int modules, int versions) {
+        if (modules < 1 || versions < 1)
+            throw new IllegalArgumentException("Need at least one module and version");
+        this.modules = modules;
+        this.versions = versions;
+    }
+
+    /**
+     * @param latency millis to wait before answering a request
+     */
+    public FakeRepositoryServer setLatency(int latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    /**
+     * @param bandwidth bytes per second per response, 0 for unlimited
+     */
+    public FakeRepositoryServer setBandwidth(long bandwidth) {
+        this.bandwidth = bandwidth;
+        return this;
+    }
+
+    /**
+     * @param errorRate the fraction of requests answered with a 500, between 0 and 1
+     */
+    public FakeRepositoryServer setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * @param maxConnections requests served at once, the rest get a 503; 0 for unlimited
+     */
+    public FakeRepositoryServer setMaxConnections(int maxConnections) {
+        this.connections = maxConnections > 0 ? new Semaphore(maxConnections) : null;
+        return this;
+    }
+
+    /**
+     * @param artifactSize the minimum size of generated artifacts, in bytes
+     */
+    public FakeRepositoryServer setArtifactSize(int artifactSize) {
+        this.artifactSize = artifactSize;
+        return this;
+    }
+
+    public FakeRepositoryServer start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    handleRequest(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+        return this;
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    public String getURL() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public String getHerdURL() {
+        return getURL() + HERD;
+    }
+
+    public String getMavenURL() {
+        return getURL() + MAVEN;
+    }
+
+    public static String moduleName(int index) {
+        return MODULE_PREFIX + index;
+    }
+
+    public static String artifactName(int index) {
+        return GROUP_ID + ":a" + index;
+    }
+
+    public static String version(int index) {
+        return "1.0." + index;
+    }
+
+    public int getModules() {
+        return modules;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public int getMaxActive() {
+        return maxActive.get();
+    }
+
+    public void resetStatistics() {
+        requests.set(0);
+        errors.set(0);
+        rejected.set(0);
+        bytesSent.set(0);
+        maxActive.set(active.get());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FakeRepositoryServer: requests=%d errors=%d rejected=%d bytes=%d maxActive=%d",
+                getRequests(), getErrors(), getRejected(), getBytesSent(), getMaxActive());
+    }
+
+    private void handleRequest(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        final Semaphore limit = connections;
+        if (limit != null && limit.tryAcquire() == false) {
+            rejected.incrementAndGet();
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            exchange.sendResponseHeaders(503, -1);
+            return;
+        }
+        final int now = active.incrementAndGet();
+        int max;
+        while ((max = maxActive.get()) < now && maxActive.compareAndSet(max, now) == false) {
+            // retry
+        }
+        try {
+            if (latency > 0)
+                Thread.sleep(latency);
+            if (errorRate > 0 && nextDouble() < errorRate) {
+                errors.incrementAndGet();
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+            final String path = exchange.getRequestURI().getPath();
+            final Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            if (path.startsWith(HERD)) {
+                handleHerd(exchange, path.substring(HERD.length()), params);
+            } else if (path.startsWith(MAVEN)) {
+                handleMaven(exchange, path.substring(MAVEN.length()));
+            } else {
+                exchange.sendResponseHeaders(404, -1);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            active.decrementAndGet();
+            if (limit != null)
+                limit.release();
+        }
+    }
+
+    private double nextDouble() {
+        synchronized (random) {
+            return random.nextDouble();
+        }
+    }
+
+    // Herd
+
+    private void handleHerd(HttpExchange exchange, String path, Map<String, String> params) throws IOException, InterruptedException {
+        if (exchange.getRequestMethod().equals("OPTIONS")) {
+            final String api = getHerdURL() + "/api/";
+            exchange.getResponseHeaders().set("X-Herd-Version", "4");
+            exchange.getResponseHeaders().add("Link", "<" + api + "complete-modules>; rel=\"http://modules.ceylon-lang.org/rel/complete-modules\"");
+            exchange.getResponseHeaders().add("Link", "<" + api + "complete-versions>; rel=\"http://modules.ceylon-lang.org/rel/complete-versions\"");
+            exchange.getResponseHeaders().add("Link", "<" + api + "search-modules>; rel=\"http://modules.ceylon-lang.org/rel/search-modules\"");
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        switch (path) {
+            case "/api/complete-modules":
+                sendXML(exchange, searchModules(params.get("module"), true, null, null));
+                return;
+            case "/api/search-modules":
+                sendXML(exchange, searchModules(params.get("query"), false, toLong(params.get("start")), toLong(params.get("count"))));
+                return;
+            case "/api/complete-versions":
+                sendXML(exchange, completeVersions(params.get("module"), params.get("version")));
+                return;
+        }
+        // /load/m12/1.0.3/load.m12-1.0.3.js[.sha1]
+        final String[] parts = path.split("/");
+        if (parts.length == 5 && parts[1].equals("load")) {
+            final int index = moduleIndex("load." + parts[2]);
+            final int version = versionIndex(parts[3]);
+            if (index >= 0 && version >= 0) {
+                final String name = moduleName(index);
+                final String base = name + "-" + parts[3];
+                if (parts[4].equals(base + ".js")) {
+                    sendContent(exchange, moduleJS(index, version));
+                    return;
+                } else if (parts[4].equals(base + ".js.sha1")) {
+                    sendContent(exchange, sha1(moduleJS(index, version)));
+                    return;
+                }
+            }
+        }
+        exchange.sendResponseHeaders(404, -1);
+    }
+
+    private int moduleIndex(String name) {
+        if (name == null || name.startsWith(MODULE_PREFIX) == false)
+            return -1;
+        try {
+            final int index = Integer.parseInt(name.substring(MODULE_PREFIX.length()));
+            return index < modules ? index : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private int versionIndex(String version) {
+        if (version == null || version.startsWith("1.0.") == false)
+            return -1;
+        try {
+            final int index = Integer.parseInt(version.substring(4));
+            return index < versions ? index : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private byte[] moduleJS(int index, int version) {
+        final String deps = index > 0 ? ",\"" + moduleName(index / 2) + "\\/" + VERSION + "\"" : "";
+        final StringBuilder js = new StringBuilder();
+        js.append("(function(define) { define(function(require, exports, module) {\n");
+        js.append("var $$METAMODEL$$={\"$mod-deps\":[\"ceylon.language\\/1.1.0\"").append(deps)
+                .append("],\"$mod-name\":\"").append(moduleName(index))
+                .append("\",\"$mod-version\":\"").append(version(version)).append("\",\"$mod-bin\":\"8.0\"};\n");
+        js.append("exports.$$METAMODEL$$=function(){return $$METAMODEL$$;};\n");
+        js.append("});\n}(typeof define==='function' && define.amd ? define : function (factory) { factory(require, exports, module); }));\n");
+        while (js.length() < artifactSize)
+            js.append("//").append(js.length()).append('\n');
+        return js.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private String searchModules(String query, boolean prefix, Long start, Long count) {
+        final String q = query != null ? query : "";
+        final List<Integer> matches = new ArrayList<>();
+        for (int i = 0; i < modules; i++) {
+            final String name = moduleName(i);
+            if (prefix ? name.startsWith(q) : name.contains(q))
+                matches.add(i);
+        }
+        final int from = start != null ? (int) Math.min(start, matches.size()) : 0;
+        final int to = count != null ? (int) Math.min(from + count, matches.size()) : matches.size();
+        final StringBuilder xml = new StringBuilder("<results total=\"").append(matches.size()).append("\">");
+        for (int i = from; i < to; i++) {
+            final int index = matches.get(i);
+            xml.append("<module><name>").append(moduleName(index)).append("</name>");
+            for (int v = 0; v < versions; v++)
+                xml.append("<versions>").append(version(v)).append("</versions>");
+            xml.append("<doc>Load test module ").append(index).append("</doc>");
+            xml.append("<license>Apache Software License</license>");
+            appendJSArtifact(xml);
+            xml.append("</module>");
+        }
+        return xml.append("</results>").toString();
+    }
+
+    private String completeVersions(String module, String version) {
+        final StringBuilder xml = new StringBuilder("<results>");
+        final int index = moduleIndex(module);
+        if (index >= 0) {
+            for (int v = 0; v < versions; v++) {
+                if (version != null && version(v).startsWith(version) == false)
+                    continue;
+                xml.append("<module-version><module>").append(module).append("</module>");
+                xml.append("<version>").append(version(v)).append("</version>");
+                xml.append("<doc>Load test module ").append(index).append("</doc>");
+                if (index > 0) {
+                    xml.append("<dependency><module>").append(moduleName(index / 2)).append("</module>");
+                    xml.append("<version>").append(VERSION).append("</version>");
+                    xml.append("<shared>false</shared><optional>false</optional></dependency>");
+                }
+                appendJSArtifact(xml);
+                xml.append("</module-version>");
+            }
+        }
+        return xml.append("</results>").toString();
+    }
+
+    private static void appendJSArtifact(StringBuilder xml) {
+        xml.append("<artifact><suffix>.js</suffix><binaryMajorVersion>8</binaryMajorVersion><binaryMinorVersion>0</binaryMinorVersion></artifact>");
+    }
+
+    // Maven
+
+    private void handleMaven(HttpExchange exchange, String path) throws IOException, InterruptedException {
+        // /org/load/a12/maven-metadata.xml, /org/load/a12/1.0.3/a12-1.0.3.jar[.sha1]
+        final String[] parts = path.split("/");
+        final String groupPath = "/" + GROUP_ID.replace('.', '/') + "/";
+        if (path.startsWith(groupPath) && parts.length >= 5) {
+            final String artifactId = parts[3];
+            final int index = artifactId.startsWith("a") ? moduleIndex(MODULE_PREFIX + artifactId.substring(1)) : -1;
+            if (index >= 0 && parts.length == 5 && parts[4].equals("maven-metadata.xml")) {
+                sendContent(exchange, mavenMetadata(artifactId).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            final int version = parts.length == 6 ? versionIndex(parts[4]) : -1;
+            if (index >= 0 && version >= 0) {
+                final String base = artifactId + "-" + parts[4];
+                String file = parts[5];
+                final boolean sha1 = file.endsWith(".sha1");
+                if (sha1)
+                    file = file.substring(0, file.length() - 5);
+                byte[] content = null;
+                if (file.equals(base + ".jar"))
+                    content = jar(index);
+                else if (file.equals(base + ".pom"))
+                    content = pom(index, version).getBytes(StandardCharsets.UTF_8);
+                if (content != null) {
+                    sendContent(exchange, sha1 ? sha1(content) : content);
+                    return;
+                }
+            }
+        }
+        exchange.sendResponseHeaders(404, -1);
+    }
+
+    private String mavenMetadata(String artifactId) {
+        final StringBuilder xml = new StringBuilder("<metadata><groupId>").append(GROUP_ID).append("</groupId>");
+        xml.append("<artifactId>").append(artifactId).append("</artifactId><versioning>");
+        xml.append("<latest>").append(version(versions - 1)).append("</latest>");
+        xml.append("<release>").append(version(versions - 1)).append("</release><versions>");
+        for (int v = 0; v < versions; v++)
+            xml.append("<version>").append(version(v)).append("</version>");
+        return xml.append("</versions></versioning></metadata>").toString();
+    }
+
+    private String pom(int index, int version) {
+        final StringBuilder xml = new StringBuilder("<project><modelVersion>4.0.0</modelVersion>");
+        xml.append("<groupId>").append(GROUP_ID).append("</groupId>");
+        xml.append("<artifactId>a").append(index).append("</artifactId>");
+        xml.append("<version>").append(version(version)).append("</version>");
+        if (index > 0) {
+            xml.append("<dependencies><dependency><groupId>").append(GROUP_ID).append("</groupId>");
+            xml.append("<artifactId>a").append(index / 2).append("</artifactId>");
+            xml.append("<version>").append(VERSION).append("</version></dependency></dependencies>");
+        }
+        return xml.append("</project>").toString();
+    }
+
+    private byte[] jar(int index) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(baos)) {
+            zos.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+            zos.write("Manifest-Version: 1.0\n".getBytes(StandardCharsets.UTF_8));
+            zos.closeEntry();
+            // stored, so the size is what was asked for
+            final byte[] padding = new byte[artifactSize];
+            final ZipEntry data = new ZipEntry("org/load/a" + index + ".bin");
+            data.setMethod(ZipEntry.STORED);
+            data.setSize(padding.length);
+            final CRC32 crc = new CRC32();
+            crc.update(padding);
+            data.setCrc(crc.getValue());
+            zos.putNextEntry(data);
+            zos.write(padding);
+            zos.closeEntry();
+        }
+        return baos.toByteArray();
+    }
+
+    // plumbing
+
+    private void sendXML(HttpExchange exchange, String xml) throws IOException, InterruptedException {
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        sendContent(exchange, xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void sendContent(HttpExchange exchange, byte[] content) throws IOException, InterruptedException {
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.getResponseHeaders().set("Content-Length", String.valueOf(content.length));
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(200, content.length);
+        final OutputStream os = exchange.getResponseBody();
+        final long limit = bandwidth;
+        if (limit <= 0) {
+            os.write(content);
+        } else {
+            // 10 chunks a second
+            final int chunk = (int) Math.max(1, limit / 10);
+            for (int offset = 0; offset < content.length; offset += chunk) {
+                final int length = Math.min(chunk, content.length - offset);
+                os.write(content, offset, length);
+                os.flush();
+                Thread.sleep(length * 1000L / limit);
+            }
+        }
+        os.close();
+        bytesSent.addAndGet(content.length);
+    }
+
+    private static byte[] sha1(byte[] content) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(content);
+            final StringBuilder hex = new StringBuilder();
+            for (byte b : digest)
+                hex.append(String.format("%02x", b & 0xff));
+            return hex.toString().getBytes(StandardCharsets.UTF_8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Long toLong(String value) {
+        try {
+            return value != null && value.isEmpty() == false ? Long.valueOf(value) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        final Map<String, String> params = new HashMap<>();
+        if (query == null)
+            return params;
+        for (String pair : query.split("&")) {
+            final int eq = pair.indexOf('=');
+            if (eq > 0)
+                params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+        }
+        return params;
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.test.smoke.support;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded in-memory WebDAV server, just enough of it for {@link com.redhat.ceylon.cmr.webdav.WebDAVContentStore}:
+ * HEAD, GET, PUT, MKCOL, LOCK, UNLOCK and PROPFIND.
+ * <p/>
+ * Locks are deep and exclusive: a PUT below a locked collection must send the lock token in an
+ * <code>If</code> header or gets a 423. Requests are counted per method.
+ */
+public class FakeWebDAVServer {
+
+    private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+    private final Map<String, Long> modified = new ConcurrentHashMap<>();
+    private final Set<String> collections = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // collection -> token
+    private final Map<String, String> locks = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicInteger> counts = new ConcurrentHashMap<>();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public FakeWebDAVServer start() throws IOException {
+        collections.add("");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    handleRequest(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+        return this;
+    }
+
+    public void stop() {
+        if (server != null)
+            server.stop(0);
+        if (executor != null)
+            executor.shutdownNow();
+    }
+
+    public String getURL() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    /**
+     * @param path e.g. <code>/com/acme/foo/1.0/foo-1.0.car</code>
+     */
+    public byte[] getFile(String path) {
+        return files.get(normalize(path));
+    }
+
+    public boolean isCollection(String path) {
+        return collections.contains(normalize(path));
+    }
+
+    public int getLockCount() {
+        return locks.size();
+    }
+
+    /**
+     * @param method the HTTP method
+     * @return how many requests used it
+     */
+    public int getCount(String method) {
+        final AtomicInteger count = counts.get(method);
+        return count != null ? count.get() : 0;
+    }
+
+    public int getRequests() {
+        int total = 0;
+        for (AtomicInteger count : counts.values())
+            total += count.get();
+        return total;
+    }
+
+    public void resetStatistics() {
+        counts.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "FakeWebDAVServer" + counts;
+    }
+
+    private static String normalize(String path) {
+        while (path.endsWith("/"))
+            path = path.substring(0, path.length() - 1);
+        return path;
+    }
+
+    private static String parent(String path) {
+        final int p = path.lastIndexOf('/');
+        return p > 0 ? path.substring(0, p) : "";
+    }
+
+    private String lockFor(String path) {
+        for (String p = path; ; p = parent(p)) {
+            final String token = locks.get(p);
+            if (token != null || p.isEmpty())
+                return token;
+        }
+    }
+
+    private void handleRequest(HttpExchange exchange) throws IOException {
+        final String method = exchange.getRequestMethod();
+        counts.putIfAbsent(method, new AtomicInteger());
+        counts.get(method).incrementAndGet();
+
+        final String path = normalize(exchange.getRequestURI().getPath());
+        final byte[] body = readBody(exchange.getRequestBody());
+        switch (method) {
+            case "HEAD":
+                exchange.sendResponseHeaders(files.containsKey(path) || collections.contains(path) ? 200 : 404, -1);
+                break;
+            case "GET": {
+                final byte[] content = files.get(path);
+                if (content == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                } else {
+                    exchange.sendResponseHeaders(200, content.length);
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write(content);
+                    }
+                }
+                break;
+            }
+            case "MKCOL":
+                if (collections.contains(path) || files.containsKey(path)) {
+                    exchange.sendResponseHeaders(405, -1);
+                } else if (collections.contains(parent(path)) == false) {
+                    exchange.sendResponseHeaders(409, -1);
+                } else {
+                    collections.add(path);
+                    exchange.sendResponseHeaders(201, -1);
+                }
+                break;
+            case "PUT": {
+                final String token = lockFor(path);
+                final String ifHeader = exchange.getRequestHeaders().getFirst("If");
+                if (collections.contains(parent(path)) == false) {
+                    exchange.sendResponseHeaders(409, -1);
+                } else if (token != null && (ifHeader == null || ifHeader.contains(token) == false)) {
+                    exchange.sendResponseHeaders(423, -1);
+                } else {
+                    final boolean created = files.put(path, body) == null;
+                    modified.put(path, System.currentTimeMillis());
+                    exchange.sendResponseHeaders(created ? 201 : 204, -1);
+                }
+                break;
+            }
+            case "LOCK": {
+                if (lockFor(path) != null) {
+                    exchange.sendResponseHeaders(423, -1);
+                    break;
+                }
+                final String token = "opaquelocktoken:" + UUID.randomUUID();
+                locks.put(path, token);
+                exchange.getResponseHeaders().set("Lock-Token", "<" + token + ">");
+                send(exchange, 200, "<D:prop xmlns:D=\"DAV:\"><D:lockdiscovery><D:activelock>"
+                        + "<D:locktype><D:write/></D:locktype><D:lockscope><D:exclusive/></D:lockscope>"
+                        + "<D:depth>infinity</D:depth><D:timeout>Second-3600</D:timeout>"
+                        + "<D:locktoken><D:href>" + token + "</D:href></D:locktoken>"
+                        + "</D:activelock></D:lockdiscovery></D:prop>");
+                break;
+            }
+            case "UNLOCK": {
+                final String token = exchange.getRequestHeaders().getFirst("Lock-Token");
+                final String held = locks.get(path);
+                if (held != null && token != null && token.contains(held)) {
+                    locks.remove(path);
+                    exchange.sendResponseHeaders(204, -1);
+                } else {
+                    exchange.sendResponseHeaders(409, -1);
+                }
+                break;
+            }
+            case "PROPFIND":
+                propfind(exchange, path);
+                break;
+            default:
+                exchange.sendResponseHeaders(405, -1);
+        }
+    }
+
+    private void propfind(HttpExchange exchange, String path) throws IOException {
+        if (files.containsKey(path) == false && collections.contains(path) == false) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        final List<String> resources = new ArrayList<>();
+        resources.add(path);
+        if (collections.contains(path) && "0".equals(exchange.getRequestHeaders().getFirst("Depth")) == false) {
+            final String prefix = path + "/";
+            for (String child : collections)
+                if (child.startsWith(prefix) && child.indexOf('/', prefix.length()) < 0)
+                    resources.add(child);
+            for (String child : files.keySet())
+                if (child.startsWith(prefix) && child.indexOf('/', prefix.length()) < 0)
+                    resources.add(child);
+        }
+        final SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        final StringBuilder xml = new StringBuilder("<D:multistatus xmlns:D=\"DAV:\">");
+        for (String resource : resources) {
+            final boolean collection = collections.contains(resource);
+            xml.append("<D:response><D:href>").append(resource).append(collection ? "/" : "").append("</D:href>");
+            xml.append("<D:propstat><D:prop>");
+            if (collection) {
+                xml.append("<D:resourcetype><D:collection/></D:resourcetype>");
+            } else {
+                final Long time = modified.get(resource);
+                xml.append("<D:resourcetype/>");
+                xml.append("<D:getcontentlength>").append(files.get(resource).length).append("</D:getcontentlength>");
+                xml.append("<D:getlastmodified>").append(format.format(new Date(time != null ? time : 0L))).append("</D:getlastmodified>");
+            }
+            xml.append("</D:prop><D:status>HTTP/1.1 200 OK</D:status></D:propstat></D:response>");
+        }
+        xml.append("</D:multistatus>");
+        send(exchange, 207, xml.toString());
+    }
+
+    private static void send(HttpExchange exchange, int status, String xml) throws IOException {
+        final byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/xml; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    private static byte[] readBody(InputStream is) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = is.read(buffer)) != -1)
+            baos.write(buffer, 0, read);
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.test.smoke.support;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.redhat.ceylon.cmr.impl.LatencyHistogram;
+
+/**
+ * Runs an operation from N concurrent clients and measures its throughput and latency distribution.
+ */
+public class LoadRunner {
+
+    public interface Operation {
+        /**
+         * @param client the client, from 0 to clients - 1
+         * @param iteration the client's iteration
+         * @return false if the operation failed without throwing
+         */
+        boolean run(int client, int iteration) throws Exception;
+    }
+
+    private final int clients;
+    private final int iterations;
+
+    public LoadRunner(int clients, int iterations) {
+        if (clients < 1 || iterations < 1)
+            throw new IllegalArgumentException("Need at least one client and iteration");
+        this.clients = clients;
+        this.iterations = iterations;
+    }
+
+    /**
+     * Clients start together and each run the operation the given number of iterations.
+     */
+    public Result run(final Operation operation) throws InterruptedException {
+        final Result result = new Result(clients);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(clients);
+        final List<Thread> threads = new ArrayList<>(clients);
+        for (int c = 0; c < clients; c++) {
+            final int client = c;
+            final Thread thread = new Thread("load-client-" + client) {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < iterations; i++) {
+                            final long begin = System.nanoTime();
+                            boolean ok;
+                            try {
+                                ok = operation.run(client, i);
+                            } catch (Throwable t) {
+                                result.firstError.compareAndSet(null, t);
+                                ok = false;
+                            }
+                            result.latencies.record(System.nanoTime() - begin);
+                            if (ok == false)
+                                result.failures.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+        final long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        result.elapsed = System.nanoTime() - begin;
+        return result;
+    }
+
+    public static class Result {
+        private final int clients;
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicReference<Throwable> firstError = new AtomicReference<>();
+        private long elapsed;
+
+        private Result(int clients) {
+            this.clients = clients;
+        }
+
+        public LatencyHistogram getLatencies() {
+            return latencies;
+        }
+
+        public long getOperations() {
+            return latencies.getCount();
+        }
+
+        public long getFailures() {
+            return failures.get();
+        }
+
+        /**
+         * @return the first exception an operation threw, or null
+         */
+        public Throwable getFirstError() {
+            return firstError.get();
+        }
+
+        public long getElapsedNanos() {
+            return elapsed;
+        }
+
+        /**
+         * @return operations per second
+         */
+        public double getThroughput() {
+            return elapsed > 0 ? getOperations() * 1e9 / elapsed : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("clients=%d ops=%d failures=%d %.1f ops/s p50=%.2fms p99=%.2fms max=%.2fms",
+                    clients, getOperations(), getFailures(), getThroughput(),
+                    latencies.getPercentileNanos(50) / 1e6, latencies.getPercentileNanos(99) / 1e6, latencies.getMaxNanos() / 1e6);
+        }
+    }
+}
@@ -28,7 +28,9 @@ import org.junit.runners.Suite.SuiteClasses;
         SmokeTestCase.class,
         HerdTestCase.class,
         BuilderTestCase.class,
-        CallbackTestCase.class
+        CallbackTestCase.class,
+        LoadTestCase.class,
+        WebDAVTestCase.class
 })
 public class AllCmrTests {
 }
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.test.smoke.test;
+
+import java.io.File;
+import java.net.Proxy;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.redhat.ceylon.cmr.api.ArtifactContext;
+import com.redhat.ceylon.cmr.api.ModuleQuery;
+import com.redhat.ceylon.cmr.api.ModuleSearchResult;
+import com.redhat.ceylon.cmr.api.ModuleVersionQuery;
+import com.redhat.ceylon.cmr.api.ModuleVersionResult;
+import com.redhat.ceylon.cmr.api.RepositoryManager;
+import com.redhat.ceylon.cmr.api.RepositoryManagerBuilder;
+import com.redhat.ceylon.cmr.impl.MavenRepositoryHelper;
+import com.redhat.ceylon.common.FileUtil;
+import com.redhat.ceylon.model.cmr.ArtifactResult;
+import com.redhat.ceylon.test.smoke.support.FakeRepositoryServer;
+import com.redhat.ceylon.test.smoke.support.LoadRunner;
+
+/**
+ * Resolution under concurrent load, against {@link FakeRepositoryServer}.
+ * <p/>
+ * The defaults keep this a quick smoke test; to size a mirror or compare connection settings
+ * run it with e.g. <code>-Dceylon.load.clients=64 -Dceylon.load.iterations=500 -Dceylon.load.latency=40</code>
+ * and read the reported throughput and tail latency.
+ */
+public class LoadTestCase extends AbstractTest {
+
+    private static final int MODULES = Integer.getInteger("ceylon.load.modules", 200);
+    private static final int CLIENTS = Integer.getInteger("ceylon.load.clients", 8);
+    private static final int ITERATIONS = Integer.getInteger("ceylon.load.iterations", 20);
+    private static final int LATENCY = Integer.getInteger("ceylon.load.latency", 5);
+    private static final long BANDWIDTH = Long.getLong("ceylon.load.bandwidth", 0L);
+
+    private FakeRepositoryServer server;
+    private File cache;
+
+    @Before
+    public void startServer() throws Exception {
+        server = new FakeRepositoryServer(MODULES, 3).setLatency(LATENCY).setBandwidth(BANDWIDTH).start();
+        cache = Files.createTempDirectory("ceylon-cmrload-").toFile();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+        FileUtil.deleteQuietly(cache);
+    }
+
+    private RepositoryManager getHerdManager() throws Exception {
+        RepositoryManagerBuilder builder = new RepositoryManagerBuilder(cache, log, false, 20000, Proxy.NO_PROXY);
+        builder.addRepository(builder.repositoryBuilder().buildRepository(server.getHerdURL()));
+        return builder.buildRepository();
+    }
+
+    private void report(String name, LoadRunner.Result result) {
+        log.info("[load] " + name + ": " + result + " | " + server);
+        if (result.getFirstError() != null)
+            log.error("[load] " + name + " first error: " + result.getFirstError());
+    }
+
+    @Test
+    public void testHerdResolution() throws Exception {
+        final RepositoryManager manager = getHerdManager();
+        LoadRunner.Result result = new LoadRunner(CLIENTS, ITERATIONS).run(new LoadRunner.Operation() {
+            public boolean run(int client, int iteration) throws Exception {
+                // every client walks the modules from a different place, so some requests overlap
+                final int index = (client * 7 + iteration) % MODULES;
+                ArtifactContext context = new ArtifactContext(FakeRepositoryServer.moduleName(index), FakeRepositoryServer.VERSION, ArtifactContext.JS);
+                ArtifactResult artifact = manager.getArtifactResult(context);
+                return artifact != null && artifact.artifact().isFile();
+            }
+        });
+        report("herd resolution", result);
+        Assert.assertNull(String.valueOf(result.getFirstError()), result.getFirstError());
+        Assert.assertEquals(0, result.getFailures());
+        Assert.assertEquals(CLIENTS * ITERATIONS, result.getOperations());
+    }
+
+    @Test
+    public void testHerdSearch() throws Exception {
+        final RepositoryManager manager = getHerdManager();
+        LoadRunner.Result result = new LoadRunner(CLIENTS, ITERATIONS).run(new LoadRunner.Operation() {
+            public boolean run(int client, int iteration) throws Exception {
+                final String name = FakeRepositoryServer.moduleName((client + iteration) % MODULES);
+                switch (iteration % 3) {
+                    case 0: {
+                        ModuleQuery query = new ModuleQuery(FakeRepositoryServer.MODULE_PREFIX + (iteration % 10), ModuleQuery.Type.JS);
+                        ModuleSearchResult modules = manager.completeModules(query);
+                        return modules.getCount() > 0;
+                    }
+                    case 1: {
+                        ModuleVersionResult versions = manager.completeVersions(new ModuleVersionQuery(name, null, ModuleQuery.Type.JS));
+                        return versions.getVersions().size() == 3;
+                    }
+                    default: {
+                        ModuleQuery query = new ModuleQuery(name, ModuleQuery.Type.JS);
+                        query.setStart(0L);
+                        query.setCount(20L);
+                        ModuleSearchResult modules = manager.searchModules(query);
+                        return modules.getCount() > 0;
+                    }
+                }
+            }
+        });
+        report("herd search", result);
+        Assert.assertNull(String.valueOf(result.getFirstError()), result.getFirstError());
+        Assert.assertEquals(0, result.getFailures());
+    }
+
+    @Test
+    public void testMavenResolution() throws Exception {
+        final RepositoryManager manager = new RepositoryManagerBuilder(cache, log, false, 20000, Proxy.NO_PROXY)
+                .addRepository(MavenRepositoryHelper.getMavenRepository(server.getMavenURL(), log, false, 20000, Proxy.NO_PROXY))
+                .buildRepository();
+        LoadRunner.Result result = new LoadRunner(CLIENTS, ITERATIONS).run(new LoadRunner.Operation() {
+            public boolean run(int client, int iteration) throws Exception {
+                final int index = (client * 7 + iteration) % MODULES;
+                ArtifactContext context = new ArtifactContext(FakeRepositoryServer.artifactName(index), FakeRepositoryServer.VERSION, ArtifactContext.JAR);
+                ArtifactResult artifact = manager.getArtifactResult(context);
+                return artifact != null && artifact.artifact().isFile();
+            }
+        });
+        report("maven resolution", result);
+        Assert.assertNull(String.valueOf(result.getFirstError()), result.getFirstError());
+        Assert.assertEquals(0, result.getFailures());
+    }
+
+    @Test
+    public void testFaultInjection() throws Exception {
+        server.setErrorRate(0.2).setMaxConnections(2);
+        final RepositoryManager manager = getHerdManager();
+        LoadRunner.Result result = new LoadRunner(CLIENTS, ITERATIONS).run(new LoadRunner.Operation() {
+            public boolean run(int client, int iteration) throws Exception {
+                final int index = (client * ITERATIONS + iteration) % MODULES;
+                ArtifactContext context = new ArtifactContext(FakeRepositoryServer.moduleName(index), FakeRepositoryServer.VERSION, ArtifactContext.JS);
+                return manager.getArtifactResult(context) != null;
+            }
+        });
+        report("fault injection", result);
+        // everything got an answer, failed lookups included
+        Assert.assertEquals(CLIENTS * ITERATIONS, result.getOperations());
+        Assert.assertTrue(server.toString(), server.getErrors() + server.getRejected() > 0);
+        Assert.assertTrue(server.toString(), server.getMaxActive() <= 2);
+    }
+}
@@ -22,20 +22,46 @@ import static org.junit.Assert.assertFalse;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.jar.Manifest;
+import java.util.zip.ZipFile;
 
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import com.redhat.ceylon.cmr.api.ArtifactCallback;
 import com.redhat.ceylon.cmr.api.ArtifactContext;
+import com.redhat.ceylon.cmr.api.AsyncRepositoryManager;
+import com.redhat.ceylon.cmr.api.Cancellation;
 import com.redhat.ceylon.cmr.api.CmrRepository;
 import com.redhat.ceylon.cmr.api.DebianVersionComparator;
 import com.redhat.ceylon.cmr.api.MavenVersionComparator;
@@ -47,21 +73,43 @@ import com.redhat.ceylon.cmr.api.ModuleSearchResult;
 import com.redhat.ceylon.cmr.api.ModuleSearchResult.ModuleDetails;
 import com.redhat.ceylon.cmr.api.ModuleVersionArtifact;
 import com.redhat.ceylon.cmr.api.ModuleVersionDetails;
+import com.redhat.ceylon.cmr.api.ModuleVersionQuery;
+import com.redhat.ceylon.cmr.api.ModuleVersionResult;
 import com.redhat.ceylon.cmr.api.Overrides;
 import com.redhat.ceylon.cmr.api.RepositoryBuilder;
 import com.redhat.ceylon.cmr.api.RepositoryManager;
 import com.redhat.ceylon.cmr.api.RepositoryManagerBuilder;
+import com.redhat.ceylon.cmr.impl.CacheCollector;
+import com.redhat.ceylon.cmr.impl.CachingProxyServer;
+import com.redhat.ceylon.cmr.impl.ContentAddressedStore;
 import com.redhat.ceylon.cmr.impl.DefaultRepository;
+import com.redhat.ceylon.cmr.impl.FileContentStore;
+import com.redhat.ceylon.cmr.impl.FileContentStoreWatcher;
+import com.redhat.ceylon.cmr.impl.IOUtils;
 import com.redhat.ceylon.cmr.impl.JDKRepository;
+import com.redhat.ceylon.cmr.impl.MavenRepository;
 import com.redhat.ceylon.cmr.impl.MavenRepositoryHelper;
 import com.redhat.ceylon.cmr.impl.RemoteContentStore;
+import com.redhat.ceylon.cmr.impl.ResolutionStatistics;
+import com.redhat.ceylon.cmr.impl.ShaSigner;
 import com.redhat.ceylon.cmr.impl.SimpleRepositoryManager;
+import com.redhat.ceylon.cmr.impl.StoreHealth;
+import com.redhat.ceylon.cmr.impl.TransferScheduler;
+import com.redhat.ceylon.cmr.impl.ZipFolderInputStream;
+import com.redhat.ceylon.cmr.spi.ContentOptions;
+import com.redhat.ceylon.cmr.spi.Node;
 import com.redhat.ceylon.cmr.spi.OpenNode;
 import com.redhat.ceylon.common.Constants;
+import com.redhat.ceylon.common.FileUtil;
 import com.redhat.ceylon.model.cmr.ArtifactResult;
 import com.redhat.ceylon.model.cmr.ImportType;
+import com.redhat.ceylon.model.cmr.RepositoryException;
 import com.redhat.ceylon.test.smoke.support.InMemoryContentStore;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
 /**
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
  */
@@ -75,6 +123,109 @@ public class SmokeTestCase extends AbstractTest {
         Assert.assertNotNull("Module 'org.jboss.acme-1.0.0.Final' not found", acme);
     }
 
+    @Test
+    public void testAsyncNavigation() throws Exception {
+        AsyncRepositoryManager manager = new AsyncRepositoryManager(getRepositoryManager());
+        try {
+            Future<ArtifactResult> acme = manager.getArtifactResult("org.jboss.acme", "1.0.0.Final");
+            Future<ArtifactResult> missing = manager.getArtifactResult("org.jboss.acme", "0.0.0.Missing");
+            Assert.assertNotNull("Module 'org.jboss.acme-1.0.0.Final' not found", acme.get());
+            Assert.assertNull(missing.get());
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    @Test
+    public void testAsyncCancellation() throws Exception {
+        final CountDownLatch requested = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    requested.countDown();
+                    // much slower than the test waits for
+                    release.await(60, TimeUnit.SECONDS);
+                    exchange.sendResponseHeaders(404, -1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+        File cache = Files.createTempDirectory("ceylon-cmrcancel-").toFile();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort();
+            RepositoryManager manager = new RepositoryManagerBuilder(cache, log, false, 60000, java.net.Proxy.NO_PROXY)
+                    .addRepository(new DefaultRepository(new RemoteContentStore(url, log, false, 60000, java.net.Proxy.NO_PROXY).createRoot()))
+                    .buildRepository();
+            Future<ArtifactResult> slow = new AsyncRepositoryManager(manager, executor).getArtifactResult("com.acme.slow", "1.0");
+            Assert.assertTrue(requested.await(10, TimeUnit.SECONDS));
+            long start = System.currentTimeMillis();
+            Assert.assertTrue(slow.cancel(true));
+            // the lookup gives up its connection instead of waiting for the server
+            executor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+            Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+            server.stop(0);
+            FileUtil.deleteQuietly(cache);
+        }
+    }
+
+    @Test
+    public void testCancellationRegistration() throws Exception {
+        final AtomicInteger closed = new AtomicInteger();
+        Closeable resource = new Closeable() {
+            public void close() {
+                closed.incrementAndGet();
+            }
+        };
+        Cancellation cancellation = new Cancellation();
+        Cancellation.setCancellation(cancellation);
+        try {
+            // done with it, so cancelling leaves it alone
+            Cancellation.register(resource).close();
+            cancellation.cancel();
+            Assert.assertEquals(0, closed.get());
+        } finally {
+            Cancellation.setCancellation(null);
+        }
+        cancellation = new Cancellation();
+        Cancellation.setCancellation(cancellation);
+        try {
+            Cancellation.register(resource);
+            cancellation.cancel();
+            Assert.assertEquals(1, closed.get());
+        } finally {
+            Cancellation.setCancellation(null);
+        }
+    }
+
+    @Test
+    public void testResolutionStatistics() throws Exception {
+        ResolutionStatistics stats = new ResolutionStatistics();
+        RepositoryManager manager = getRepositoryManagerBuilder(false, 60000, java.net.Proxy.NO_PROXY)
+                .resolutionMonitor(stats).buildRepository();
+
+        Assert.assertNotNull(manager.getArtifact("org.jboss.acme", "1.0.0.Final"));
+        Assert.assertNull(manager.getArtifact("org.jboss.acme", "0.0.0.Missing"));
+
+        Assert.assertTrue(stats.getLookups() >= 2);
+        Assert.assertTrue(stats.getNotFound() >= 1);
+        long hits = 0;
+        for (ResolutionStatistics.RepositoryStatistics repo : stats.getRepositoryStatistics())
+            hits += repo.getHits();
+        Assert.assertTrue(hits >= 1);
+        Assert.assertTrue(stats.dump().contains("Lookups: "));
+    }
+
     @Test
     public void testNoVersion() throws Exception {
         RepositoryManager manager = getRepositoryManager();
@@ -236,6 +387,186 @@ public class SmokeTestCase extends AbstractTest {
         }
     }
 
+    @Test
+    public void testZipFolderInputStream() throws Exception {
+        File docs = new File(getFolders(), "docs");
+        File zip = Files.createTempFile("ceylon-cmrzip-", ".zip").toFile();
+        try {
+            String sha1;
+            try (ZipFolderInputStream zipped = new ZipFolderInputStream(docs)) {
+                Assert.assertNull(zipped.getSha1());
+                Files.copy(zipped, zip.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                sha1 = zipped.getSha1();
+            }
+            Assert.assertEquals(ShaSigner.sha1(zip), sha1);
+            // same entries as a zip written to disk
+            File expected = IOUtils.zipFolder(docs);
+            try (ZipFile actualZip = new ZipFile(zip); ZipFile expectedZip = new ZipFile(expected)) {
+                Assert.assertEquals(expectedZip.size(), actualZip.size());
+                Assert.assertNotNull(actualZip.getEntry("x.txt"));
+                Assert.assertNotNull(actualZip.getEntry("sub/y.txt"));
+            } finally {
+                expected.delete();
+            }
+        } finally {
+            zip.delete();
+        }
+    }
+
+    @Test
+    public void testParallelExtractArchive() throws Exception {
+        File dir = Files.createTempDirectory("ceylon-cmrunzip-").toFile();
+        try {
+            File folder = new File(dir, "folder");
+            for (int i = 0; i < 100; i++) {
+                File file = new File(folder, "p" + (i % 5) + "/f" + i + ".txt");
+                Assert.assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+                Files.write(file.toPath(), ("content " + i).getBytes(StandardCharsets.UTF_8));
+            }
+            File zip = IOUtils.zipFolder(folder);
+            try {
+                File out = new File(dir, "out");
+                IOUtils.extractArchive(zip, out, 4);
+                for (int i = 0; i < 100; i++) {
+                    File file = new File(out, "p" + (i % 5) + "/f" + i + ".txt");
+                    Assert.assertEquals("content " + i, new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+                }
+            } finally {
+                zip.delete();
+            }
+        } finally {
+            FileUtil.deleteQuietly(dir);
+        }
+    }
+
+    @Test
+    public void testWatchedFileContentStore() throws Exception {
+        File dir = Files.createTempDirectory("ceylon-cmrwatch-").toFile();
+        FileContentStore store = new FileContentStore(dir);
+        OpenNode root = store.createRoot();
+        FileContentStoreWatcher watcher = store.watch(root);
+        try {
+            Assert.assertNull(root.getChild("foo"));
+            long seen = watcher.getChanges();
+            Assert.assertTrue(new File(dir, "foo").createNewFile());
+            // every change the watcher handles is a chance to see it
+            while (root.getChild("foo") == null) {
+                long now = watcher.awaitChanges(seen, 10, TimeUnit.SECONDS);
+                Assert.assertTrue("New file not seen without refresh", now > seen);
+                seen = now;
+            }
+        } finally {
+            watcher.close();
+            FileUtil.deleteQuietly(dir);
+        }
+    }
+
+    @Test
+    public void testFileContentStoreAttributesRefresh() throws Exception {
+        File dir = Files.createTempDirectory("ceylon-cmrattrs-").toFile();
+        try {
+            File file = new File(dir, "a.txt");
+            Files.write(file.toPath(), "abc".getBytes(StandardCharsets.UTF_8));
+            long before = (System.currentTimeMillis() / 1000 - 60) * 1000;
+            Assert.assertTrue(file.setLastModified(before));
+            FileContentStore store = new FileContentStore(dir);
+            store.setAttributesTtl(50);
+            Node node = null;
+            for (Node child : store.createRoot().getChildren())
+                if (child.getLabel().equals("a.txt"))
+                    node = child;
+            Assert.assertNotNull(node);
+            Assert.assertEquals(3, node.getSize());
+            Assert.assertEquals(before, node.getLastModified());
+
+            // rewritten behind the store's back
+            Files.write(file.toPath(), "abcdef".getBytes(StandardCharsets.UTF_8));
+            long after = before + 30000;
+            Assert.assertTrue(file.setLastModified(after));
+            Thread.sleep(100);
+            Assert.assertEquals(6, node.getSize());
+            Assert.assertEquals(after, node.getLastModified());
+        } finally {
+            FileUtil.deleteQuietly(dir);
+        }
+    }
+
+    @Test
+    public void testContentAddressedFileContentStore() throws Exception {
+        File dir = Files.createTempDirectory("ceylon-cmrcas-").toFile();
+        try {
+            FileContentStore store = new FileContentStore(new File(dir, "repo"));
+            ContentAddressedStore blobs = new ContentAddressedStore(new File(dir, "blobs"));
+            store.setContentAddressedStore(blobs);
+            OpenNode root = store.createRoot();
+            byte[] content = "same content".getBytes(StandardCharsets.UTF_8);
+            root.addContent("a.txt", new ByteArrayInputStream(content), ContentOptions.DEFAULT);
+            root.addContent("b.txt", new ByteArrayInputStream(content), ContentOptions.DEFAULT);
+
+            File a = new File(dir, "repo/a.txt");
+            File b = new File(dir, "repo/b.txt");
+            Assert.assertArrayEquals(content, Files.readAllBytes(a.toPath()));
+            Assert.assertArrayEquals(content, Files.readAllBytes(b.toPath()));
+            // stored once
+            File[] shards = blobs.getRoot().listFiles();
+            Assert.assertNotNull(shards);
+            int count = 0;
+            for (File shard : shards)
+                if (shard.isDirectory())
+                    count += shard.list().length;
+            Assert.assertEquals(1, count);
+            // the same file, where the file system can tell
+            Object key = Files.readAttributes(a.toPath(), BasicFileAttributes.class).fileKey();
+            Assume.assumeNotNull(key);
+            Assert.assertEquals(key, Files.readAttributes(b.toPath(), BasicFileAttributes.class).fileKey());
+
+            // still referenced
+            blobs.setGracePeriod(0);
+            Assert.assertEquals(0, blobs.purge());
+            Assert.assertTrue(a.delete());
+            Assert.assertTrue(b.delete());
+            // unreferenced, but too young
+            blobs.setGracePeriod(ContentAddressedStore.DEFAULT_GRACE_PERIOD);
+            Assert.assertEquals(0, blobs.purge());
+            blobs.setGracePeriod(0);
+            Assert.assertEquals(1, blobs.purge());
+            Assert.assertEquals(0, blobs.purge());
+        } finally {
+            FileUtil.deleteQuietly(dir);
+        }
+    }
+
+    @Test
+    public void testContentAddressedStoreIncrementalPurge() throws Exception {
+        File dir = Files.createTempDirectory("ceylon-cmrcas-").toFile();
+        try {
+            ContentAddressedStore blobs = new ContentAddressedStore(new File(dir, "blobs"));
+            blobs.setGracePeriod(0);
+            // blobs in different shards, which nothing links to anymore
+            Set<String> shards = new HashSet<>();
+            for (int i = 0; shards.size() < 3; i++) {
+                File file = new File(dir, "file" + i);
+                String sha1 = blobs.put(file, new ByteArrayInputStream(("content " + i).getBytes(StandardCharsets.UTF_8)));
+                if (shards.add(sha1.substring(0, 2)) == false)
+                    Assert.assertTrue(blobs.getBlob(sha1).delete());
+                Assert.assertTrue(file.delete());
+            }
+            try {
+                Files.getAttribute(blobs.getRoot().toPath(), "unix:nlink");
+            } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                Assume.assumeNoException(e); // purge needs link counts
+            }
+            // a shard per call, each one once
+            Assert.assertEquals(1, blobs.purge(1));
+            Assert.assertEquals(1, blobs.purge(1));
+            Assert.assertEquals(1, blobs.purge(1));
+            Assert.assertEquals(0, blobs.purge(1));
+            Assert.assertEquals(0, blobs.purge());
+        } finally {
+            FileUtil.deleteQuietly(dir);
+        }
+    }
+
     @Test
     public void testRemoteContent() throws Exception {
         String repoURL = "http://jboss-as7-modules-repository.googlecode.com/svn/trunk/ceylon";
@@ -287,6 +618,627 @@ public class SmokeTestCase extends AbstractTest {
         // No remove, as we don't wanna delete from mvn manager
     }
 
+    @Test
+    public void testMavenPomDependencies() throws Exception {
+        File dir = Files.createTempDirectory("ceylon-cmrpom-").toFile();
+        try {
+            writeFile(new File(dir, "org/acme/acme-parent/1.0/acme-parent-1.0.pom"),
+                    "<project><groupId>org.acme</groupId><artifactId>acme-parent</artifactId><version>1.0</version>"
+                    + "<properties><lib.version>2.0</lib.version></properties>"
+                    + "<dependencyManagement><dependencies>"
+                    + "<dependency><groupId>org.acme</groupId><artifactId>lib</artifactId><version>${lib.version}</version></dependency>"
+                    + "</dependencies></dependencyManagement>"
+                    + "<dependencies><dependency><groupId>org.acme</groupId><artifactId>common</artifactId><version>1.1</version></dependency></dependencies>"
+                    + "</project>");
+            writeFile(new File(dir, "org/acme/app/1.0/app-1.0.pom"),
+                    "<project><parent><groupId>org.acme</groupId><artifactId>acme-parent</artifactId><version>1.0</version></parent>"
+                    + "<artifactId>app</artifactId>"
+                    + "<dependencies>"
+                    + "<dependency><groupId>org.acme</groupId><artifactId>lib</artifactId></dependency>"
+                    + "<dependency><groupId>org.acme</groupId><artifactId>plugin</artifactId><version>${project.version}</version><optional>true</optional></dependency>"
+                    + "<dependency><groupId>junit</groupId><artifactId>junit</artifactId><version>4.11</version><scope>test</scope></dependency>"
+                    + "</dependencies></project>");
+            writeFile(new File(dir, "org/acme/app/1.0/app-1.0.jar"), "not really a jar");
+
+            RepositoryManager manager = new SimpleRepositoryManager(MavenRepositoryHelper.getMavenRepository(dir), log);
+            ArtifactResult result = manager.getArtifactResult(new ArtifactContext("org.acme:app", "1.0", ArtifactContext.JAR));
+            Assert.assertNotNull(result);
+            Map<String, ArtifactResult> deps = new HashMap<>();
+            for (ArtifactResult dep : result.dependencies())
+                deps.put(dep.name(), dep);
+            Assert.assertEquals(deps.keySet().toString(), 3, deps.size());
+            Assert.assertEquals("1.1", deps.get("org.acme:common").version());
+            Assert.assertEquals("2.0", deps.get("org.acme:lib").version());
+            Assert.assertEquals("1.0", deps.get("org.acme:plugin").version());
+            Assert.assertEquals(ImportType.OPTIONAL, deps.get("org.acme:plugin").importType());
+        } finally {
+            FileUtil.deleteQuietly(dir);
+        }
+    }
+
+    @Test
+    public void testMavenPomChildPropertiesApplyToInherited() throws Exception {
+        File dir = Files.createTempDirectory("ceylon-cmrpom-").toFile();
+        try {
+            writeFile(new File(dir, "org/acme/acme-parent/1.0/acme-parent-1.0.pom"),
+                    "<project><groupId>org.acme</groupId><artifactId>acme-parent</artifactId><version>1.0</version>"
+                    + "<properties><lib.version>2.0</lib.version><common.version>1.1</common.version></properties>"
+                    + "<dependencyManagement><dependencies>"
+                    + "<dependency><groupId>org.acme</groupId><artifactId>lib</artifactId><version>${lib.version}</version><optional>true</optional></dependency>"
+                    + "</dependencies></dependencyManagement>"
+                    + "<dependencies>"
+                    + "<dependency><groupId>org.acme</groupId><artifactId>common</artifactId><version>${common.version}</version></dependency>"
+                    + "<dependency><groupId>org.acme</groupId><artifactId>lib</artifactId></dependency>"
+                    + "</dependencies>"
+                    + "</project>");
+            writeFile(new File(dir, "org/acme/app/1.0/app-1.0.pom"),
+                    "<project><parent><groupId>org.acme</groupId><artifactId>acme-parent</artifactId><version>1.0</version></parent>"
+                    + "<artifactId>app</artifactId>"
+                    + "<properties><lib.version>3.0</lib.version><common.version>1.2</common.version></properties>"
+                    + "</project>");
+            writeFile(new File(dir, "org/acme/app/1.0/app-1.0.jar"), "not really a jar");
+
+            RepositoryManager manager = new SimpleRepositoryManager(MavenRepositoryHelper.getMavenRepository(dir), log);
+            ArtifactResult result = manager.getArtifactResult(new ArtifactContext("org.acme:app", "1.0", ArtifactContext.JAR));
+            Assert.assertNotNull(result);
+            Map<String, ArtifactResult> deps = new HashMap<>();
+            for (ArtifactResult dep : result.dependencies())
+                deps.put(dep.name(), dep);
+            Assert.assertEquals(deps.keySet().toString(), 2, deps.size());
+            // inherited, but interpolated with the child's properties
+            Assert.assertEquals("1.2", deps.get("org.acme:common").version());
+            // inherited, and managed
+            Assert.assertEquals("3.0", deps.get("org.acme:lib").version());
+            Assert.assertEquals(ImportType.OPTIONAL, deps.get("org.acme:lib").importType());
+        } finally {
+            FileUtil.deleteQuietly(dir);
+        }
+    }
+
+    @Test
+    public void testMavenRemoteMetadataVersions() throws Exception {
+        final byte[] metadata = ("<metadata><groupId>org.acme</groupId><artifactId>app</artifactId>"
+                + "<versioning><latest>2.0-SNAPSHOT</latest><release>1.1</release>"
+                + "<versions><version>1.0</version><version>1.1</version><version>2.0-SNAPSHOT</version></versions>"
+                + "</versioning></metadata>").getBytes(StandardCharsets.UTF_8);
+        final AtomicInteger requests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                if (exchange.getRequestURI().getPath().equals("/maven/org/acme/app/maven-metadata.xml")) {
+                    requests.incrementAndGet();
+                    exchange.sendResponseHeaders(200, metadata.length);
+                    exchange.getResponseBody().write(metadata);
+                } else {
+                    exchange.sendResponseHeaders(404, -1);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort() + "/maven";
+            MavenRepository repository = (MavenRepository) MavenRepositoryHelper.getMavenRepository(url, log, false, 10000, java.net.Proxy.NO_PROXY);
+            ModuleVersionQuery query = new ModuleVersionQuery("org.acme:app", null, ModuleQuery.Type.JVM);
+            ModuleVersionResult result = new ModuleVersionResult("org.acme:app");
+            repository.completeVersions(query, result);
+            Assert.assertEquals("[1.0, 1.1, 2.0-SNAPSHOT]", result.getVersions().keySet().toString());
+            Assert.assertEquals("1.1", repository.getLatestVersion("org.acme:app"));
+            // cached
+            result = new ModuleVersionResult("org.acme:app");
+            repository.completeVersions(new ModuleVersionQuery("org.acme:app", "1.", ModuleQuery.Type.JVM), result);
+            Assert.assertEquals("[1.0, 1.1]", result.getVersions().keySet().toString());
+            Assert.assertEquals(1, requests.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testResumableDownload() throws Exception {
+        final byte[] content = new byte[64 * 1024];
+        new java.util.Random(7).nextBytes(content);
+        final String path = "/com/acme/big/1.0/com.acme.big-1.0.car";
+        // responses cut in the middle, and the Range of every GET
+        final AtomicInteger cuts = new AtomicInteger(2);
+        final List<String> ranges = new java.util.concurrent.CopyOnWriteArrayList<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    if (exchange.getRequestURI().getPath().equals(path) == false) {
+                        exchange.sendResponseHeaders(404, -1);
+                        return;
+                    }
+                    exchange.getResponseHeaders().set("ETag", "\"v1\"");
+                    if (exchange.getRequestMethod().equals("HEAD")) {
+                        exchange.getResponseHeaders().set("Content-Length", String.valueOf(content.length));
+                        exchange.sendResponseHeaders(200, -1);
+                        return;
+                    }
+                    final String range = exchange.getRequestHeaders().getFirst("Range");
+                    ranges.add(String.valueOf(range));
+                    int from = 0;
+                    if (range != null && "\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-Range"))) {
+                        from = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+                        exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + (content.length - 1) + "/" + content.length);
+                        exchange.sendResponseHeaders(206, content.length - from);
+                    } else {
+                        exchange.sendResponseHeaders(200, content.length);
+                    }
+                    final int to = cuts.getAndDecrement() > 0 ? from + (content.length - from) / 2 : content.length;
+                    exchange.getResponseBody().write(content, from, to - from);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+        File cache = Files.createTempDirectory("ceylon-cmrresume-").toFile();
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort();
+            ArtifactContext context = new ArtifactContext("com.acme.big", "1.0", ArtifactContext.CAR);
+            context.setIgnoreSHA(true);
+
+            // broken twice, resumed from where it broke each time
+            RepositoryManager manager = new RepositoryManagerBuilder(cache, log, false, 20000, java.net.Proxy.NO_PROXY)
+                    .addRepository(new DefaultRepository(new RemoteContentStore(url, log, false, 20000, java.net.Proxy.NO_PROXY).createRoot()))
+                    .buildRepository();
+            File file = manager.getArtifact(context);
+            Assert.assertNotNull(file);
+            Assert.assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+            Assert.assertEquals("[null, bytes=32768-, bytes=49152-]", ranges.toString());
+            Assert.assertFalse(new File(file.getPath() + FileContentStore.PARTIAL).exists());
+
+            // broken more often than we retry: the partial file is kept, and the next attempt continues it
+            Assert.assertTrue(file.delete());
+            ranges.clear();
+            cuts.set(100);
+            manager = new RepositoryManagerBuilder(cache, log, false, 20000, java.net.Proxy.NO_PROXY)
+                    .addRepository(new DefaultRepository(new RemoteContentStore(url, log, false, 20000, java.net.Proxy.NO_PROXY).createRoot()))
+                    .buildRepository();
+            try {
+                manager.getArtifact(context);
+                Assert.fail("Download should have failed");
+            } catch (RepositoryException e) {
+                // expected
+            }
+            File partial = new File(file.getPath() + FileContentStore.PARTIAL);
+            Assert.assertTrue(partial.length() > 0);
+            long kept = partial.length();
+            ranges.clear();
+            cuts.set(0);
+            manager = new RepositoryManagerBuilder(cache, log, false, 20000, java.net.Proxy.NO_PROXY)
+                    .addRepository(new DefaultRepository(new RemoteContentStore(url, log, false, 20000, java.net.Proxy.NO_PROXY).createRoot()))
+                    .buildRepository();
+            final AtomicLong progress = new AtomicLong();
+            context.setCallback(new ArtifactCallback() {
+                public void start(String nodeFullPath, long size, String contentStore) {
+                }
+
+                public void read(byte[] bytes, int length) {
+                    progress.addAndGet(length);
+                }
+
+                public void done(File localFile) {
+                }
+
+                public void error(File localFile, Throwable err) {
+                }
+            });
+            file = manager.getArtifact(context);
+            Assert.assertNotNull(file);
+            Assert.assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+            Assert.assertEquals("[null, bytes=" + kept + "-]", ranges.toString());
+            // the resumed part counts too
+            Assert.assertEquals(content.length, progress.get());
+            Assert.assertFalse(partial.exists());
+        } finally {
+            server.stop(0);
+            FileUtil.deleteQuietly(cache);
+        }
+    }
+
+    @Test
+    public void testMirrorGroup() throws Exception {
+        final byte[] content = "the real content".getBytes(StandardCharsets.UTF_8);
+        File source = File.createTempFile("mirrored-", ".car");
+        Files.write(source.toPath(), content);
+        final byte[] sha1 = ShaSigner.sha1(source).getBytes(StandardCharsets.US_ASCII);
+        Assert.assertTrue(source.delete());
+        final String path = "/com/acme/mirrored/1.0/com.acme.mirrored-1.0.car";
+        // "bad" serves corrupt content under the right SHA-1, "good" serves it right
+        final java.util.concurrent.ConcurrentMap<String, AtomicInteger> gets = new java.util.concurrent.ConcurrentHashMap<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    String uri = exchange.getRequestURI().getPath();
+                    String mirror = uri.substring(0, uri.indexOf('/', 1));
+                    String file = uri.substring(mirror.length());
+                    byte[] body;
+                    if (file.equals(path))
+                        body = mirror.equals("/bad") ? "corrupted content".getBytes(StandardCharsets.UTF_8) : content;
+                    else if (file.equals(path + ".sha1"))
+                        body = sha1;
+                    else {
+                        exchange.sendResponseHeaders(404, -1);
+                        return;
+                    }
+                    if (exchange.getRequestMethod().equals("HEAD")) {
+                        exchange.getResponseHeaders().set("Content-Length", String.valueOf(body.length));
+                        exchange.sendResponseHeaders(200, -1);
+                        return;
+                    }
+                    if (file.equals(path)) {
+                        gets.putIfAbsent(mirror, new AtomicInteger());
+                        gets.get(mirror).incrementAndGet();
+                    }
+                    exchange.sendResponseHeaders(200, body.length);
+                    exchange.getResponseBody().write(body);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+        File cache = Files.createTempDirectory("ceylon-cmrmirror-").toFile();
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort();
+            CmrRepository bad = new DefaultRepository(new RemoteContentStore(url + "/bad", log, false, 20000, java.net.Proxy.NO_PROXY).createRoot());
+            CmrRepository good = new DefaultRepository(new RemoteContentStore(url + "/good", log, false, 20000, java.net.Proxy.NO_PROXY).createRoot());
+            RepositoryManager manager = new RepositoryManagerBuilder(cache, log, false, 20000, java.net.Proxy.NO_PROXY)
+                    .addMirrorGroup(bad, good)
+                    .buildRepository();
+
+            // the first mirror fails the SHA-1 check, the download fails over to the second one
+            File file = manager.getArtifact(new ArtifactContext("com.acme.mirrored", "1.0", ArtifactContext.CAR));
+            Assert.assertNotNull(file);
+            Assert.assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+            Assert.assertEquals(1, gets.get("/bad").get());
+            Assert.assertEquals(1, gets.get("/good").get());
+
+            // and the failed mirror now comes last
+            Assert.assertTrue(file.delete());
+            file = manager.getArtifact(new ArtifactContext("com.acme.mirrored", "1.0", ArtifactContext.CAR));
+            Assert.assertNotNull(file);
+            Assert.assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+            Assert.assertEquals(1, gets.get("/bad").get());
+            Assert.assertEquals(2, gets.get("/good").get());
+        } finally {
+            server.stop(0);
+            FileUtil.deleteQuietly(cache);
+        }
+    }
+
+    @Test
+    public void testStoreCircuitBreaker() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicInteger status = new AtomicInteger(503);
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                exchange.sendResponseHeaders(status.get(), -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort();
+            RemoteContentStore store = new RemoteContentStore(url, log, false, 20000, java.net.Proxy.NO_PROXY);
+            store.getHealth().setRetryInterval(50);
+            OpenNode root = store.createRoot();
+            for (int i = 0; i < 10; i++)
+                Assert.assertNull(root.getChild("com").getChild("acme").getChild("m" + i).getChild("1.0").getChild("com.acme.m" + i + "-1.0.car"));
+            // three server errors (the Herd check and two lookups), then fast misses
+            Assert.assertEquals(3, store.getHealth().getFailures());
+            Assert.assertEquals(3, requests.get());
+            Assert.assertTrue(store.getHealth().getFastMisses() >= 8);
+            Assert.assertEquals(StoreHealth.State.DOWN, store.getHealth().getState());
+            Assert.assertTrue(store.isOffline());
+            Assert.assertTrue(store.getDisplayString(), store.getDisplayString().endsWith("(unreachable)"));
+
+            // the background probe brings it back
+            status.set(404);
+            for (int i = 0; i < 100 && store.getHealth().getState() == StoreHealth.State.DOWN; i++)
+                Thread.sleep(50);
+            Assert.assertEquals(StoreHealth.State.UP, store.getHealth().getState());
+            Assert.assertFalse(store.isOffline());
+            requests.set(0);
+            Assert.assertNull(store.createRoot().getChild("com").getChild("acme").getChild("x").getChild("1.0").getChild("com.acme.x-1.0.car"));
+            Assert.assertEquals(1, requests.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testStoreHealthStopsProbing() throws Exception {
+        final AtomicInteger probes = new AtomicInteger();
+        Callable<Boolean> probe = new Callable<Boolean>() {
+            public Boolean call() {
+                probes.incrementAndGet();
+                return false;
+            }
+        };
+        StoreHealth health = new StoreHealth("test", probe, log);
+        health.setFailureThreshold(1);
+        health.setRetryInterval(20);
+        health.failure("down");
+        for (int i = 0; i < 100 && probes.get() == 0; i++)
+            Thread.sleep(20);
+        Assert.assertTrue(probes.get() > 0);
+
+        // closed, it stays down and is not probed anymore
+        health.close();
+        Thread.sleep(100);
+        int probed = probes.get();
+        Thread.sleep(500);
+        Assert.assertEquals(probed, probes.get());
+        Assert.assertEquals(StoreHealth.State.DOWN, health.getState());
+
+        // a pending probe does not keep a discarded store's health alive
+        health = new StoreHealth("test", probe, log);
+        health.setFailureThreshold(1);
+        health.setRetryInterval(60000);
+        health.failure("down");
+        WeakReference<StoreHealth> ref = new WeakReference<>(health);
+        health = null;
+        for (int i = 0; i < 50 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        Assert.assertNull(ref.get());
+    }
+
+    @Test
+    public void testTransferScheduler() throws Exception {
+        Assert.assertEquals(TransferScheduler.Priority.CRITICAL, TransferScheduler.Priority.of("com.acme.foo-1.0.car"));
+        Assert.assertEquals(TransferScheduler.Priority.CRITICAL, TransferScheduler.Priority.of("foo-1.0.jar.sha1"));
+        Assert.assertEquals(TransferScheduler.Priority.BACKGROUND, TransferScheduler.Priority.of("foo-1.0-sources.jar"));
+        Assert.assertEquals(TransferScheduler.Priority.BACKGROUND, TransferScheduler.Priority.of("com.acme.foo-1.0.src"));
+        Assert.assertEquals(TransferScheduler.Priority.BACKGROUND, TransferScheduler.Priority.of("module-doc"));
+
+        // one slot: binaries go before sources, then first come first served
+        final TransferScheduler scheduler = new TransferScheduler(1, 1);
+        TransferScheduler.Slot slot = scheduler.acquire("a", TransferScheduler.Priority.BACKGROUND);
+        // the thread already holds a slot, so this one does not wait
+        scheduler.acquire("b", TransferScheduler.Priority.NORMAL).close();
+        Assert.assertEquals(1, scheduler.getRunning());
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> threads = new ArrayList<>();
+        for (String name : new String[]{"foo.src", "foo.car", "bar.car"}) {
+            threads.add(startTransfer(scheduler, "c", name, order));
+            for (int i = 0; i < 100 && scheduler.getWaiting() < threads.size(); i++)
+                Thread.sleep(10);
+        }
+        Assert.assertEquals(3, scheduler.getWaiting());
+        slot.close();
+        for (Thread thread : threads)
+            thread.join(10000);
+        Assert.assertEquals(Arrays.asList("foo.car", "bar.car", "foo.src"), order);
+        Assert.assertEquals(3, scheduler.getWaited());
+        Assert.assertEquals(0, scheduler.getRunning());
+
+        // one slot per host: a busy host does not hold the others up
+        final TransferScheduler perHost = new TransferScheduler(2, 1);
+        order.clear();
+        slot = perHost.acquire("a", TransferScheduler.Priority.NORMAL);
+        Thread sameHost = startTransfer(perHost, "a", "a.car", order);
+        for (int i = 0; i < 100 && perHost.getWaiting() < 1; i++)
+            Thread.sleep(10);
+        startTransfer(perHost, "b", "b.car", order).join(10000);
+        Assert.assertEquals(Arrays.asList("b.car"), order);
+        slot.close();
+        sameHost.join(10000);
+        Assert.assertEquals(Arrays.asList("b.car", "a.car"), order);
+
+        // only the outermost slot frees one, whatever the order or thread
+        final TransferScheduler nested = new TransferScheduler(1, 1);
+        final TransferScheduler.Slot outer = nested.acquire("a", TransferScheduler.Priority.NORMAL);
+        TransferScheduler.Slot inner = nested.acquire("b", TransferScheduler.Priority.NORMAL);
+        Thread closer = new Thread() {
+            public void run() {
+                outer.close();
+            }
+        };
+        closer.start();
+        closer.join(10000);
+        Assert.assertEquals(0, nested.getRunning());
+        inner.close();
+        Assert.assertEquals(0, nested.getRunning());
+        // and this thread's next slot is a real one again
+        slot = nested.acquire("a", TransferScheduler.Priority.NORMAL);
+        Assert.assertEquals(1, nested.getRunning());
+        slot.close();
+        Assert.assertEquals(0, nested.getRunning());
+    }
+
+    private static Thread startTransfer(final TransferScheduler scheduler, final String host, final String name, final List<String> order) {
+        Thread thread = new Thread() {
+            public void run() {
+                try (TransferScheduler.Slot slot = scheduler.acquire(host, TransferScheduler.Priority.of(name))) {
+                    order.add(name);
+                } catch (IOException e) {
+                    order.add(e.toString());
+                }
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void testCachingProxy() throws Exception {
+        final byte[] content = "the proxied content".getBytes(StandardCharsets.UTF_8);
+        File source = File.createTempFile("proxied-", ".car");
+        Files.write(source.toPath(), content);
+        final byte[] sha1 = ShaSigner.sha1(source).getBytes(StandardCharsets.US_ASCII);
+        Assert.assertTrue(source.delete());
+        final String path = "/com/acme/proxied/1.0/com.acme.proxied-1.0.car";
+        final AtomicInteger gets = new AtomicInteger();
+        HttpServer upstream = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        upstream.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    String file = exchange.getRequestURI().getPath();
+                    byte[] body;
+                    if (file.equals(path))
+                        body = content;
+                    else if (file.equals(path + ".sha1"))
+                        body = sha1;
+                    else {
+                        exchange.sendResponseHeaders(404, -1);
+                        return;
+                    }
+                    if (exchange.getRequestMethod().equals("HEAD")) {
+                        exchange.getResponseHeaders().set("Content-Length", String.valueOf(body.length));
+                        exchange.sendResponseHeaders(200, -1);
+                        return;
+                    }
+                    if (file.equals(path)) {
+                        gets.incrementAndGet();
+                        // slow enough for the proxy's clients to ask at the same time
+                        Thread.sleep(200);
+                    }
+                    exchange.sendResponseHeaders(200, body.length);
+                    exchange.getResponseBody().write(body);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        upstream.start();
+        File proxyCache = Files.createTempDirectory("ceylon-cmrproxy-").toFile();
+        File clientCache = Files.createTempDirectory("ceylon-cmrclient-").toFile();
+        CachingProxyServer proxy = null;
+        try {
+            String url = "http://localhost:" + upstream.getAddress().getPort();
+            RepositoryManager proxied = new RepositoryManagerBuilder(proxyCache, log, false, 20000, java.net.Proxy.NO_PROXY)
+                    .addRepository(new DefaultRepository(new RemoteContentStore(url, log, false, 20000, java.net.Proxy.NO_PROXY).createRoot()))
+                    .buildRepository();
+            proxy = new CachingProxyServer(proxied, log);
+            proxy.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+            // concurrent misses share a single upstream download
+            final URL artifact = new URL(proxy.getUrl() + path);
+            final List<Object> bodies = Collections.synchronizedList(new ArrayList<>());
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                Thread thread = new Thread() {
+                    public void run() {
+                        try (java.io.InputStream in = artifact.openStream()) {
+                            java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+                            IOUtils.copyStream(in, out, false, true);
+                            bodies.add(new String(out.toByteArray(), StandardCharsets.UTF_8));
+                        } catch (IOException e) {
+                            bodies.add(e);
+                        }
+                    }
+                };
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads)
+                thread.join(20000);
+            Assert.assertEquals(Collections.nCopies(4, new String(content, StandardCharsets.UTF_8)), bodies);
+            Assert.assertEquals(1, gets.get());
+
+            // and the proxy works as a remote repository, from its cache
+            RepositoryManager client = new RepositoryManagerBuilder(clientCache, log, false, 20000, java.net.Proxy.NO_PROXY)
+                    .addRepository(new DefaultRepository(new RemoteContentStore(proxy.getUrl(), log, false, 20000, java.net.Proxy.NO_PROXY).createRoot()))
+                    .buildRepository();
+            File file = client.getArtifact(new ArtifactContext("com.acme.proxied", "1.0", ArtifactContext.CAR));
+            Assert.assertNotNull(file);
+            Assert.assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+            Assert.assertEquals(1, gets.get());
+            Assert.assertNull(client.getArtifact(new ArtifactContext("com.acme.missing", "1.0", ArtifactContext.CAR)));
+            Assert.assertTrue(proxy.getNotFound() > 0);
+        } finally {
+            if (proxy != null)
+                proxy.stop(0);
+            upstream.stop(0);
+            FileUtil.deleteQuietly(proxyCache);
+            FileUtil.deleteQuietly(clientCache);
+        }
+    }
+
+    @Test
+    public void testCacheCollector() throws Exception {
+        File cache = Files.createTempDirectory("ceylon-cmrgc-").toFile();
+        try {
+            long now = System.currentTimeMillis();
+            long day = 24 * 60 * 60 * 1000L;
+            File a = cacheFolder(cache, "com/acme/a/1.0", 100, now - 10 * day, "com.acme.a-1.0.car", "com.acme.a-1.0.car.sha1.local", "com.acme.a-1.0.car.origin", "module-doc/index.html");
+            File b = cacheFolder(cache, "com/acme/b/1.0", 100, now - 5 * day, "com.acme.b-1.0.car");
+            File c = cacheFolder(cache, "com/acme/c/1.0", 100, now, "com.acme.c-1.0.car");
+            File d = cacheFolder(cache, "com/acme/d/1.0", 100, now - 20 * day, "com.acme.d-1.0.car");
+            File e = cacheFolder(cache, "com/acme/e/1.0", 10, now - 40 * day, "com.acme.e-1.0.car.missing");
+
+            // incremental: each run scans the next two folders
+            CacheCollector collector = new CacheCollector(cache, log);
+            collector.setScanLimit(2);
+            CacheCollector.Result result = collector.collect();
+            Assert.assertEquals(2, result.getScanned());
+            Assert.assertFalse(result.isComplete());
+            result = collector.collect();
+            Assert.assertEquals(2, result.getScanned());
+            Assert.assertFalse(result.isComplete());
+            result = collector.collect();
+            Assert.assertEquals(1, result.getScanned());
+            Assert.assertTrue(result.isComplete());
+            Assert.assertEquals(5, result.getFolders());
+            Assert.assertEquals(0, result.getEvicted());
+
+            // too old, then least recently used until it fits, never the pinned one
+            collector = new CacheCollector(cache, log);
+            collector.setMaxAge(30 * day);
+            collector.setMaxSize(result.getSize() - 10 - 1);
+            collector.pin("com.acme.d", "1.0");
+            result = collector.collect();
+            Assert.assertEquals(2, result.getEvicted());
+            Assert.assertFalse(e.exists());
+            Assert.assertFalse(e.getParentFile().exists());
+            Assert.assertFalse(a.exists());
+            Assert.assertTrue(b.exists());
+            Assert.assertTrue(c.exists());
+            Assert.assertTrue(d.exists());
+
+            // a recorded use counts, even when the index says otherwise
+            CacheCollector.accessed(b);
+            Assert.assertTrue(new File(b, CacheCollector.ACCESSED).isFile());
+            collector.setGracePeriod(60 * 1000L);
+            collector.setMaxSize(0);
+            result = collector.collect();
+            Assert.assertEquals(0, result.getEvicted());
+            Assert.assertTrue(b.exists());
+            Assert.assertTrue(c.exists());
+            Assert.assertTrue(d.exists());
+        } finally {
+            FileUtil.deleteQuietly(cache);
+        }
+    }
+
+    private static File cacheFolder(File cache, String path, int size, long time, String... names) throws IOException {
+        File folder = new File(cache, path);
+        for (String name : names) {
+            File file = new File(folder, name);
+            Assert.assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+            Files.write(file.toPath(), new byte[size]);
+            Files.getFileAttributeView(file.toPath(), java.nio.file.attribute.BasicFileAttributeView.class)
+                    .setTimes(java.nio.file.attribute.FileTime.fromMillis(time), java.nio.file.attribute.FileTime.fromMillis(time), null);
+        }
+        return folder;
+    }
+
+    private static void writeFile(File file, String content) throws IOException {
+        Assert.assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
     @Test
     public void testMavenRemote() throws Exception {
         RepositoryManagerBuilder builder = getRepositoryManagerBuilder(false, 60000, java.net.Proxy.NO_PROXY);
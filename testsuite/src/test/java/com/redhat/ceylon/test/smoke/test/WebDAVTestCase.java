@@ -0,0 +1,173 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.test.smoke.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.redhat.ceylon.cmr.api.ArtifactContext;
+import com.redhat.ceylon.cmr.api.RepositoryManager;
+import com.redhat.ceylon.cmr.impl.CachingRepositoryManager;
+import com.redhat.ceylon.cmr.impl.ShaSigner;
+import com.redhat.ceylon.cmr.spi.Node;
+import com.redhat.ceylon.cmr.webdav.WebDAVContentStore;
+import com.redhat.ceylon.cmr.webdav.WebDAVPublishingSession;
+import com.redhat.ceylon.common.FileUtil;
+import com.redhat.ceylon.test.smoke.support.FakeWebDAVServer;
+
+/**
+ * WebDAV publishing and lookups, against {@link FakeWebDAVServer}.
+ */
+public class WebDAVTestCase extends AbstractTest {
+
+    private FakeWebDAVServer server;
+    private File dir;
+
+    @Before
+    public void startServer() throws Exception {
+        server = new FakeWebDAVServer().start();
+        dir = Files.createTempDirectory("ceylon-cmrdav-").toFile();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+        FileUtil.deleteQuietly(dir);
+    }
+
+    private WebDAVContentStore createStore() {
+        return new WebDAVContentStore(server.getURL(), log, false, 20000, Proxy.NO_PROXY);
+    }
+
+    private File createFile(String name, String content) throws IOException {
+        File file = new File(dir, name);
+        try (FileOutputStream os = new FileOutputStream(file)) {
+            os.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+
+    @Test
+    public void testPublishingSession() throws Exception {
+        File car = createFile("com.acme.foo-1.0.car", "car");
+        File src = createFile("com.acme.foo-1.0.src", "src");
+
+        WebDAVContentStore store = createStore();
+        try (WebDAVPublishingSession session = store.openPublishingSession("com.acme.foo", "1.0")) {
+            session.put(car.getName(), car, true);
+            session.put(src.getName(), src, true);
+            session.put("module.properties", "foo=1.0".getBytes(StandardCharsets.UTF_8));
+        }
+
+        Assert.assertArrayEquals(Files.readAllBytes(car.toPath()), server.getFile("/com/acme/foo/1.0/com.acme.foo-1.0.car"));
+        Assert.assertArrayEquals(Files.readAllBytes(src.toPath()), server.getFile("/com/acme/foo/1.0/com.acme.foo-1.0.src"));
+        Assert.assertEquals(ShaSigner.sha1(car), new String(server.getFile("/com/acme/foo/1.0/com.acme.foo-1.0.car.sha1"), StandardCharsets.US_ASCII));
+        Assert.assertNotNull(server.getFile("/com/acme/foo/1.0/module.properties"));
+        // one lock for the whole module, all collections made once
+        Assert.assertEquals(1, server.getCount("LOCK"));
+        Assert.assertEquals(1, server.getCount("UNLOCK"));
+        Assert.assertEquals(4, server.getCount("MKCOL"));
+        Assert.assertEquals(5, server.getCount("PUT"));
+        Assert.assertEquals(0, server.getLockCount());
+
+        // the collections are known now
+        server.resetStatistics();
+        try (WebDAVPublishingSession session = store.openPublishingSession("com.acme.foo", "1.0")) {
+            session.put(car.getName(), car, false);
+        }
+        Assert.assertEquals(server.toString(), 0, server.getCount("HEAD") + server.getCount("MKCOL"));
+    }
+
+    @Test
+    public void testPutArtifactReusesCollections() throws Exception {
+        WebDAVContentStore store = createStore();
+        RepositoryManager manager = new CachingRepositoryManager(store, new File(dir, "cache"), log);
+
+        manager.putArtifact(new ArtifactContext("com.acme.bar", "1.0", ArtifactContext.CAR), createFile("bar.car", "car"));
+        Assert.assertTrue(server.isCollection("/com/acme/bar/1.0"));
+        Assert.assertNotNull(server.getFile("/com/acme/bar/1.0/com.acme.bar-1.0.car"));
+
+        server.resetStatistics();
+        manager.putArtifact(new ArtifactContext("com.acme.bar", "1.0", ArtifactContext.SRC), createFile("bar.src", "src"));
+        Assert.assertNotNull(server.getFile("/com/acme/bar/1.0/com.acme.bar-1.0.src"));
+        Assert.assertEquals(server.toString(), 0, server.getCount("MKCOL"));
+        Assert.assertEquals(server.toString(), 1, server.getCount("PUT"));
+    }
+
+    @Test
+    public void testPutArtifactInSession() throws Exception {
+        WebDAVContentStore store = createStore();
+        RepositoryManager manager = new CachingRepositoryManager(store, new File(dir, "cache"), log);
+
+        File car = createFile("baz.car", "car");
+        try (WebDAVPublishingSession session = store.openPublishingSession("com.acme.baz", "1.0")) {
+            ArtifactContext context = new ArtifactContext("com.acme.baz", "1.0", ArtifactContext.CAR);
+            manager.putArtifact(context, car);
+            ShaSigner.signArtifact(manager, context, car, log);
+            Assert.assertEquals(1, server.getLockCount());
+        }
+        Assert.assertNotNull(server.getFile("/com/acme/baz/1.0/com.acme.baz-1.0.car"));
+        Assert.assertNotNull(server.getFile("/com/acme/baz/1.0/com.acme.baz-1.0.car.sha1"));
+        // the artifact and its signature went in under the session's lock
+        Assert.assertEquals(server.toString(), 1, server.getCount("LOCK"));
+        Assert.assertEquals(0, server.getLockCount());
+    }
+
+    @Test
+    public void testHandleMetadata() throws Exception {
+        WebDAVContentStore store = createStore();
+        try (WebDAVPublishingSession session = store.openPublishingSession("com.acme.qux", "1.0")) {
+            session.put("com.acme.qux-1.0.car", createFile("qux.car", "car"), false);
+            session.put("com.acme.qux-1.0.js", createFile("qux.js", "js!"), false);
+        }
+
+        // a lookup: one depth-0 PROPFIND answers all metadata queries
+        server.resetStatistics();
+        Node version = store.createRoot().getChild("com").getChild("acme").getChild("qux").getChild("1.0");
+        Node car = version.getChild("com.acme.qux-1.0.car");
+        Assert.assertNotNull(car);
+        Assert.assertTrue(car.hasBinaries());
+        Assert.assertEquals(3L, car.getSize());
+        Assert.assertTrue(car.getLastModified() > 0);
+        Assert.assertEquals(server.toString(), 1, server.getCount("PROPFIND"));
+        Assert.assertEquals(server.toString(), 0, server.getCount("HEAD"));
+        Assert.assertNull(version.getChild("com.acme.qux-1.0.src"));
+
+        // a listing: the handles keep what the PROPFIND told us
+        server.resetStatistics();
+        int files = 0;
+        for (Node child : store.createRoot().getChild("com").getChild("acme").getChild("qux").getChild("1.0").getChildren()) {
+            if (child.hasBinaries()) {
+                Assert.assertEquals(3L, child.getSize());
+                Assert.assertTrue(child.getLastModified() > 0);
+                files++;
+            }
+        }
+        Assert.assertEquals(2, files);
+        Assert.assertEquals(server.toString(), 1, server.getCount("PROPFIND"));
+    }
+}
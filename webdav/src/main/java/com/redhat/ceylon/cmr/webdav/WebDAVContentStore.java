@@ -26,7 +26,18 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.http.ProtocolException;
 import org.apache.http.client.ClientProtocolException;
@@ -59,9 +70,30 @@ import com.redhat.ceylon.model.cmr.RepositoryException;
  */
 public class WebDAVContentStore extends URLContentStore {
 
+    /**
+     * How many PUTs a {@link WebDAVPublishingSession} runs concurrently, 4 by default.
+     */
+    public static final String PUBLISH_THREADS_PROPERTY = "ceylon.webdav.publishThreads";
+
+    /**
+     * How long, in millis, a handle trusts the resource properties it got, 30 seconds by default.
+     */
+    public static final String METADATA_TTL_PROPERTY = "ceylon.webdav.metadataTtl";
+
+    private static final long METADATA_TTL = Long.getLong(METADATA_TTL_PROPERTY, 30000L);
+
+    private static final int MAX_KNOWN_COLLECTIONS = 10000;
+
     private volatile SardineImpl sardine;
     private boolean forcedAuthenticationForPutOnHerd = false;
 
+    private final int publishThreads = Math.max(1, Integer.getInteger(PUBLISH_THREADS_PROPERTY, 4));
+    private ExecutorService publishExecutor;
+    // collections we created or saw, so we don't ask again
+    private final Set<String> collections = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // collection url -> lock token, held by open publishing sessions
+    private final ConcurrentMap<String, String> locks = new ConcurrentHashMap<>();
+
     /**
      * For tests only!!!
      */
@@ -86,6 +118,11 @@ public class WebDAVContentStore extends URLContentStore {
                                 PoolingHttpClientConnectionManager phccm = (PoolingHttpClientConnectionManager)connMan;
                                 SocketConfig config = SocketConfig.custom().setSoTimeout(timeout).build();
                                 phccm.setDefaultSocketConfig(config);
+                                // publishing sessions pipeline their PUTs
+                                if (phccm.getDefaultMaxPerRoute() < publishThreads + 1)
+                                    phccm.setDefaultMaxPerRoute(publishThreads + 1);
+                                if (phccm.getMaxTotal() < publishThreads + 1)
+                                    phccm.setMaxTotal(publishThreads + 1);
                             }
                             return connMan;
                         }
@@ -149,18 +186,29 @@ public class WebDAVContentStore extends URLContentStore {
 
             final String pUrl = getUrlAsString(parent);
             String token = null;
-            if (!isHerd())
-                token = s.lock(pUrl); // local parent
+            boolean unlock = false;
+            if (!isHerd()) {
+                // an open publishing session already holds the lock
+                token = heldLock(pUrl);
+                if (token == null) {
+                    token = s.lock(pUrl); // local parent
+                    unlock = true;
+                }
+            }
             final String url = getUrlAsString(node);
             try {
-                s.put(url, stream);
+                put(s, url, stream, token);
                 return new WebDAVContentHandle(url);
             } catch (SocketTimeoutException x) {
                 SocketTimeoutException ret = new SocketTimeoutException("Timed out writing to "+url);
                 ret.initCause(x);
                 throw ret;
+            } catch (IOException x) {
+                // the collection may have gone away behind our back
+                forgetCollection(pUrl);
+                throw x;
             } finally {
-                if (!isHerd())
+                if (unlock)
                     s.unlock(pUrl, token);
             }
         } catch (IOException x) {
@@ -168,6 +216,89 @@ public class WebDAVContentStore extends URLContentStore {
         }
     }
 
+    void put(Sardine s, String url, InputStream stream, String token) throws IOException {
+        if (token == null) {
+            s.put(url, stream);
+        } else {
+            final Map<String, String> headers = new HashMap<>();
+            headers.put("Expect", "100-continue");
+            headers.put("If", "(<" + token + ">)");
+            s.put(url, stream, headers);
+        }
+    }
+
+    /**
+     * Opens a publishing session for a module version, see {@link WebDAVPublishingSession}.
+     *
+     * @param module the module name
+     * @param version the module version
+     * @return new session, which must be closed
+     */
+    public WebDAVPublishingSession openPublishingSession(String module, String version) {
+        if (module == null)
+            throw new IllegalArgumentException("Null module!");
+        if (version == null)
+            throw new IllegalArgumentException("Null version!");
+        if (!connectionAllowed())
+            throw new RepositoryException("Cannot publish to " + root + ": offline");
+        final String path = SEPARATOR + module.replace('.', '/') + SEPARATOR + version;
+        final String url = stripSlash(getUrlAsString(path));
+        final Sardine s = getSardine();
+        try {
+            String token = null;
+            if (!isHerd()) {
+                mkdirs(s, url);
+                token = s.lock(url);
+                locks.put(url, token);
+            }
+            return new WebDAVPublishingSession(this, path, url, token);
+        } catch (IOException x) {
+            throw convertIOException(x);
+        }
+    }
+
+    String getPublishUrl(String path) {
+        return getUrlAsString(compatiblePath(path));
+    }
+
+    void releaseLock(String url, String token) throws IOException {
+        if (token == null)
+            return;
+        locks.remove(url, token);
+        getSardine().unlock(url, token);
+    }
+
+    private String heldLock(String url) {
+        if (locks.isEmpty())
+            return null;
+        url = stripSlash(url);
+        // session locks are deep, so they cover the whole module folder
+        for (Map.Entry<String, String> entry : locks.entrySet()) {
+            final String locked = entry.getKey();
+            if (url.equals(locked) || url.startsWith(locked + "/"))
+                return entry.getValue();
+        }
+        return null;
+    }
+
+    synchronized ExecutorService getPublishExecutor() {
+        if (publishExecutor == null) {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(publishThreads, publishThreads, 30L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "CMR WebDAV publish " + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            publishExecutor = executor;
+        }
+        return publishExecutor;
+    }
+
     public RepositoryException convertIOException(IOException x) {
         if (x instanceof SardineException) {
             // hide this from callers because its getMessage() is borked
@@ -190,18 +321,89 @@ public class WebDAVContentStore extends URLContentStore {
         if (parent == null)
             return;
 
-        mkdirs(s, NodeUtils.firstParent(parent));
+        mkdirs(s, stripSlash(getUrlAsString(parent)));
+    }
+
+    /**
+     * Makes sure the collection and its ancestors exist, remembering the ones we have seen.
+     * We look at the deepest one first, since on a repository in use it usually exists already.
+     */
+    protected void mkdirs(Sardine s, String url) throws IOException {
+        if (url.length() <= stripSlash(root).length() || collections.contains(url))
+            return;
 
-        final String url = getUrlAsString(parent);
         if (s.exists(url) == false) {
+            final int p = url.lastIndexOf('/');
+            if (p > 0)
+                mkdirs(s, url.substring(0, p));
             s.createDirectory(url);
         }
+        if (collections.size() >= MAX_KNOWN_COLLECTIONS)
+            collections.clear();
+        collections.add(url);
+    }
+
+    private void forgetCollection(String url) {
+        collections.remove(stripSlash(url));
+    }
+
+    private static String stripSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
     }
 
     protected ContentHandle createContentHandle(Node parent, String child, String path, Node node) {
         return new WebDAVContentHandle(root + path);
     }
 
+    @Override
+    public OpenNode find(Node parent, String child) {
+        if (!hasContent(child) || !connectionAllowed() || isHerd())
+            return super.find(parent, child);
+        // one depth-0 PROPFIND instead of a HEAD, and the handle keeps what it tells us
+        final String url = getUrlAsString(compatiblePath(getFullPath(parent, child)));
+        final DavResource resource;
+        try {
+            resource = propfind(url);
+        } catch (IOException e) {
+            log.debug("Failed to check url: " + url);
+            return null;
+        }
+        if (resource == null)
+            return null;
+        final RemoteNode node = createNode(child);
+        node.setHandle(new WebDAVContentHandle(url, resource));
+        return node;
+    }
+
+    /**
+     * @return the resource's properties, or null if there is no such resource
+     */
+    protected DavResource propfind(String url) throws IOException {
+        try {
+            final List<DavResource> list = getSardine().list(url, 0);
+            health.success();
+            return list.isEmpty() ? null : list.get(0);
+        } catch (SardineException e) {
+            health.response(e.getStatusCode());
+            if (e.getStatusCode() == HttpURLConnection.HTTP_NOT_FOUND)
+                return null;
+            throw e;
+        } catch (IOException e) {
+            health.failure(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Tell our {@link com.redhat.ceylon.cmr.impl.StoreHealth} about a failed request.
+     */
+    private void failed(IOException e) {
+        if (e instanceof SardineException)
+            health.response(((SardineException) e).getStatusCode());
+        else
+            health.failure(e);
+    }
+
     public Iterable<? extends OpenNode> find(Node parent) {
         if (!connectionAllowed()) {
             return Collections.emptyList();
@@ -210,17 +412,19 @@ public class WebDAVContentStore extends URLContentStore {
         try {
             final List<OpenNode> nodes = new ArrayList<>();
             final List<DavResource> resources = getSardine().list(url);
+            health.success();
             for (DavResource dr : resources) {
                 final String label = dr.getName();
                 final RemoteNode node = new RemoteNode(label);
                 if (dr.isDirectory())
                     node.setContentMarker();
                 else
-                    node.setHandle(new WebDAVContentHandle(url + label));
+                    node.setHandle(new WebDAVContentHandle(url + label, dr));
                 nodes.add(node);
             }
             return nodes;
         } catch (IOException e) {
+            failed(e);
             log.debug("Failed to list url: " + url);
             return Collections.emptyList();
         }
@@ -232,8 +436,11 @@ public class WebDAVContentStore extends URLContentStore {
             return false;
         }
         try {
-            return getSardine().exists(getUrlAsString(path));
+            final boolean exists = getSardine().exists(getUrlAsString(path));
+            health.success();
+            return exists;
         } catch (IOException e) {
+            failed(e);
             log.debug("Failed to check url: " + path);
             return false;
         }
@@ -244,8 +451,11 @@ public class WebDAVContentStore extends URLContentStore {
             return false;
         }
         try {
-            return getSardine().exists(url.toExternalForm());
+            final boolean exists = getSardine().exists(url.toExternalForm());
+            health.success();
+            return exists;
         } catch (IOException e) {
+            failed(e);
             log.debug("Failed to check url: " + url);
             return false;
         }
@@ -259,18 +469,46 @@ public class WebDAVContentStore extends URLContentStore {
     private class WebDAVContentHandle implements ContentHandle {
 
         private final String url;
+        private volatile DavResource resource;
+        private volatile long expires;
 
         private WebDAVContentHandle(String url) {
             this.url = url;
         }
 
+        private WebDAVContentHandle(String url, DavResource resource) {
+            this.url = url;
+            setResource(resource);
+        }
+
+        private void setResource(DavResource resource) {
+            this.expires = System.currentTimeMillis() + METADATA_TTL;
+            this.resource = resource;
+        }
+
+        /**
+         * @return the properties from the listing or the last PROPFIND, as long as they are fresh; null if gone
+         */
+        private DavResource getResource() throws IOException {
+            DavResource current = resource;
+            if (current == null || System.currentTimeMillis() > expires) {
+                current = propfind(url);
+                setResource(current);
+            }
+            return current;
+        }
+
+        private DavResource getFreshResource() {
+            return System.currentTimeMillis() <= expires ? resource : null;
+        }
+
         public boolean hasBinaries() {
             if (!connectionAllowed()) {
                 return false;
             }
             try {
-                final List<DavResource> list = getSardine().list(url);
-                return list.size() == 1 && list.get(0).isDirectory() == false;
+                final DavResource dr = getResource();
+                return dr != null && dr.isDirectory() == false;
             } catch (IOException e) {
                 log.warning("Cannot list resources: " + url + "; error - " + e);
                 return false;
@@ -297,14 +535,16 @@ public class WebDAVContentStore extends URLContentStore {
 
         public long getSize() throws IOException {
             if (connectionAllowed()) {
-                if (isHerd()) {
-                    return size(new URL(url));
+                DavResource dr = getFreshResource();
+                if (dr == null) {
+                    if (isHerd()) {
+                        return size(new URL(url));
+                    }
+                    dr = getResource();
                 }
-
-                final List<DavResource> list = getSardine().list(url);
-                if (list.isEmpty() == false && list.get(0).isDirectory() == false) {
-                    Long length = list.get(0).getContentLength();
-                    if (length != null) {
+                if (dr != null && dr.isDirectory() == false) {
+                    Long length = dr.getContentLength();
+                    if (length != null && length >= 0) {
                         return length;
                     }
                 }
@@ -314,13 +554,15 @@ public class WebDAVContentStore extends URLContentStore {
 
         public long getLastModified() throws IOException {
             if (connectionAllowed()) {
-                if (isHerd()) {
-                    return lastModified(new URL(url));
+                DavResource dr = getFreshResource();
+                if (dr == null) {
+                    if (isHerd()) {
+                        return lastModified(new URL(url));
+                    }
+                    dr = getResource();
                 }
-
-                final List<DavResource> list = getSardine().list(url);
-                if (list.isEmpty() == false && list.get(0).isDirectory() == false) {
-                    Date modified = list.get(0).getModified();
+                if (dr != null && dr.isDirectory() == false) {
+                    Date modified = dr.getModified();
                     if (modified != null) {
                         return modified.getTime();
                     }
@@ -330,6 +572,7 @@ public class WebDAVContentStore extends URLContentStore {
         }
 
         public void clean() {
+            resource = null;
         }
     }
 }
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2011 Red Hat inc. and third party contributors as noted
+ * by the author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redhat.ceylon.cmr.webdav;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.redhat.ceylon.cmr.api.ArtifactContext;
+import com.redhat.ceylon.cmr.impl.ShaSigner;
+import com.redhat.ceylon.model.cmr.RepositoryException;
+
+/**
+ * Publishes all the artifacts of one module version in a single lock scope.
+ * <p/>
+ * The version collection is created (if needed) and locked once, when the session is opened,
+ * and unlocked when it is closed. In between, artifacts given to {@link #put} are uploaded
+ * concurrently, and any <code>putArtifact</code> into the same folder through a repository manager
+ * backed by the same {@link WebDAVContentStore} reuses the session's lock instead of taking its own.
+ * <p/>
+ * Typical use:
+ * <pre>
+ * try (WebDAVPublishingSession session = store.openPublishingSession("com.acme.foo", "1.0")) {
+ *     session.put("com.acme.foo-1.0.car", car, true);
+ *     session.put("com.acme.foo-1.0.src", src, true);
+ * }
+ * </pre>
+ */
+public class WebDAVPublishingSession implements Closeable {
+
+    private final WebDAVContentStore store;
+    private final String path;
+    private final String url;
+    private final String token;
+    private final List<Future<?>> puts = new ArrayList<>();
+    private boolean closed;
+
+    WebDAVPublishingSession(WebDAVContentStore store, String path, String url, String token) {
+        this.store = store;
+        this.path = path;
+        this.url = url;
+        this.token = token;
+    }
+
+    /**
+     * @return the url of the module version collection
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Queues the upload of a file into the module version collection.
+     *
+     * @param name the artifact name, e.g. <code>foo-1.0.car</code>
+     * @param file the file to upload
+     * @param sign whether to also upload its <code>.sha1</code>
+     */
+    public synchronized void put(final String name, final File file, boolean sign) {
+        if (name == null)
+            throw new IllegalArgumentException("Null name!");
+        if (file == null)
+            throw new IllegalArgumentException("Null file!");
+        checkOpen();
+        submit(name, new Callable<InputStream>() {
+            public InputStream call() throws IOException {
+                return new FileInputStream(file);
+            }
+        });
+        if (sign) {
+            // hashed on the worker, the file is read anyway
+            submit(name + ArtifactContext.SHA1, new Callable<InputStream>() {
+                public InputStream call() throws IOException {
+                    final String sha1 = ShaSigner.sha1(file);
+                    if (sha1 == null)
+                        throw new IOException("Cannot compute SHA-1 of " + file);
+                    return new ByteArrayInputStream(sha1.getBytes(StandardCharsets.US_ASCII));
+                }
+            });
+        }
+    }
+
+    /**
+     * Queues the upload of some content into the module version collection.
+     *
+     * @param name the artifact name
+     * @param content the content
+     */
+    public synchronized void put(String name, final byte[] content) {
+        if (name == null)
+            throw new IllegalArgumentException("Null name!");
+        if (content == null)
+            throw new IllegalArgumentException("Null content!");
+        checkOpen();
+        submit(name, new Callable<InputStream>() {
+            public InputStream call() {
+                return new ByteArrayInputStream(content);
+            }
+        });
+    }
+
+    private void checkOpen() {
+        if (closed)
+            throw new IllegalStateException("Publishing session is closed: " + url);
+    }
+
+    private void submit(String name, final Callable<InputStream> content) {
+        final String target = store.getPublishUrl(path + "/" + name);
+        puts.add(store.getPublishExecutor().submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                try (InputStream stream = content.call()) {
+                    store.put(store.getSardine(), target, stream, token);
+                }
+                return null;
+            }
+        }));
+    }
+
+    /**
+     * Waits for all the uploads and releases the lock.
+     *
+     * @throws RepositoryException if any upload failed
+     */
+    public synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+        IOException failure = null;
+        try {
+            for (Future<?> put : puts) {
+                try {
+                    put.get();
+                } catch (ExecutionException e) {
+                    if (failure == null)
+                        failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (Future<?> put : puts)
+                put.cancel(true);
+            failure = new IOException("Interrupted while publishing to " + url);
+        } finally {
+            try {
+                store.releaseLock(url, token);
+            } catch (IOException e) {
+                if (failure == null)
+                    failure = e;
+            }
+        }
+        if (failure != null)
+            throw store.convertIOException(failure);
+    }
+
+    @Override
+    public String toString() {
+        return "WebDAV publishing session: " + url + " (" + puts.size() + " artifacts)";
+    }
+}